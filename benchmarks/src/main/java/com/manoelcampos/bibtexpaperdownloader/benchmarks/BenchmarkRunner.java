@@ -0,0 +1,27 @@
+package com.manoelcampos.bibtexpaperdownloader.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the allocation profiler (the JMH GC profiler) always enabled,
+ * so that every result reports the bytes allocated per operation besides the time.
+ * Accepts the same command line options as the JMH runner, such as a regex
+ * to select the benchmarks to run or {@code -p entries=1000} to select parameter values.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class BenchmarkRunner {
+    public static void main(String args[]) throws RunnerException, CommandLineOptionException {
+        final Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,95 @@
+package com.manoelcampos.bibtexpaperdownloader.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Scanner;
+
+/**
+ * Generates the bibtex files and loads the recorded pages used by the benchmarks.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+final class BibTeXFixtures {
+    /**
+     * Titles with the usual mix of plain text, LaTeX accents and braces
+     * found in bibtex files exported by the repositories.
+     */
+    static final String TITLES[] = {
+        "Energy-Efficient Virtual Machine Placement in Cloud Data Centers",
+        "A Survey on Software-Defined Networking: Architecture, Challenges and Applications",
+        "Avalia{\\c{c}}{\\~a}o de Desempenho de Redes {IEEE} 802.11 em Ambientes Urbanos",
+        "Sch{\\\"o}nhage--Strassen Multiplication: {Theory} and Practice",
+        "Fault-Tolerant Scheduling for Real-Time Systems: {A} {Markov} Approach",
+        "{\\'E}tude Comparative des Algorithmes de Routage {\\`a} Faible Latence"
+    };
+
+    private BibTeXFixtures(){}
+
+    /**
+     * Creates a temporary bibtex file with a given number of IEEE entries.
+     * @param entries the number of entries
+     * @return the path of the created file
+     * @throws IOException when the file cannot be written
+     */
+    static Path createBibTeXFile(final int entries) throws IOException {
+        final Path file = Files.createTempFile("benchmark-", ".bib");
+        try (final Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < entries; i++) {
+                writer.write(entry(i));
+            }
+        }
+        return file;
+    }
+
+    private static String entry(final int i) {
+        return String.format(
+            "@INPROCEEDINGS{paper%d,%n" +
+            "author={Silva, Jo{\\~a}o and Smith, John and M{\\\"u}ller, Hans},%n" +
+            "booktitle={Proceedings of the %d{th} International Conference on Distributed Systems},%n" +
+            "title={%s},%n" +
+            "year={%d},%n" +
+            "pages={%d-%d},%n" +
+            "keywords={cloud computing;virtualization;scheduling},%n" +
+            "doi={10.1109/ICDS.%d.%d},%n" +
+            "ISSN={1063-6927},%n" +
+            "month={June},%n" +
+            "url={http://ieeexplore.ieee.org/stamp/stamp.jsp?arnumber=%d},}%n%n",
+            i, i % 40, TITLES[i % TITLES.length], 2000 + i % 16, i, i + 10, 2000 + i % 16, i, 7000000 + i);
+    }
+
+    /**
+     * Deletes a bibtex file created by {@link #createBibTeXFile(int)}
+     * and the journals the downloader creates next to it.
+     * @param file the bibtex file
+     * @throws IOException when the files cannot be deleted
+     */
+    static void delete(final Path file) throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".journal"));
+        Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".jobs"));
+    }
+
+    /**
+     * Loads a recorded paper page.
+     * @param name the name of the page file inside the pages resource directory
+     * @return the page HTML, with line breaks removed
+     * (as done by {@link com.manoelcampos.bibtexpaperdownloader.HttpUtils#getWebPageHtmlContent(java.lang.String)})
+     * @throws IOException when the page cannot be read
+     */
+    static String loadPage(final String name) throws IOException {
+        try (final InputStream in = BibTeXFixtures.class.getResourceAsStream("/pages/" + name)) {
+            if(in == null)
+                throw new IOException("Recorded page not found: " + name);
+            final StringBuilder html = new StringBuilder();
+            final Scanner scanner = new Scanner(in, StandardCharsets.UTF_8.name());
+            while(scanner.hasNextLine()){
+                html.append(scanner.nextLine());
+            }
+            return html.toString();
+        }
+    }
+}
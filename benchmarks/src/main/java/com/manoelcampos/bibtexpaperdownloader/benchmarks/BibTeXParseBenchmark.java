@@ -0,0 +1,58 @@
+package com.manoelcampos.bibtexpaperdownloader.benchmarks;
+
+import com.manoelcampos.bibtexpaperdownloader.BibTexPapersDownloader;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the parsing of a bibtex file by {@link BibTexPapersDownloader},
+ * that happens before any paper is downloaded.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BibTeXParseBenchmark {
+    @Param({"1000", "10000"})
+    private int entries;
+
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        file = BibTeXFixtures.createBibTeXFile(entries);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BibTeXFixtures.delete(file);
+    }
+
+    @Benchmark
+    public BibTexPapersDownloader parse() throws Exception {
+        return new BibTexPapersDownloader(file.toString(), "IEEE");
+    }
+
+    @Benchmark
+    public int countEntriesForStreaming() throws Exception {
+        return new BibTexPapersDownloader(file.toString(), "IEEE", true).numberOfPapers();
+    }
+}
@@ -0,0 +1,39 @@
+package com.manoelcampos.bibtexpaperdownloader.benchmarks;
+
+import com.manoelcampos.bibtexpaperdownloader.FileSystemUtils;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the generation of a valid file name from a paper title
+ * by {@link FileSystemUtils#validateFileName(java.lang.String)}, that is done for every downloaded paper.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileNameValidationBenchmark {
+    @Param({
+        "Energy-Efficient Virtual Machine Placement in Cloud Data Centers",
+        "A Survey on SDN: Architecture, Challenges/Applications? <Part 1> \"Extended\" *Version* | 2016"
+    })
+    private String title;
+
+    @Benchmark
+    public String validateFileName() {
+        return FileSystemUtils.validateFileName(title);
+    }
+}
@@ -0,0 +1,52 @@
+package com.manoelcampos.bibtexpaperdownloader.benchmarks;
+
+import com.manoelcampos.bibtexpaperdownloader.Paper;
+import java.util.concurrent.TimeUnit;
+import org.jbibtex.StringValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the conversion of bibtex values to plain text by {@link Paper#keyValueToStr(org.jbibtex.Value)},
+ * for values with and without LaTeX commands.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LaTeXConversionBenchmark {
+    /**
+     * Index of the title inside {@link BibTeXFixtures#TITLES}:
+     * the first two are plain text, the others have LaTeX commands.
+     */
+    @Param({"0", "2", "3", "5"})
+    private int title;
+
+    private Paper paper;
+    private StringValue value;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        paper = new Paper(null, null, null);
+        value = new StringValue(BibTeXFixtures.TITLES[title], StringValue.Style.BRACED);
+    }
+
+    @Benchmark
+    public String keyValueToStr() throws Exception {
+        return paper.keyValueToStr(value);
+    }
+}
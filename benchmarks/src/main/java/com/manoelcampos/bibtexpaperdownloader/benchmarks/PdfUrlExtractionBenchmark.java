@@ -0,0 +1,69 @@
+package com.manoelcampos.bibtexpaperdownloader.benchmarks;
+
+import com.manoelcampos.bibtexpaperdownloader.HttpUtils;
+import com.manoelcampos.bibtexpaperdownloader.PaperPage;
+import com.manoelcampos.bibtexpaperdownloader.repository.PaperRepository;
+import com.manoelcampos.bibtexpaperdownloader.repository.PaperRepositoryFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the extraction of the PDF URL from recorded paper pages of each repository,
+ * both by {@link HttpUtils#getInformationFromWebPageContent(java.lang.String, java.util.regex.Pattern)}
+ * and by the single-pass scan of {@link PaperPage}, that also looks for the unallowed access message.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PdfUrlExtractionBenchmark {
+    /**
+     * The recorded page, whose name starts with the name of its repository.
+     */
+    @Param({"IEEE-paper-page.html", "ScienceDirect-paper-page.html"})
+    private String page;
+
+    private String html;
+    private PaperRepository repository;
+    private Pattern pdfUrlPattern;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        html = BibTeXFixtures.loadPage(page);
+        repository = PaperRepositoryFactory.getInstance(page.substring(0, page.indexOf('-')));
+        pdfUrlPattern = repository.getPatternToExtractPdfUrlFromPaperWebPage();
+        if(HttpUtils.getInformationFromWebPageContent(html, pdfUrlPattern).isEmpty())
+            throw new IllegalStateException("The PDF URL wasn't found in the recorded page " + page);
+    }
+
+    @Benchmark
+    public String extractPdfUrl() {
+        return HttpUtils.getInformationFromWebPageContent(html, pdfUrlPattern);
+    }
+
+    @Benchmark
+    public String extractPdfUrlFromRegex() {
+        return HttpUtils.getInformationFromWebPageContent(html, repository.getRegexToExtractPdfUrlFromPaperWebPage());
+    }
+
+    @Benchmark
+    public PaperPage parsePaperPage() {
+        return PaperPage.parse(page, html, repository);
+    }
+}
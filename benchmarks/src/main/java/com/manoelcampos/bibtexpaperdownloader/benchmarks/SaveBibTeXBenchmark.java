@@ -0,0 +1,68 @@
+package com.manoelcampos.bibtexpaperdownloader.benchmarks;
+
+import com.manoelcampos.bibtexpaperdownloader.BibTexPapersDownloader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the regeneration of an entire bibtex file
+ * by {@link BibTexPapersDownloader#saveChangesInBibTexFile()}.
+ * The messages the method prints are discarded, so that they don't
+ * flood the benchmark output.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SaveBibTeXBenchmark {
+    @Param({"1000", "10000", "100000"})
+    private int entries;
+
+    private Path file;
+    private BibTexPapersDownloader bibtex;
+    private PrintStream out;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        file = BibTeXFixtures.createBibTeXFile(entries);
+        bibtex = new BibTexPapersDownloader(file.toString(), "IEEE");
+        out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                //discards the output
+            }
+        }));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(out);
+        BibTeXFixtures.delete(file);
+    }
+
+    @Benchmark
+    public boolean saveChangesInBibTexFile() throws IOException {
+        return bibtex.saveChangesInBibTexFile();
+    }
+}
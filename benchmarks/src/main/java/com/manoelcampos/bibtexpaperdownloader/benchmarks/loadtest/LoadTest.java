@@ -0,0 +1,283 @@
+package com.manoelcampos.bibtexpaperdownloader.benchmarks.loadtest;
+
+import com.manoelcampos.bibtexpaperdownloader.BibTexPapersDownloader;
+import com.manoelcampos.bibtexpaperdownloader.HttpTransport;
+import com.manoelcampos.bibtexpaperdownloader.HttpUtils;
+import com.manoelcampos.bibtexpaperdownloader.JobJournal;
+import com.manoelcampos.bibtexpaperdownloader.MetadataApi;
+import com.manoelcampos.bibtexpaperdownloader.RetryPolicy;
+import com.manoelcampos.bibtexpaperdownloader.UrlConnectionTransport;
+import com.manoelcampos.bibtexpaperdownloader.repository.Auto;
+import com.manoelcampos.bibtexpaperdownloader.repository.IEEE;
+import com.manoelcampos.bibtexpaperdownloader.repository.PaperRepository;
+import com.manoelcampos.bibtexpaperdownloader.repository.RepositoryRouter;
+import com.manoelcampos.bibtexpaperdownloader.repository.ScienceDirect;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Downloads the papers of a generated bibtex file from a {@link MockPublisherServer},
+ * exercising the whole pipeline (routing, rate limiting, page scraping or metadata,
+ * retries, circuit breakers, PDF download and bibtex write-back) under a controlled load,
+ * and reports the throughput and the latency percentiles of the run.
+ *
+ * <p>The bibtex file alternates IEEE and ScienceDirect entries, that are routed by
+ * the {@link Auto} router and downloaded in parallel.
+ * Options are given as {@code --name=value}:</p>
+ * <ul>
+ *   <li>{@code papers}: number of papers (default 200);</li>
+ *   <li>{@code pdf-size}: size in bytes of each PDF (default {@value MockPublisherServer#DEFAULT_PDF_SIZE});</li>
+ *   <li>{@code latency} and {@code jitter}: time in milliseconds each request waits, plus a random jitter (default 20 and 10);</li>
+ *   <li>{@code throttle-rate} and {@code failure-rate}: probability of a request being answered with HTTP 429 or 503 (default 0);</li>
+ *   <li>{@code threads}: number of papers downloaded at the same time from each repository (default 4);</li>
+ *   <li>{@code rate-limit}: maximum requests per second to each host, 0 for no limit (default 0);</li>
+ *   <li>{@code connections}: maximum simultaneous connections to each host, 0 for no limit (default 0);</li>
+ *   <li>{@code retries}: maximum number of retries of each paper (default 3);</li>
+ *   <li>{@code streaming}: downloads the papers while the bibtex file is parsed;</li>
+ *   <li>{@code metadata}: gets the PDF URLs from the DOI metadata instead of the paper pages;</li>
+ *   <li>{@code verbose}: shows the output of the downloader.</li>
+ * </ul>
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class LoadTest {
+    private static final String OPTION_PREFIX = "--";
+
+    private final int papers;
+    private final int pdfSize;
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double throttleRate;
+    private final double failureRate;
+    private final int threads;
+    private final double rateLimit;
+    private final int connections;
+    private final int retries;
+    private final boolean streaming;
+    private final boolean metadata;
+    private final boolean verbose;
+
+    public LoadTest(final String args[]) {
+        papers = Integer.parseInt(getOption(args, "papers", "200"));
+        pdfSize = Integer.parseInt(getOption(args, "pdf-size", String.valueOf(MockPublisherServer.DEFAULT_PDF_SIZE)));
+        latencyMillis = Long.parseLong(getOption(args, "latency", "20"));
+        jitterMillis = Long.parseLong(getOption(args, "jitter", "10"));
+        throttleRate = Double.parseDouble(getOption(args, "throttle-rate", "0"));
+        failureRate = Double.parseDouble(getOption(args, "failure-rate", "0"));
+        threads = Integer.parseInt(getOption(args, "threads", "4"));
+        rateLimit = Double.parseDouble(getOption(args, "rate-limit", "0"));
+        connections = Integer.parseInt(getOption(args, "connections", "0"));
+        retries = Integer.parseInt(getOption(args, "retries", "3"));
+        streaming = Boolean.parseBoolean(getOption(args, "streaming", "false"));
+        metadata = Boolean.parseBoolean(getOption(args, "metadata", "false"));
+        verbose = Boolean.parseBoolean(getOption(args, "verbose", "false"));
+    }
+
+    public static void main(String args[]) throws Exception {
+        new LoadTest(args).run();
+    }
+
+    /**
+     * Gets the value of an option in the format --name=value.
+     * An option given without a value (--name) has the value "true".
+     */
+    private static String getOption(final String args[], final String name, final String defaultValue) {
+        final String option = OPTION_PREFIX + name;
+        for (String arg : args) {
+            arg = arg.trim();
+            if(arg.equals(option))
+                return "true";
+            if(arg.startsWith(option + "="))
+                return arg.substring(option.length() + 1).trim();
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Runs the load test and shows its results.
+     * @throws Exception when the test cannot be run
+     */
+    public void run() throws Exception {
+        final Path dir = Files.createTempDirectory("loadtest-");
+        final HttpTransport previousTransport = HttpUtils.getTransport();
+        final String previousMetadataApi = MetadataApi.getBaseUrl();
+        final PrintStream out = System.out;
+        try (final MockPublisherServer server = createServer().start()) {
+            final MockPublisherTransport transport = new MockPublisherTransport(server, new UrlConnectionTransport(5, 30));
+            HttpUtils.setTransport(transport);
+            MetadataApi.setBaseUrl(metadata ? MetadataApi.DEFAULT_BASE_URL : "");
+
+            final Path bib = createBibTeXFile(dir.resolve("loadtest.bib"));
+            out.printf("Downloading %d papers (%s) from the mock publishers at %s...\n", 
+                    papers, streaming ? "streaming" : "parsed", server.getAddress());
+            if(!verbose)
+                System.setOut(new PrintStream(new NullOutputStream()));
+
+            final long start = System.nanoTime();
+            final BibTexPapersDownloader bibtex = new BibTexPapersDownloader(bib.toString(), createRouter(), streaming);
+            bibtex.setDownloadDir(dir.toString());
+            bibtex.setNumberOfThreads(threads);
+            bibtex.setMetadataEnricher(null);
+            bibtex.setRetryPolicy(new RetryPolicy(retries, 100, 2000));
+            bibtex.downloadAllPapers();
+            final double seconds = (System.nanoTime() - start) / 1e9;
+
+            System.setOut(out);
+            showResults(bibtex, server, transport, seconds);
+        } finally {
+            System.setOut(out);
+            HttpUtils.setTransport(previousTransport);
+            MetadataApi.setBaseUrl(previousMetadataApi);
+            delete(dir);
+        }
+    }
+
+    private MockPublisherServer createServer() {
+        return new MockPublisherServer()
+                .setPdfSize(pdfSize)
+                .setLatencyMillis(latencyMillis)
+                .setJitterMillis(jitterMillis)
+                .setThrottleRate(throttleRate)
+                .setFailureRate(failureRate);
+    }
+
+    private RepositoryRouter createRouter() {
+        return new Auto(Arrays.<PaperRepository>asList(
+                new LoadTestIEEE(rateLimit, connections), 
+                new LoadTestScienceDirect(rateLimit, connections)));
+    }
+
+    private Path createBibTeXFile(final Path file) throws IOException {
+        try (final Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 1; i <= papers; i++) {
+                final boolean ieee = i % 2 == 1;
+                writer.write(String.format(
+                    "@ARTICLE{paper%d,%n" +
+                    "author={Silva, Jo{\\~a}o and Smith, John},%n" +
+                    "title={Load Test Paper %d},%n" +
+                    "journal={%s},%n" +
+                    "year={%d},%n" +
+                    "doi={%s},%n" +
+                    "url={%s},}%n%n",
+                    i, i, ieee ? "IEEE Transactions on Load Testing" : "Journal of Load Testing", 2000 + i % 16,
+                    ieee ? MockPublisherServer.getIeeeDoi(i) : MockPublisherServer.getScienceDirectDoi(i),
+                    ieee ? MockPublisherServer.getIeeePageUrl(i) : MockPublisherServer.getScienceDirectPageUrl(i)));
+            }
+        }
+        return file;
+    }
+
+    private void showResults(
+            final BibTexPapersDownloader bibtex, final MockPublisherServer server, 
+            final MockPublisherTransport transport, final double seconds) 
+    {
+        final JobJournal jobs = bibtex.getJobJournal();
+        final Map<JobJournal.State, Integer> states = jobs.countByState();
+        final Integer done = states.get(JobJournal.State.DONE);
+        final int downloaded = done == null ? 0 : done;
+        final List<Double> latencies = transport.getLatenciesMillis();
+
+        System.out.printf("Papers:     %d downloaded of %d in %.2f s %s\n", downloaded, papers, seconds, states);
+        System.out.printf("Throughput: %.1f papers/s, %.2f MB/s\n", 
+                downloaded / seconds, transport.getBytesReceived() / seconds / (1024 * 1024));
+        System.out.printf("Latency:    p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms\n",
+                percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99), percentile(latencies, 100));
+        System.out.printf("Server:     %d requests, %d throttled, %d failed, %d bytes sent\n",
+                server.getRequests(), server.getThrottled(), server.getFailed(), server.getBytesSent());
+    }
+
+    /**
+     * Gets a percentile of a sorted list of values, by the nearest-rank method.
+     */
+    private static double percentile(final List<Double> sorted, final int percentile) {
+        if(sorted.isEmpty())
+            return 0;
+        final int rank = (int)Math.ceil(percentile / 100.0 * sorted.size());
+        return sorted.get(Math.max(0, rank - 1));
+    }
+
+    private static void delete(final Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path dir, final IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(final int b) {
+            //discards the output
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            //discards the output
+        }
+    }
+
+    /**
+     * The IEEE repository with the request limits of the load test.
+     */
+    private static class LoadTestIEEE extends IEEE {
+        private final double maxRequestsPerSecond;
+        private final int maxConnectionsPerHost;
+
+        LoadTestIEEE(final double maxRequestsPerSecond, final int maxConnectionsPerHost) {
+            this.maxRequestsPerSecond = maxRequestsPerSecond;
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+        }
+
+        @Override
+        public double getMaxRequestsPerSecond() {
+            return maxRequestsPerSecond;
+        }
+
+        @Override
+        public int getMaxConnectionsPerHost() {
+            return maxConnectionsPerHost;
+        }
+    }
+
+    /**
+     * The ScienceDirect repository with the request limits of the load test.
+     */
+    private static class LoadTestScienceDirect extends ScienceDirect {
+        private final double maxRequestsPerSecond;
+        private final int maxConnectionsPerHost;
+
+        LoadTestScienceDirect(final double maxRequestsPerSecond, final int maxConnectionsPerHost) {
+            this.maxRequestsPerSecond = maxRequestsPerSecond;
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+        }
+
+        @Override
+        public double getMaxRequestsPerSecond() {
+            return maxRequestsPerSecond;
+        }
+
+        @Override
+        public int getMaxConnectionsPerHost() {
+            return maxConnectionsPerHost;
+        }
+    }
+}
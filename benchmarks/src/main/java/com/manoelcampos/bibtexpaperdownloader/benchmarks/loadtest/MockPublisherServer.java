@@ -0,0 +1,364 @@
+package com.manoelcampos.bibtexpaperdownloader.benchmarks.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An embedded HTTP server that mimics the publishers, answering the requests
+ * the application sends to IEEE, ScienceDirect and DOI content negotiation.
+ * It serves:
+ * <ul>
+ *   <li>the IEEE stamp page ({@code /stamp/stamp.jsp?arnumber=N}), a frameset whose frame has the PDF URL;</li>
+ *   <li>the ScienceDirect article page ({@code /science/article/pii/S...}), with the {@code pdfurl} attribute;</li>
+ *   <li>the CSL JSON of a DOI ({@code /10.xxxx/...}), with a {@code link} to the PDF;</li>
+ *   <li>synthetic PDFs of a configurable size.</li>
+ * </ul>
+ *
+ * <p>Every request waits for a configurable latency (plus a random jitter)
+ * and may be answered, with configurable probabilities, with HTTP 429 (throttling)
+ * or HTTP 503 (failure), so that the retries and the circuit breaker are exercised.</p>
+ *
+ * <p>The PDF URLs in the pages point to the real publisher hosts, as the application expects,
+ * so that the requests have to be redirected to this server by a {@link MockPublisherTransport}.</p>
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class MockPublisherServer implements Closeable {
+    public static final int DEFAULT_PDF_SIZE = 256 * 1024;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final Pattern ARNUMBER = Pattern.compile("arnumber=(\\d+)");
+    private static final Pattern IEEE_DOI = Pattern.compile("10\\.1109/LT\\.(\\d+)");
+    private static final Pattern SCIENCE_DIRECT_DOI = Pattern.compile("10\\.1016/j\\.lt\\.(\\d+)");
+
+    private int pdfSize = DEFAULT_PDF_SIZE;
+    private long latencyMillis;
+    private long jitterMillis;
+    private double throttleRate;
+    private double failureRate;
+    private byte[] pdf;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    /**
+     * Starts the server at a free port of the loopback interface.
+     * @return the started server
+     * @throws IOException when the server cannot be started
+     */
+    public MockPublisherServer start() throws IOException {
+        pdf = createPdf(pdfSize);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "mock-publisher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    MockPublisherServer.this.handle(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if(server != null)
+            server.stop(0);
+        if(executor != null)
+            executor.shutdownNow();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        waitLatency();
+        final double random = ThreadLocalRandom.current().nextDouble();
+        if(random < throttleRate){
+            throttled.incrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            send(exchange, HTTP_TOO_MANY_REQUESTS, "text/plain", bytes("Too many requests"));
+            return;
+        }
+        if(random < throttleRate + failureRate){
+            failed.incrementAndGet();
+            send(exchange, 503, "text/plain", bytes("Service unavailable"));
+            return;
+        }
+
+        final String path = exchange.getRequestURI().getPath();
+        final String query = exchange.getRequestURI().getRawQuery();
+        if(path.equals("/stamp/stamp.jsp"))
+            send(exchange, 200, "text/html; charset=UTF-8", bytes(ieeePage(find(ARNUMBER, query))));
+        else if(path.startsWith("/science/article/pii/") && path.contains("/pdfft") || path.endsWith(".pdf"))
+            send(exchange, 200, "application/pdf", pdf);
+        else if(path.startsWith("/science/article/pii/"))
+            send(exchange, 200, "text/html; charset=UTF-8", bytes(scienceDirectPage(path.substring(path.lastIndexOf('/') + 1))));
+        else if(path.startsWith("/10."))
+            sendMetadata(exchange, path.substring(1));
+        else send(exchange, 404, "text/plain", bytes("Not found"));
+    }
+
+    private void waitLatency() {
+        final long delay = latencyMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0);
+        if(delay <= 0)
+            return;
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sendMetadata(final HttpExchange exchange, final String doi) throws IOException {
+        final String ieee = find(IEEE_DOI, doi), scienceDirect = find(SCIENCE_DIRECT_DOI, doi);
+        final String pdfUrl = ieee != null ? ieeePdfUrl(ieee) : scienceDirect != null ? scienceDirectPdfUrl(pii(scienceDirect)) : null;
+        if(pdfUrl == null){
+            send(exchange, 404, "text/plain", bytes("DOI not found"));
+            return;
+        }
+        final String json = 
+                "{\"DOI\":\"" + doi + "\",\"type\":\"article-journal\",\"title\":\"Load test paper\"," +
+                "\"link\":[{\"URL\":\"" + pdfUrl + "\",\"content-type\":\"application/pdf\"," +
+                "\"content-version\":\"vor\",\"intended-application\":\"similarity-checking\"}]}";
+        send(exchange, 200, "application/vnd.citationstyles.csl+json", bytes(json));
+    }
+
+    private void send(final HttpExchange exchange, final int status, final String contentType, final byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (final OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+        bytesSent.addAndGet(body.length);
+    }
+
+    private static String find(final Pattern pattern, final String text) {
+        if(text == null)
+            return null;
+        final Matcher matcher = pattern.matcher(text);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    private static byte[] bytes(final String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Creates a synthetic PDF: just the header and end of file markers the
+     * application checks, around a body of the given size.
+     */
+    private static byte[] createPdf(final int size) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(size + 32);
+        out.write(bytes("%PDF-1.4\n"));
+        final byte line[] = new byte[64];
+        Arrays.fill(line, (byte)'x');
+        line[line.length - 1] = '\n';
+        for (int i = 0; i < size; i += line.length) {
+            out.write(line, 0, Math.min(line.length, size - i));
+        }
+        out.write(bytes("\n%%EOF\n"));
+        return out.toByteArray();
+    }
+
+    private static String ieeePage(final String arnumber) {
+        return "<!DOCTYPE HTML PUBLIC \"-//W3C//DTD HTML 4.01 Frameset//EN\">\n<html><head>" +
+               "<title>IEEE Xplore Full-Text PDF:</title></head>\n<frameset rows=\"65,*\" border=\"0\">\n" +
+               "<frame src=\"http://ieeexplore.ieee.org/stamp/stampHeader.jsp?arnumber=" + arnumber + "\" frameborder=\"0\" scrolling=\"no\">\n" +
+               "<frame src=\"" + ieeePdfUrl(arnumber) + "\" frameborder=\"0\" name=\"pdfFrame\">\n" +
+               "</frameset></html>\n";
+    }
+
+    private static String scienceDirectPage(final String pii) {
+        final StringBuilder html = new StringBuilder(
+                "<!DOCTYPE html>\n<html lang=\"en\"><head><meta charset=\"utf-8\">" +
+                "<title>Load test paper - ScienceDirect</title></head>\n<body class=\"article\">\n" +
+                "<div id=\"articleToolbar\"><a id=\"pdfLink\" href=\"" + scienceDirectPdfUrl(pii) + "\" pdfurl=\"" +
+                scienceDirectPdfUrl(pii) + "\" queryStr=\"?_origin=article\" class=\"pdf\">Download PDF</a></div>\n");
+        for (int i = 0; i < 200; i++) {
+            html.append("<p>Paragraph ").append(i).append(" of the article body, with the text the page scanner has to skip.</p>\n");
+        }
+        return html.append("</body></html>\n").toString();
+    }
+
+    private static String ieeePdfUrl(final String arnumber) {
+        return "http://ieeexplore.ieee.org/ielx7/6245656/7000000/" + arnumber + ".pdf?tp=&arnumber=" + arnumber + "&isnumber=7000000";
+    }
+
+    private static String scienceDirectPdfUrl(final String pii) {
+        return "http://www.sciencedirect.com/science/article/pii/" + pii + 
+               "/pdfft?md5=82804e8d757f263cf037b084e044910d&pid=1-s2.0-" + pii + "-main.pdf";
+    }
+
+    private static String pii(final String number) {
+        return String.format("S%016d", Long.parseLong(number));
+    }
+
+    /**
+     * @param number the number of a paper
+     * @return the URL of the IEEE page of the paper
+     */
+    public static String getIeeePageUrl(final int number) {
+        return "http://ieeexplore.ieee.org/stamp/stamp.jsp?arnumber=" + number;
+    }
+
+    /**
+     * @param number the number of a paper
+     * @return the DOI of the IEEE paper
+     */
+    public static String getIeeeDoi(final int number) {
+        return "10.1109/LT." + number;
+    }
+
+    /**
+     * @param number the number of a paper
+     * @return the URL of the ScienceDirect page of the paper
+     */
+    public static String getScienceDirectPageUrl(final int number) {
+        return "http://www.sciencedirect.com/science/article/pii/" + pii(String.valueOf(number));
+    }
+
+    /**
+     * @param number the number of a paper
+     * @return the DOI of the ScienceDirect paper
+     */
+    public static String getScienceDirectDoi(final int number) {
+        return "10.1016/j.lt." + number;
+    }
+
+    /**
+     * @return the port the server is listening to
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return the address of the server
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    public int getPdfSize() {
+        return pdfSize;
+    }
+
+    /**
+     * @param pdfSize the size (in bytes) of the body of the served PDFs
+     * @return this server
+     */
+    public MockPublisherServer setPdfSize(final int pdfSize) {
+        this.pdfSize = Math.max(0, pdfSize);
+        return this;
+    }
+
+    public long getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    /**
+     * @param latencyMillis time (in milliseconds) every request waits before being answered
+     * @return this server
+     */
+    public MockPublisherServer setLatencyMillis(final long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        return this;
+    }
+
+    public long getJitterMillis() {
+        return jitterMillis;
+    }
+
+    /**
+     * @param jitterMillis maximum random time (in milliseconds) added to the latency of each request
+     * @return this server
+     */
+    public MockPublisherServer setJitterMillis(final long jitterMillis) {
+        this.jitterMillis = jitterMillis;
+        return this;
+    }
+
+    public double getThrottleRate() {
+        return throttleRate;
+    }
+
+    /**
+     * @param throttleRate probability (from 0 to 1) of a request being answered with HTTP 429
+     * @return this server
+     */
+    public MockPublisherServer setThrottleRate(final double throttleRate) {
+        this.throttleRate = throttleRate;
+        return this;
+    }
+
+    public double getFailureRate() {
+        return failureRate;
+    }
+
+    /**
+     * @param failureRate probability (from 0 to 1) of a request being answered with HTTP 503
+     * @return this server
+     */
+    public MockPublisherServer setFailureRate(final double failureRate) {
+        this.failureRate = failureRate;
+        return this;
+    }
+
+    /**
+     * @return the number of requests received
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of requests answered with HTTP 429
+     */
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    /**
+     * @return the number of requests answered with HTTP 503
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return the number of bytes of the response bodies sent
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+}
@@ -0,0 +1,163 @@
+package com.manoelcampos.bibtexpaperdownloader.benchmarks.loadtest;
+
+import com.manoelcampos.bibtexpaperdownloader.HttpTransport;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A transport that sends all requests to a {@link MockPublisherServer},
+ * whatever the host of the URL, keeping the path and query of the URL.
+ * This way, the repositories, rate limiters and circuit breakers work
+ * with the real publisher hosts, while no request leaves the machine.
+ *
+ * <p>The transport measures the bytes received and the latency of each paper:
+ * the time from the first request about the paper (its metadata or page)
+ * to the end of the download of its PDF, including retries.</p>
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class MockPublisherTransport implements HttpTransport {
+    /**
+     * Gets the number of the paper a request is about, from the IEEE arnumber,
+     * the ScienceDirect PII or the DOIs created by the {@link MockPublisherServer}.
+     */
+    private static final Pattern PAPER_NUMBER = Pattern.compile("(?:arnumber=|/pii/S0*|/LT\\.|/j\\.lt\\.)(\\d+)");
+
+    private final MockPublisherServer server;
+    private final HttpTransport transport;
+    private final ConcurrentMap<String, Long> startTimes = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    /**
+     *
+     * @param server the server to send the requests to
+     * @param transport the transport that actually sends the requests
+     */
+    public MockPublisherTransport(final MockPublisherServer server, final HttpTransport transport) {
+        this.server = server;
+        this.transport = transport;
+    }
+
+    @Override
+    public Response get(final URL url, final Map<String, String> headers) throws IOException {
+        final String paper = getPaperNumber(url);
+        if(paper != null && !startTimes.containsKey(paper))
+            startTimes.putIfAbsent(paper, System.nanoTime());
+
+        final URL local = new URL("http", server.getAddress().getHostString(), server.getPort(), url.getFile());
+        final boolean pdf = paper != null && isPdf(url);
+        return new MeasuredResponse(transport.get(local, headers), pdf ? paper : null);
+    }
+
+    private static String getPaperNumber(final URL url) {
+        final Matcher matcher = PAPER_NUMBER.matcher(url.getFile());
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    private static boolean isPdf(final URL url) {
+        final String path = url.getPath();
+        return path.endsWith(".pdf") || path.contains("/pdfft");
+    }
+
+    /**
+     * @return the number of bytes of the response bodies received
+     */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * @return the latency (in milliseconds) of each paper whose PDF was downloaded, in ascending order
+     */
+    public List<Double> getLatenciesMillis() {
+        final List<Double> list = new ArrayList<>(latencies.size());
+        for (Long nanos : latencies) {
+            list.add(nanos / (double)TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        Collections.sort(list);
+        return list;
+    }
+
+    /**
+     * A response that counts the bytes read from its body and,
+     * if it's the successful response of a PDF, records the latency of its paper when closed.
+     */
+    private class MeasuredResponse implements Response {
+        private final Response response;
+        private final String pdfOfPaper;
+        private InputStream body;
+
+        MeasuredResponse(final Response response, final String pdfOfPaper) {
+            this.response = response;
+            this.pdfOfPaper = pdfOfPaper;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return response.getStatusCode();
+        }
+
+        @Override
+        public String getHeader(final String name) {
+            return response.getHeader(name);
+        }
+
+        @Override
+        public long getContentLength() {
+            return response.getContentLength();
+        }
+
+        @Override
+        public synchronized InputStream getBody() throws IOException {
+            if(body == null)
+                body = new CountingInputStream(response.getBody());
+            return body;
+        }
+
+        @Override
+        public void close() throws IOException {
+            response.close();
+            if(pdfOfPaper == null || getStatusCode() != 200)
+                return;
+            final Long start = startTimes.remove(pdfOfPaper);
+            if(start != null)
+                latencies.add(System.nanoTime() - start);
+        }
+    }
+
+    private class CountingInputStream extends FilterInputStream {
+        CountingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if(b != -1)
+                bytesReceived.incrementAndGet();
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if(n > 0)
+                bytesReceived.addAndGet(n);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits a BibTeX file into chunks without parsing it, so that the file can be processed
+ * one object at a time, instead of being entirely loaded into memory.
+ * Each chunk is either a BibTeX object (an entry, string, preamble or comment
+ * starting with @ and delimited by braces or parentheses)
+ * or the free text between two objects.
+ * Concatenating the text of all chunks results in the original file content.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class BibTeXChunkReader implements Closeable {
+    private static final int NONE = -2;
+
+    private final BufferedReader reader;
+    private long position;
+    private int pushedBack = NONE;
+    private boolean objectStartPending;
+
+    /**
+     *
+     * @param reader the reader to get the BibTeX content from
+     */
+    public BibTeXChunkReader(final Reader reader) {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader)reader : new BufferedReader(reader);
+    }
+
+    /**
+     * Reads the next chunk.
+     * @return the next chunk or null if the end of the content was reached
+     * @throws IOException when the content cannot be read
+     */
+    public Chunk next() throws IOException {
+        if(objectStartPending){
+            objectStartPending = false;
+            return readObject(position - 1);
+        }
+
+        final long offset = position;
+        final StringBuilder text = new StringBuilder();
+        int c;
+        while ((c = read()) != -1) {
+            if(c == '@'){
+                if(text.length() == 0)
+                    return readObject(offset);
+                objectStartPending = true;
+                return new Chunk(text.toString(), offset, null);
+            }
+            text.append((char)c);
+        }
+        return text.length() == 0 ? null : new Chunk(text.toString(), offset, null);
+    }
+
+    /**
+     * Reads an object, whose @ char was already read.
+     * If the @ isn't followed by a type and an opening delimiter,
+     * the read chars are returned as a text chunk.
+     */
+    private Chunk readObject(final long offset) throws IOException {
+        final StringBuilder text = new StringBuilder("@");
+        final StringBuilder type = new StringBuilder();
+        int c = skipWhitespaces(text);
+        while (c != -1 && (Character.isLetter(c) || Character.isDigit(c) || c == '_' || c == '-')) {
+            type.append((char)c);
+            text.append((char)c);
+            c = read();
+        }
+        if(c != -1 && Character.isWhitespace(c)){
+            unread(c);
+            c = skipWhitespaces(text);
+        }
+        if(type.length() == 0 || (c != '{' && c != '(')){
+            if(c != -1)
+                unread(c);
+            return new Chunk(text.toString(), offset, null);
+        }
+
+        text.append((char)c);
+        readUntilClosingDelimiter(text, c == '(');
+        return new Chunk(text.toString(), offset, type.toString().toLowerCase());
+    }
+
+    private void readUntilClosingDelimiter(final StringBuilder text, final boolean parenthesized) throws IOException {
+        int braces = parenthesized ? 0 : 1;
+        int parentheses = parenthesized ? 1 : 0;
+        int c;
+        while ((c = read()) != -1) {
+            text.append((char)c);
+            if(c == '{')
+                braces++;
+            else if(c == '}')
+                braces--;
+            else if(parenthesized && braces == 0 && c == '(')
+                parentheses++;
+            else if(parenthesized && braces == 0 && c == ')')
+                parentheses--;
+
+            if(parenthesized ? parentheses == 0 && braces <= 0 : braces == 0)
+                return;
+        }
+    }
+
+    private int skipWhitespaces(final StringBuilder text) throws IOException {
+        int c;
+        while ((c = read()) != -1 && Character.isWhitespace(c)) {
+            text.append((char)c);
+        }
+        return c;
+    }
+
+    private int read() throws IOException {
+        final int c;
+        if(pushedBack != NONE){
+            c = pushedBack;
+            pushedBack = NONE;
+        } else c = reader.read();
+        if(c != -1)
+            position++;
+        return c;
+    }
+
+    private void unread(final int c) {
+        pushedBack = c;
+        position--;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * A piece of a BibTeX content.
+     */
+    public static class Chunk {
+        private final String text;
+        private final long offset;
+        private final String type;
+
+        Chunk(final String text, final long offset, final String type) {
+            this.text = text;
+            this.offset = offset;
+            this.type = type;
+        }
+
+        /**
+         * @return the original text of the chunk
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return the position (in chars) of the chunk inside the BibTeX content
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return the lower-case type of the object (such as article, string or comment)
+         * or null if the chunk isn't an object
+         */
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * @return true if the chunk is a BibTeX object, false if it's free text
+         */
+        public boolean isObject() {
+            return type != null;
+        }
+
+        /**
+         * @return true if the chunk is a BibTeX entry (an object that isn't
+         * a string, preamble or comment), false otherwise
+         */
+        public boolean isEntry() {
+            return isObject() && !"string".equals(type) && !"preamble".equals(type) && !"comment".equals(type);
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.jbibtex.BibTeXDatabase;
+import org.jbibtex.BibTeXEntry;
+import org.jbibtex.BibTeXParser;
+import org.jbibtex.BibTeXString;
+import org.jbibtex.CharacterFilterReader;
+import org.jbibtex.Key;
+import org.jbibtex.ParseException;
+
+/**
+ * Downloads the papers of a bibtex file while the file is parsed,
+ * one object at a time, instead of loading the entire file into memory first.
+ * Each entry is sent to the download pipeline as soon as it's parsed and
+ * the updated file is written, in the original order, while the next entries are processed.
+ * Just the entries being downloaded are kept in memory.
+ *
+ * <p>Strings, preambles, comments and any text between the objects
+ * are written exactly as they are in the original file.
+ * Entries whose papers are downloaded are rewritten to include the paper file and URL,
+ * while the other entries are kept as they are.
+ * Since the file is never entirely parsed, cross-references aren't resolved.</p>
+ *
+ * <p>Entries missing some field are held until a batch of them
+ * is completed by the {@link MetadataEnricher}, and just then sent to the download pipeline.</p>
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ * @see BibTeXChunkReader
+ */
+class BibTeXStreamDownloader {
+    private final BibTexPapersDownloader bibtex;
+    private final BibTeXParser parser;
+    private final MetadataEnricher enricher;
+
+    /**
+     * The entries waiting to be completed by the {@link #enricher}.
+     */
+    private final List<PendingChunk> incompleteEntries = new ArrayList<>();
+    private int order;
+
+    BibTeXStreamDownloader(final BibTexPapersDownloader bibtex) throws ParseException {
+        this.bibtex = bibtex;
+        this.enricher = bibtex.getMetadataEnricher();
+        this.parser = new BibTeXParser() {
+            @Override
+            public void checkStringResolution(Key key, BibTeXString string) {
+                if(string == null){
+                    System.err.println("Unresolved string: \"" + key.getValue() + "\"");
+                }
+            }
+
+            @Override
+            public void checkCrossReferenceResolution(Key key, BibTeXEntry entry) {
+                //cross-references cannot be resolved since the file is parsed one entry at a time
+            }
+        };
+    }
+
+    /**
+     * Counts the entries in a bibtex file, without parsing them.
+     * @param bibFileName the name of the bibtex file
+     * @return the number of entries in the file
+     * @throws IOException when the file cannot be read
+     */
+    static int countEntries(final String bibFileName) throws IOException {
+        int count = 0;
+        try (final BibTeXChunkReader chunks = new BibTeXChunkReader(new FileReader(bibFileName))) {
+            BibTeXChunkReader.Chunk chunk;
+            while ((chunk = chunks.next()) != null) {
+                if(chunk.isEntry())
+                    count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Parses the bibtex file, downloading the papers of its entries,
+     * and writes the updated file to a temporary file that replaces
+     * the original one after all entries are processed.
+     * If the download of some paper fails with an unexpected exception
+     * (see {@link RetryScheduler}), the original file is kept unchanged.
+     *
+     * @throws IOException
+     */
+    void downloadAllPapers() throws IOException {
+        final Path file = Paths.get(bibtex.getBibFileName());
+        final Path tempFile = FileSystemUtils.getTemporaryFile(file);
+        final int maxPendingChunks = bibtex.getNumberOfThreads() * 2;
+        final Deque<PendingChunk> pendingChunks = new ArrayDeque<>();
+        order = 0;
+        try (final RetryScheduler scheduler = new RetryScheduler(bibtex, bibtex.getRetryPolicy());
+             final BibTeXChunkReader chunks = new BibTeXChunkReader(new FileReader(file.toFile()));
+             final Writer writer = new FileWriter(tempFile.toFile())) {
+            BibTeXChunkReader.Chunk chunk;
+            while ((chunk = chunks.next()) != null) {
+                pendingChunks.add(process(chunk, scheduler));
+                if(enricher != null && incompleteEntries.size() >= enricher.getBatchSize())
+                    enrichIncompleteEntries(scheduler);
+                while (pendingChunks.size() > maxPendingChunks + incompleteEntries.size() ||
+                       (!pendingChunks.isEmpty() && pendingChunks.peek().isDone())) {
+                    if(pendingChunks.peek().isIncomplete())
+                        enrichIncompleteEntries(scheduler);
+                    write(writer, pendingChunks.poll());
+                }
+            }
+            enrichIncompleteEntries(scheduler);
+            while (!pendingChunks.isEmpty()) {
+                write(writer, pendingChunks.poll());
+            }
+        } catch(IOException | RuntimeException e){
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        FileSystemUtils.moveAtomically(tempFile, file);
+        System.out.printf("\nBibtex updated to include paper's PDF paths\n\n");
+    }
+
+    /**
+     * Writes a chunk to the updated bibtex file, 
+     * recording the time as the {@link DownloadMetrics.Phase#SAVE} phase.
+     */
+    private static void write(final Writer writer, final PendingChunk pending) throws IOException {
+        final long start = System.nanoTime();
+        writer.write(pending.getText());
+        DownloadMetrics.getDefault().record(DownloadMetrics.Phase.SAVE, start);
+    }
+
+    /**
+     * Processes a chunk of the bibtex file.
+     * @param chunk the chunk to process
+     * @param scheduler the scheduler where to download the paper of an entry
+     * @return the chunk waiting to be written
+     */
+    private PendingChunk process(final BibTeXChunkReader.Chunk chunk, final RetryScheduler scheduler) throws IOException {
+        if("string".equals(chunk.getType())){
+            addStrings(chunk);
+            return new PendingChunk(chunk.getText());
+        }
+        if(!chunk.isEntry())
+            return new PendingChunk(chunk.getText());
+
+        //the entries were counted in the total progress, so the ones not downloaded are skipped
+        final BibTeXEntry entry = parseEntry(chunk);
+        if(entry == null){
+            bibtex.paperSkipped();
+            return new PendingChunk(chunk.getText());
+        }
+        ++order;
+        if(!bibtex.isToDownload(entry)){
+            bibtex.paperSkipped();
+            return new PendingChunk(chunk.getText());
+        }
+
+        final PendingChunk pending = new PendingChunk(chunk.getText(), entry, order);
+        if(enricher != null && MetadataEnricher.isIncomplete(entry))
+            incompleteEntries.add(pending);
+        else schedule(pending, scheduler);
+        return pending;
+    }
+
+    /**
+     * Creates the paper of an entry and sends it to the download pipeline,
+     * if the paper has to be downloaded.
+     * @param pending the chunk of the entry
+     * @param scheduler the scheduler where to download the paper
+     */
+    private void schedule(final PendingChunk pending, final RetryScheduler scheduler) throws IOException {
+        final Paper paper = bibtex.createPaper(pending.entry);
+        pending.entry = null;
+        if(paper == null){
+            bibtex.paperSkipped();
+            return;
+        }
+        paper.setOrderInsideBibTexFile(pending.order);
+        final String file = paper.getFieldValue(Paper.FILE_FIELD);
+        if(bibtex.isResume() && bibtex.isFinishedInPreviousRun(paper)){
+            //just the file of a paper downloaded by a previous run may be missing in the entry
+            final String finishedFile = paper.getFieldValue(Paper.FILE_FIELD);
+            if(finishedFile != null && !finishedFile.equals(file))
+                pending.text = BibTeXWriteBack.patchField(pending.text, Paper.FILE_FIELD, finishedFile);
+            bibtex.paperSkipped();
+        } else if(!bibtex.isIncremental() || !paper.isAlreadyDownloaded()){
+            pending.paper = paper;
+            pending.download = scheduler.submit(paper);
+        } else bibtex.paperSkipped();
+    }
+
+    /**
+     * Completes the entries missing some field, adding the fields found to their text,
+     * and sends them to the download pipeline.
+     * @param scheduler the scheduler where to download the papers
+     */
+    private void enrichIncompleteEntries(final RetryScheduler scheduler) throws IOException {
+        if(incompleteEntries.isEmpty())
+            return;
+
+        final List<BibTeXEntry> entries = new ArrayList<>(incompleteEntries.size());
+        for (PendingChunk pending : incompleteEntries) {
+            entries.add(pending.entry);
+        }
+        final Map<String, Map<String, String>> changes = enricher.enrich(entries);
+        for (PendingChunk pending : incompleteEntries) {
+            final Map<String, String> fields = changes.get(pending.entry.getKey().getValue());
+            if(fields != null)
+                pending.text = BibTeXWriteBack.patchFields(pending.text, fields);
+            schedule(pending, scheduler);
+        }
+        incompleteEntries.clear();
+    }
+
+    private void addStrings(final BibTeXChunkReader.Chunk chunk) {
+        final BibTeXDatabase database = parse(chunk);
+        if(database != null){
+            for (BibTeXString string : database.getStrings().values()) {
+                parser.addMacro(string);
+            }
+        }
+    }
+
+    private BibTeXEntry parseEntry(final BibTeXChunkReader.Chunk chunk) {
+        final BibTeXDatabase database = parse(chunk);
+        if(database == null || database.getEntries().isEmpty())
+            return null;
+        return database.getEntries().values().iterator().next();
+    }
+
+    /**
+     * Parses a chunk of the bibtex file.
+     * @param chunk the chunk to parse
+     * @return a database containing the object in the chunk or null if the chunk is invalid
+     * (that is written unchanged to the updated file)
+     */
+    private BibTeXDatabase parse(final BibTeXChunkReader.Chunk chunk) {
+        final long start = System.nanoTime();
+        try (final CharacterFilterReader reader = new CharacterFilterReader(new StringReader(chunk.getText()))) {
+            return parser.parse(reader);
+        } catch (Exception e) {
+            System.err.printf(
+                "It was not possible to parse the bibtex object at position %d. It'll be kept unchanged.\n",
+                chunk.getOffset());
+            return null;
+        } finally {
+            DownloadMetrics.getDefault().record(DownloadMetrics.Phase.PARSE, start);
+        }
+    }
+
+    private static boolean getResult(final Future<Boolean> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("The download of the papers was interrupted.", e);
+        } catch (ExecutionException e) {
+            throw BibTexPapersDownloader.toIOException(e.getCause());
+        }
+    }
+
+    /**
+     * A chunk of the bibtex file waiting to be written to the updated file.
+     */
+    private static class PendingChunk {
+        private String text;
+        private final int order;
+
+        /**
+         * The entry in the chunk, while its paper isn't created.
+         */
+        private BibTeXEntry entry;
+
+        /**
+         * The paper of the entry, whose file and URL may be updated,
+         * or null if the chunk is written unchanged.
+         */
+        private Paper paper;
+
+        /**
+         * The result of the paper download or null if the paper was already downloaded.
+         */
+        private Future<Boolean> download;
+
+        /**
+         * Creates a chunk that is written unchanged.
+         */
+        PendingChunk(final String text) {
+            this(text, null, 0);
+        }
+
+        /**
+         * Creates a chunk of an entry.
+         * @param text the original text of the entry
+         * @param entry the parsed entry
+         * @param order the order of the entry inside the bibtex file
+         */
+        PendingChunk(final String text, final BibTeXEntry entry, final int order) {
+            this.text = text;
+            this.entry = entry;
+            this.order = order;
+        }
+
+        /**
+         * @return true if the entry is waiting to be completed
+         * before its paper is created, false otherwise
+         */
+        boolean isIncomplete() {
+            return entry != null;
+        }
+
+        boolean isDone() {
+            return !isIncomplete() && (download == null || download.isDone());
+        }
+
+        /**
+         * @return the text to be written, waiting for the paper download to finish
+         */
+        String getText() throws IOException {
+            if(paper == null || (download != null && !getResult(download)))
+                return text;
+            return BibTeXWriteBack.patchFields(text, paper.getDownloadFields());
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.jbibtex.BibTeXEntry;
+import org.jbibtex.Key;
+import org.jbibtex.ParseException;
+import org.jbibtex.Value;
+
+/**
+ * Keeps watching a set of bibtex files, downloading the papers of the entries
+ * added or changed since the files were last processed.
+ * Each time a file is changed, it's parsed again and the fingerprint of each entry
+ * (its type and fields, except the {@link Paper#FILE_FIELD file} and {@link Paper#URL_FIELD url}
+ * fields that are written by the downloads) is compared with the one of the previous version,
+ * so that just the papers of new or changed entries are scheduled for download.
+ * The entries whose papers couldn't be downloaded are also taken as changed,
+ * so that they are tried again the next time the file is processed.
+ * All the entries are new the first time a file is processed,
+ * so the papers missing when the watch starts are downloaded
+ * (the {@link BibTexPapersDownloader#setIncremental(boolean) incremental mode}
+ * should be used to skip the papers already downloaded).
+ *
+ * <p>Since the process stays up, the downloads of all files share the warm state of the JVM:
+ * the connections kept alive by the {@link HttpTransport}, the compiled patterns,
+ * the rate limiters and circuit breakers of the repositories and the {@link ResolutionCache}
+ * (if the same instance is given to all the downloaders).</p>
+ *
+ * <p>A file is processed only after it stops changing for a while,
+ * since editors usually write a file in several steps.
+ * The files are processed one at a time, by a thread of the watcher,
+ * so that changes made meanwhile are processed after the current downloads finish.</p>
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class BibTeXWatcher implements Closeable {
+    public static final long DEFAULT_QUIET_MILLIS = 1000;
+
+    private final List<Path> files;
+    private final DownloaderFactory factory;
+    private final long quietMillis;
+    private final WatchService watchService;
+    private final ExecutorService executor;
+
+    /**
+     * The fingerprints of the entries of each file, when the file was last processed.
+     */
+    private final Map<Path, Map<String, String>> fingerprints = new ConcurrentHashMap<>();
+
+    /**
+     * The files changed but not processed yet and the time of their last change.
+     */
+    private final Map<Path, Long> changedFiles = new LinkedHashMap<>();
+
+    /**
+     * The files waiting to be processed by the executor.
+     * A file is removed when its processing starts, so that a change made meanwhile
+     * schedules it again.
+     */
+    private final Set<Path> scheduledFiles = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+
+    /**
+     * Creates a watcher that waits {@link #DEFAULT_QUIET_MILLIS} after the last change of a file.
+     * @param files the bibtex files to watch
+     * @param factory the factory of the downloaders of the files
+     * @throws IOException when the directories of the files cannot be watched
+     */
+    public BibTeXWatcher(final Collection<String> files, final DownloaderFactory factory) throws IOException {
+        this(files, factory, DEFAULT_QUIET_MILLIS);
+    }
+
+    /**
+     *
+     * @param files the bibtex files to watch
+     * @param factory the factory of the downloaders of the files
+     * @param quietMillis the time (in milliseconds) a file must stay unchanged before being processed
+     * @throws IOException when the directories of the files cannot be watched
+     */
+    public BibTeXWatcher(final Collection<String> files, final DownloaderFactory factory, final long quietMillis) throws IOException {
+        this.files = new ArrayList<>(files.size());
+        for (String file : files) {
+            this.files.add(Paths.get(file).toAbsolutePath().normalize());
+        }
+        this.factory = factory;
+        this.quietMillis = quietMillis;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "bibtex-watcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        registerDirectories();
+    }
+
+    private void registerDirectories() throws IOException {
+        final Set<Path> dirs = new HashSet<>();
+        for (Path file : files) {
+            if(dirs.add(file.getParent()))
+                file.getParent().register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+    }
+
+    /**
+     * Processes all the files and keeps watching them, until the watcher is {@link #close() closed}
+     * or the current thread is interrupted.
+     */
+    public void run() {
+        for (Path file : files) {
+            schedule(file);
+        }
+        System.out.printf("Watching %d bibtex file(s) for changes\n", files.size());
+        try {
+            while(true){
+                final WatchKey key = watchService.poll(quietMillis / 2, TimeUnit.MILLISECONDS);
+                if(key != null)
+                    collectChanges(key);
+                scheduleQuietFiles();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            //the watcher was closed
+        }
+    }
+
+    private void collectChanges(final WatchKey key) {
+        final Path dir = (Path)key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if(event.kind() == StandardWatchEventKinds.OVERFLOW){
+                //some events were lost, so all files are checked
+                for (Path file : files) {
+                    changedFiles.put(file, System.currentTimeMillis());
+                }
+                continue;
+            }
+            final Path file = dir.resolve((Path)event.context());
+            if(files.contains(file))
+                changedFiles.put(file, System.currentTimeMillis());
+        }
+        key.reset();
+    }
+
+    private void scheduleQuietFiles() {
+        final long now = System.currentTimeMillis();
+        final Iterator<Map.Entry<Path, Long>> it = changedFiles.entrySet().iterator();
+        while(it.hasNext()){
+            final Map.Entry<Path, Long> entry = it.next();
+            if(now - entry.getValue() >= quietMillis){
+                schedule(entry.getKey());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Sends a file to be processed, if it isn't waiting to be processed already
+     * (in which case the last changes will be seen when it's processed).
+     * @param file the file to process
+     */
+    private void schedule(final Path file) {
+        if(!scheduledFiles.add(file))
+            return;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                scheduledFiles.remove(file);
+                try {
+                    process(file);
+                } catch (IOException | ParseException | InvalidPaperIdException | RuntimeException e) {
+                    System.err.printf("The bibtex file %s couldn't be processed: %s\n", file, e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Downloads the papers of the entries of a file that were added or changed
+     * since the file was last processed.
+     * @param file the file to process
+     * @throws IOException when the file cannot be read or written
+     * @throws ParseException when the file cannot be parsed
+     * @throws InvalidPaperIdException when an entry doesn't have a valid paper ID
+     */
+    void process(final Path file) throws IOException, ParseException, InvalidPaperIdException {
+        if(!Files.isRegularFile(file))
+            return;
+
+        final BibTexPapersDownloader bibtex = factory.create(file.toString());
+        final Map<String, String> previous = fingerprints.get(file);
+        final Map<String, String> current = getFingerprints(bibtex.getEntries());
+        final List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, String> entry : current.entrySet()) {
+            if(previous == null || !entry.getValue().equals(previous.get(entry.getKey())))
+                changed.add(entry.getKey());
+        }
+
+        if(!changed.isEmpty()){
+            System.out.printf("\n%d new or changed entries in %s\n", changed.size(), file);
+            bibtex.setKeysToDownload(changed);
+            bibtex.downloadAllPapers();
+            /*The entries may have been completed by the metadata enricher, what was written to the file,
+            so the fingerprints are computed again to not take these changes as the user's.*/
+            current.putAll(getFingerprints(bibtex.getEntries()));
+            removeUnfinished(current, bibtex.getJobJournal());
+        }
+        fingerprints.put(file, current);
+    }
+
+    /**
+     * Removes the fingerprints of the entries whose papers were tried but not finished
+     * (such as the ones that failed), so that they are taken as changed and tried again
+     * the next time the file is processed.
+     * @param fingerprints the fingerprints of the entries of a file
+     * @param jobs the journal of the last download of the file
+     */
+    private static void removeUnfinished(final Map<String, String> fingerprints, final JobJournal jobs) {
+        final Iterator<String> keys = fingerprints.keySet().iterator();
+        while(keys.hasNext()){
+            final JobJournal.Job job = jobs.get(keys.next());
+            if(job != null && !job.getState().isFinished())
+                keys.remove();
+        }
+    }
+
+    /**
+     * Computes the fingerprint of each entry.
+     * @param entries the entries
+     * @return a map where each key is the key of an entry and each value is its fingerprint
+     */
+    static Map<String, String> getFingerprints(final Collection<BibTeXEntry> entries) {
+        final Map<String, String> map = new HashMap<>(entries.size() * 2);
+        for (BibTeXEntry entry : entries) {
+            map.put(entry.getKey().getValue(), getFingerprint(entry));
+        }
+        return map;
+    }
+
+    /**
+     * Computes the fingerprint of an entry: the SHA-256 of its type and fields
+     * (sorted by name and except the fields written by the downloads).
+     * @param entry the entry
+     * @return the fingerprint in hexadecimal
+     */
+    static String getFingerprint(final BibTeXEntry entry) {
+        final Map<String, String> fields = new TreeMap<>();
+        for (Map.Entry<Key, Value> field : entry.getFields().entrySet()) {
+            final String name = field.getKey().getValue().toLowerCase(Locale.ENGLISH);
+            if(!Paper.FILE_FIELD.equals(name) && !Paper.URL_FIELD.equals(name))
+                fields.put(name, field.getValue().toUserString());
+        }
+
+        final MessageDigest digest = newDigest();
+        digest.update(entry.getType().getValue().toLowerCase(Locale.ENGLISH).getBytes(StandardCharsets.UTF_8));
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            digest.update((byte)0);
+            digest.update(field.getKey().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte)'=');
+            digest.update(field.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+        final StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required by every Java platform", e);
+        }
+    }
+
+    /**
+     * Stops watching the files. The downloads in progress are interrupted.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        executor.shutdownNow();
+    }
+}
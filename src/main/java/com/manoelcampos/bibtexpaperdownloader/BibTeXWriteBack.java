@@ -0,0 +1,543 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the changes made to the fields of bibtex entries back to the bibtex file,
+ * patching just the changed fields and keeping the rest of the file exactly as it is.
+ *
+ * <p>When the file is opened, the position (in chars) of each entry is recorded.
+ * Every change is immediately appended to a journal file (the bibtex file name followed by
+ * {@code .journal}) and synced to disk, so that saving a change costs just the size of the change.
+ * Periodically, by a thread of its own, and when {@link #checkpoint()} or {@link #close()} is called,
+ * the journaled changes are applied to the bibtex file: the entries having changes are patched
+ * while the other parts of the file are just copied to a temporary file, that atomically replaces
+ * the bibtex file. Then the applied changes are removed from the journal.
+ * The changes are recorded meanwhile, so the threads saving them never wait for the file to be copied.</p>
+ *
+ * <p>If the application dies before a checkpoint, the changes are kept in the journal
+ * and are applied to the bibtex file the next time it's opened.</p>
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ * @see BibTeXChunkReader
+ */
+public class BibTeXWriteBack implements Closeable {
+    /**
+     * Default time (in milliseconds) between the checkpoints that apply the journal to the bibtex file.
+     */
+    public static final long DEFAULT_CHECKPOINT_INTERVAL_MILLIS = 60000;
+    private static final String SEPARATOR = "\t";
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final Path file;
+    private final Path journalFile;
+    private final long checkpointIntervalMillis;
+
+    /**
+     * Lock held during a checkpoint, so that a single checkpoint runs at a time.
+     * The entries positions are changed just by checkpoints.
+     */
+    private final Object checkpointLock = new Object();
+    private final List<EntryLocation> entries = new ArrayList<>();
+    private final Map<String, Map<String, String>> pendingChanges = new LinkedHashMap<>();
+    private long indexedFileSize;
+    private long indexedFileLastModified;
+    private FileChannel journal;
+    private int changesSinceCheckpoint;
+    private ScheduledExecutorService checkpointScheduler;
+
+    /**
+     * Opens a bibtex file for write-back, with the {@link #DEFAULT_CHECKPOINT_INTERVAL_MILLIS default checkpoint interval}.
+     * @param bibFileName the name of the bibtex file
+     * @throws IOException when the bibtex file or a journal left by a previous run cannot be read
+     */
+    public BibTeXWriteBack(final String bibFileName) throws IOException {
+        this(bibFileName, DEFAULT_CHECKPOINT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Opens a bibtex file for write-back, applying the changes
+     * left in the journal by a previous run that didn't finish.
+     *
+     * @param bibFileName the name of the bibtex file
+     * @param checkpointIntervalMillis time (in milliseconds) between the periodic checkpoints,
+     * or 0 to apply the journal just when {@link #checkpoint()} or {@link #close()} is called
+     * @throws IOException when the bibtex file or a journal left by a previous run cannot be read
+     */
+    public BibTeXWriteBack(final String bibFileName, final long checkpointIntervalMillis) throws IOException {
+        this.file = Paths.get(bibFileName);
+        this.journalFile = file.resolveSibling(file.getFileName() + ".journal");
+        this.checkpointIntervalMillis = checkpointIntervalMillis;
+        indexEntries();
+        if(loadJournal() > 0){
+            System.out.printf("Applying %d changes left in %s by a previous run\n",
+                    changesSinceCheckpoint, journalFile);
+            checkpoint();
+        }
+    }
+
+    private void indexEntries() throws IOException {
+        entries.clear();
+        try (final BibTeXChunkReader chunks = new BibTeXChunkReader(new FileReader(file.toFile()))) {
+            BibTeXChunkReader.Chunk chunk;
+            while ((chunk = chunks.next()) != null) {
+                if(chunk.isEntry())
+                    entries.add(new EntryLocation(getKey(chunk.getText()), chunk.getOffset(), chunk.getText().length()));
+            }
+        }
+        indexedFileSize = Files.size(file);
+        indexedFileLastModified = Files.getLastModifiedTime(file).toMillis();
+    }
+
+    private boolean isIndexStale() throws IOException {
+        return Files.size(file) != indexedFileSize ||
+               Files.getLastModifiedTime(file).toMillis() != indexedFileLastModified;
+    }
+
+    private int loadJournal() throws IOException {
+        if(!Files.exists(journalFile))
+            return 0;
+        try (final BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String fields[] = line.split(SEPARATOR, -1);
+                //a truncated last line (written when the application died) is ignored
+                if(fields.length == 3)
+                    addPendingChange(unescape(fields[0]), unescape(fields[1]), unescape(fields[2]));
+            }
+        }
+        return changesSinceCheckpoint;
+    }
+
+    /**
+     * Records the new value of a field of an entry. The change is synced to the journal
+     * before this method returns and is applied to the bibtex file by the next checkpoint.
+     *
+     * @param key the key of the entry
+     * @param field the name of the field
+     * @param value the new value of the field (a null value is ignored)
+     * @throws IOException when the change cannot be written to the journal
+     */
+    public synchronized void setField(final String key, final String field, final String value) throws IOException {
+        if(value == null)
+            return;
+        appendToJournal(escape(key) + SEPARATOR + escape(field) + SEPARATOR + escape(value) + "\n");
+        addPendingChange(key, field, value);
+        startCheckpointScheduler();
+    }
+
+    /**
+     * Appends lines to the journal, syncing them to disk.
+     * Must be called while holding the monitor of this object.
+     */
+    private void appendToJournal(final String lines) throws IOException {
+        if(journal == null){
+            journal = FileChannel.open(journalFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8));
+        while(buffer.hasRemaining()){
+            journal.write(buffer);
+        }
+        journal.force(false);
+    }
+
+    private void startCheckpointScheduler() {
+        if(checkpointScheduler != null || checkpointIntervalMillis <= 0)
+            return;
+        checkpointScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "bibtex-checkpoint");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        checkpointScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    checkpoint();
+                } catch (IOException e) {
+                    //the changes are kept in the journal and applied by the next checkpoint
+                    System.err.println("The bibtex file couldn't be updated: " + e.getMessage());
+                }
+            }
+        }, checkpointIntervalMillis, checkpointIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void addPendingChange(final String key, final String field, final String value) {
+        Map<String, String> fields = pendingChanges.get(key);
+        if(fields == null){
+            fields = new LinkedHashMap<>();
+            pendingChanges.put(key, fields);
+        }
+        fields.put(field, value);
+        changesSinceCheckpoint++;
+    }
+
+    /**
+     * Applies the journaled changes to the bibtex file and removes them from the journal.
+     * Entries having changes are patched, while the rest of the file is copied unchanged
+     * to a temporary file that atomically replaces the bibtex file.
+     * Changes made while the file is copied are kept for the next checkpoint.
+     *
+     * @return the number of changes applied
+     * @throws IOException when the bibtex file cannot be updated
+     */
+    public int checkpoint() throws IOException {
+        synchronized(checkpointLock){
+            final Map<String, Map<String, String>> changes;
+            final int count;
+            synchronized(this){
+                count = changesSinceCheckpoint;
+                if(pendingChanges.isEmpty()){
+                    deleteJournal();
+                    return count;
+                }
+                changes = new LinkedHashMap<>();
+                for (Map.Entry<String, Map<String, String>> entry : pendingChanges.entrySet()) {
+                    changes.put(entry.getKey(), new LinkedHashMap<>(entry.getValue()));
+                }
+            }
+
+            writeChanges(changes);
+            removeAppliedChanges(changes, count);
+            return count;
+        }
+    }
+
+    /**
+     * Writes a copy of the bibtex file with some changes applied, that replaces the file.
+     */
+    private void writeChanges(final Map<String, Map<String, String>> changes) throws IOException {
+        if(isIndexStale())
+            indexEntries();
+
+        final Path tempFile = FileSystemUtils.getTemporaryFile(file);
+        try (final Reader reader = new BufferedReader(new FileReader(file.toFile()));
+             final FileOutputStream out = new FileOutputStream(tempFile.toFile())) {
+            final Writer writer = new BufferedWriter(new OutputStreamWriter(out));
+            applyChanges(changes, reader, writer);
+            writer.flush();
+            out.getChannel().force(true);
+        } catch(IOException | RuntimeException e){
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        FileSystemUtils.moveAtomically(tempFile, file);
+        indexedFileSize = Files.size(file);
+        indexedFileLastModified = Files.getLastModifiedTime(file).toMillis();
+    }
+
+    /**
+     * Removes the changes applied to the bibtex file from the pending ones and from the journal,
+     * which is rewritten with just the changes made during the checkpoint (if any).
+     */
+    private synchronized void removeAppliedChanges(final Map<String, Map<String, String>> applied, final int count) throws IOException {
+        for (Map.Entry<String, Map<String, String>> entry : applied.entrySet()) {
+            final Map<String, String> fields = pendingChanges.get(entry.getKey());
+            for (Map.Entry<String, String> field : entry.getValue().entrySet()) {
+                //a field changed again meanwhile keeps its new value pending
+                if(field.getValue().equals(fields.get(field.getKey())))
+                    fields.remove(field.getKey());
+            }
+            if(fields.isEmpty())
+                pendingChanges.remove(entry.getKey());
+        }
+        changesSinceCheckpoint -= count;
+
+        if(pendingChanges.isEmpty()){
+            deleteJournal();
+            return;
+        }
+        final StringBuilder lines = new StringBuilder();
+        for (Map.Entry<String, Map<String, String>> entry : pendingChanges.entrySet()) {
+            for (Map.Entry<String, String> field : entry.getValue().entrySet()) {
+                lines.append(escape(entry.getKey())).append(SEPARATOR).append(escape(field.getKey()))
+                     .append(SEPARATOR).append(escape(field.getValue())).append('\n');
+            }
+        }
+        //the journal is replaced atomically, so that the changes not applied yet are never lost
+        if(journal != null){
+            journal.close();
+            journal = null;
+        }
+        final Path tempFile = FileSystemUtils.getTemporaryFile(journalFile);
+        try (final FileChannel channel = FileChannel.open(tempFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        FileSystemUtils.moveAtomically(tempFile, journalFile);
+    }
+
+    /**
+     * Stops the periodic checkpoints and applies the pending changes to the bibtex file.
+     * If changes are recorded later, the periodic checkpoints start again.
+     * @throws IOException when the bibtex file cannot be updated
+     */
+    @Override
+    public void close() throws IOException {
+        final ScheduledExecutorService scheduler;
+        synchronized(this){
+            scheduler = checkpointScheduler;
+            checkpointScheduler = null;
+        }
+        if(scheduler != null)
+            scheduler.shutdown();
+        checkpoint();
+    }
+
+    /**
+     * Copies the bibtex file, patching the entries having changes
+     * and updating the position of the entries after them.
+     */
+    private void applyChanges(
+            final Map<String, Map<String, String>> changes,
+            final Reader reader, final Writer writer) throws IOException
+    {
+        long position = 0;
+        long shift = 0;
+        for (EntryLocation entry : entries) {
+            final Map<String, String> fields = changes.get(entry.key);
+            final long newOffset = entry.offset + shift;
+            if(fields != null){
+                copy(reader, writer, entry.offset - position);
+                final String original = read(reader, entry.length);
+                final String patched = patchFields(original, fields);
+                writer.write(patched);
+                position = entry.offset + entry.length;
+                shift += patched.length() - original.length();
+                entry.length = patched.length();
+            }
+            entry.offset = newOffset;
+        }
+        copy(reader, writer, Long.MAX_VALUE);
+    }
+
+    private static void copy(final Reader reader, final Writer writer, long length) throws IOException {
+        final char buffer[] = new char[COPY_BUFFER_SIZE];
+        int read;
+        while(length > 0 && (read = reader.read(buffer, 0, (int)Math.min(buffer.length, length))) != -1){
+            writer.write(buffer, 0, read);
+            length -= read;
+        }
+    }
+
+    private static String read(final Reader reader, final int length) throws IOException {
+        final char buffer[] = new char[length];
+        int total = 0, read;
+        while(total < length && (read = reader.read(buffer, total, length - total)) != -1){
+            total += read;
+        }
+        if(total < length)
+            throw new IOException("The bibtex file was changed while it was being updated.");
+        return new String(buffer);
+    }
+
+    private void deleteJournal() throws IOException {
+        if(journal != null){
+            journal.close();
+            journal = null;
+        }
+        Files.deleteIfExists(journalFile);
+    }
+
+    /**
+     * @return the number of changes not applied to the bibtex file yet
+     */
+    public synchronized int getPendingChanges() {
+        return changesSinceCheckpoint;
+    }
+
+    /**
+     * Gets the key of an entry from its original text.
+     * @param entryText the text of the entry, such as <code>@article{key, title={...}}</code>
+     * @return the entry key
+     */
+    static String getKey(final String entryText) {
+        final int open = indexOfOpeningDelimiter(entryText);
+        if(open < 0)
+            return "";
+        int end = open + 1;
+        while(end < entryText.length() && entryText.charAt(end) != ',' &&
+              entryText.charAt(end) != '}' && entryText.charAt(end) != ')'){
+            end++;
+        }
+        return entryText.substring(open + 1, end).trim();
+    }
+
+    private static int indexOfOpeningDelimiter(final String entryText) {
+        for (int i = 0; i < entryText.length(); i++) {
+            final char c = entryText.charAt(i);
+            if(c == '{' || c == '(')
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Sets the value of some fields in the original text of an entry,
+     * keeping the rest of the text unchanged.
+     * Existing fields have just their values replaced,
+     * while new fields are added after the last field, using the same indentation.
+     *
+     * @param entryText the text of the entry
+     * @param fields the names and values of the fields to set
+     * @return the patched text of the entry
+     */
+    static String patchFields(String entryText, final Map<String, String> fields) {
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            entryText = patchField(entryText, field.getKey(), field.getValue());
+        }
+        return entryText;
+    }
+
+    /**
+     * Sets the value of a field in the original text of an entry,
+     * keeping the rest of the text unchanged.
+     *
+     * @param entryText the text of the entry
+     * @param field the name of the field
+     * @param value the value of the field
+     * @return the patched text of the entry
+     * or the original text if it isn't a complete entry or the value is null
+     */
+    static String patchField(final String entryText, final String field, final String value) {
+        final int open = indexOfOpeningDelimiter(entryText);
+        final int close = entryText.length() - 1;
+        if(value == null || open < 0 || close <= open || (entryText.charAt(close) != '}' && entryText.charAt(close) != ')'))
+            return entryText;
+
+        final List<int[]> segments = splitTopLevelSegments(entryText, open + 1, close);
+        final String newValue = "{" + value + "}";
+        int[] lastField = null;
+        for (int i = 1; i < segments.size(); i++) {
+            final int[] segment = segments.get(i);
+            final int equals = entryText.indexOf('=', segment[0]);
+            if(equals < 0 || equals >= segment[1])
+                continue;
+            lastField = segment;
+            if(!entryText.substring(segment[0], equals).trim().equalsIgnoreCase(field))
+                continue;
+
+            final int valueStart = skipWhitespaces(entryText, equals + 1, segment[1]);
+            final int valueEnd = trimTrailingWhitespaces(entryText, valueStart, segment[1]);
+            return entryText.substring(0, valueStart) + newValue + entryText.substring(valueEnd);
+        }
+
+        final int[] previous = lastField != null ? lastField : segments.get(0);
+        final String indent = getIndentation(entryText, lastField);
+        final int insertAt = trimTrailingWhitespaces(entryText, previous[0], previous[1]);
+        final String newField = field + " = " + newValue;
+        return entryText.substring(0, insertAt) + "," + indent + newField + entryText.substring(insertAt);
+    }
+
+    /**
+     * Splits the body of an entry at the commas that aren't inside braces or quotes.
+     * @return the start (inclusive) and end (exclusive) positions of each segment
+     */
+    private static List<int[]> splitTopLevelSegments(final String text, final int start, final int end) {
+        final List<int[]> segments = new ArrayList<>();
+        int depth = 0;
+        boolean quoted = false;
+        int segmentStart = start;
+        for (int i = start; i < end; i++) {
+            final char c = text.charAt(i);
+            if(c == '{')
+                depth++;
+            else if(c == '}')
+                depth--;
+            else if(c == '"' && depth == 0)
+                quoted = !quoted;
+            else if(c == ',' && depth == 0 && !quoted){
+                segments.add(new int[]{segmentStart, i});
+                segmentStart = i + 1;
+            }
+        }
+        segments.add(new int[]{segmentStart, end});
+        return segments;
+    }
+
+    private static String getIndentation(final String text, final int[] field) {
+        if(field == null)
+            return "\n  ";
+        final int nameStart = skipWhitespaces(text, field[0], field[1]);
+        final String indent = text.substring(field[0], nameStart);
+        return indent.isEmpty() ? " " : indent;
+    }
+
+    private static int skipWhitespaces(final String text, int start, final int end) {
+        while(start < end && Character.isWhitespace(text.charAt(start))){
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimTrailingWhitespaces(final String text, final int start, int end) {
+        while(end > start && Character.isWhitespace(text.charAt(end - 1))){
+            end--;
+        }
+        return end;
+    }
+
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(final String value) {
+        final StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if(c != '\\' || i == value.length() - 1){
+                sb.append(c);
+                continue;
+            }
+            final char next = value.charAt(++i);
+            sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The position of an entry inside the bibtex file.
+     */
+    private static class EntryLocation {
+        private final String key;
+        private long offset;
+        private int length;
+
+        EntryLocation(final String key, final long offset, final int length) {
+            this.key = key;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -3,13 +3,28 @@ package com.manoelcampos.bibtexpaperdownloader;
 import com.manoelcampos.bibtexpaperdownloader.repository.PaperNotAvailableForDownloadException;
 import com.manoelcampos.bibtexpaperdownloader.repository.PaperRepository;
 import com.manoelcampos.bibtexpaperdownloader.repository.PaperRepositoryFactory;
+import com.manoelcampos.bibtexpaperdownloader.repository.RepositoryRouter;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.jbibtex.BibTeXDatabase;
 import org.jbibtex.BibTeXEntry;
 import org.jbibtex.BibTeXFormatterBuilder;
@@ -23,12 +38,33 @@ import org.jbibtex.ParseException;
  * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
  */
 public class BibTexPapersDownloader {
+    /**
+     * Default number of papers downloaded at the same time.
+     * A single thread keeps the original sequential behaviour.
+     */
+    public static final int DEFAULT_NUMBER_OF_THREADS = 1;
+
     private BibTeXParser parser;
     private Reader reader;
     private BibTeXDatabase database;
     private String bibFileName;
     private String downloadDir;
-    private final PaperRepository repository;
+    private final RepositoryRouter router;
+    private int numberOfThreads = DEFAULT_NUMBER_OF_THREADS;
+    private boolean incremental;
+    private PdfStore pdfStore;
+    private ResolutionCache resolutionCache;
+    private final boolean streaming;
+    private int numberOfEntriesInStream;
+    private BibTeXWriteBack writeBack;
+    private boolean resume;
+    private JobJournal jobJournal;
+    private RetryPolicy retryPolicy = new RetryPolicy();
+    private MetadataEnricher metadataEnricher = new MetadataEnricher();
+    private final ConcurrentMap<PaperRepository, Boolean> usedRepositories = new ConcurrentHashMap<>();
+    private final DownloadMetrics metrics = DownloadMetrics.getDefault();
+    private ProgressReporter progressReporter;
+    private Set<String> keysToDownload;
         
     /**
      * 
@@ -45,14 +81,105 @@ public class BibTexPapersDownloader {
     public BibTexPapersDownloader(
             final String bibFileNameContainingThePapersToDownload, 
             final String classNameOfRepositoryWhereToDownloadThePapers) throws FileNotFoundException, ParseException, ClassNotFoundException, InstantiationException {
-        this.repository = 
-                PaperRepositoryFactory.getInstance(
-                        classNameOfRepositoryWhereToDownloadThePapers);
+        this(bibFileNameContainingThePapersToDownload, classNameOfRepositoryWhereToDownloadThePapers, false);
+    }
+
+    /**
+     * 
+     * @param bibFileNameContainingThePapersToDownload Name of BibTeX file to be parsed.
+     * @param classNameOfRepositoryWhereToDownloadThePapers Name of the class of the web repository
+     * where the papers in the bibtex file have to be downloaded.
+     * For instance, IEEE, ACM, Elsevier, etc., or Auto to route each paper to the repository hosting it.
+     * @param streaming if true, the bibtex file isn't entirely parsed before the downloads start:
+     * each entry is downloaded as soon as it's parsed and the bibtex file is
+     * updated while it's parsed, keeping memory usage bounded for very large files.
+     * Otherwise, the file is entirely parsed by this constructor.
+     * @throws java.io.FileNotFoundException
+     * @throws org.jbibtex.ParseException
+     * @throws java.lang.ClassNotFoundException
+     * @throws java.lang.InstantiationException
+     * @see com.manoelcampos.bibtexpaperdownloader.repository.PaperRepositoryFactory
+     * @see BibTeXStreamDownloader
+     */
+    public BibTexPapersDownloader(
+            final String bibFileNameContainingThePapersToDownload, 
+            final String classNameOfRepositoryWhereToDownloadThePapers,
+            final boolean streaming) throws FileNotFoundException, ParseException, ClassNotFoundException, InstantiationException {
+        this(bibFileNameContainingThePapersToDownload, 
+             PaperRepositoryFactory.getRouter(classNameOfRepositoryWhereToDownloadThePapers), 
+             streaming);
+    }
+
+    /**
+     * 
+     * @param bibFileNameContainingThePapersToDownload Name of BibTeX file to be parsed.
+     * @param repository the web repository where the papers in the bibtex file have to be downloaded
+     * (which may be an instance not provided by the {@link com.manoelcampos.bibtexpaperdownloader.repository.PaperRepositoryRegistry})
+     * @param streaming if true, the bibtex file isn't entirely parsed before the downloads start
+     * (see {@link #BibTexPapersDownloader(java.lang.String, java.lang.String, boolean)})
+     * @throws java.io.FileNotFoundException
+     * @throws org.jbibtex.ParseException
+     */
+    public BibTexPapersDownloader(
+            final String bibFileNameContainingThePapersToDownload, 
+            final PaperRepository repository,
+            final boolean streaming) throws FileNotFoundException, ParseException {
+        this(bibFileNameContainingThePapersToDownload, PaperRepositoryFactory.getRouter(repository), streaming);
+    }
+
+    /**
+     * 
+     * @param bibFileNameContainingThePapersToDownload Name of BibTeX file to be parsed.
+     * @param router the router that identifies the web repository where the paper of each bibtex entry
+     * has to be downloaded (such as the {@link com.manoelcampos.bibtexpaperdownloader.repository.Auto} one)
+     * @param streaming if true, the bibtex file isn't entirely parsed before the downloads start
+     * (see {@link #BibTexPapersDownloader(java.lang.String, java.lang.String, boolean)})
+     * @throws java.io.FileNotFoundException
+     * @throws org.jbibtex.ParseException
+     */
+    public BibTexPapersDownloader(
+            final String bibFileNameContainingThePapersToDownload, 
+            final RepositoryRouter router,
+            final boolean streaming) throws FileNotFoundException, ParseException {
+        this.router = router;
+        this.streaming = streaming;
         this.setBibFileNameAndCreateBibFileReader(bibFileNameContainingThePapersToDownload);        
-        this.createBibTexParserAndParseIt(bibFileNameContainingThePapersToDownload);
+        if(streaming)
+            this.countEntriesInStream(bibFileNameContainingThePapersToDownload);
+        else {
+            this.openWriteBack(bibFileNameContainingThePapersToDownload);
+            this.createBibTexParserAndParseIt(bibFileNameContainingThePapersToDownload);
+        }
+    }
+
+    /**
+     * Opens the bibtex file for write-back, what applies the changes
+     * journaled by a previous run that didn't finish.
+     * Since the file may be replaced, the file reader is opened again.
+     */
+    private void openWriteBack(final String bibFileName) throws FileNotFoundException, ParseException {
+        try {
+            reader.close();
+            writeBack = new BibTeXWriteBack(bibFileName);
+        } catch (IOException e) {
+            throw new ParseException(
+                    "It was not possible to update the bibtex file " + bibFileName + ": " + e.getMessage());
+        }
+        setBibFileNameAndCreateBibFileReader(bibFileName);
+    }
+
+    private void countEntriesInStream(final String bibFileName) throws ParseException {
+        try {
+            reader.close();
+            numberOfEntriesInStream = BibTeXStreamDownloader.countEntries(bibFileName);
+        } catch (IOException e) {
+            throw new ParseException(
+                    "It was not possible to read the bibtex file " + bibFileName + ": " + e.getMessage());
+        }
     }
 
     private void createBibTexParserAndParseIt(final String bibFileName) throws ParseException {
+        final long start = System.nanoTime();
         try (final CharacterFilterReader filterReader = new CharacterFilterReader(reader)) {
             parser = this.getBibTexParserInstance();
             database = parser.parse(filterReader);
@@ -60,6 +187,8 @@ public class BibTexPapersDownloader {
             e.printStackTrace(System.out);
             throw new ParseException(
                     "It was not possible to pase the bibtex file " + bibFileName + ". Maybe the file is invalid\n");        
+        } finally {
+            metrics.record(DownloadMetrics.Phase.PARSE, start);
         }
     }
 
@@ -91,29 +220,388 @@ public class BibTexPapersDownloader {
     }      
 
     /**
+     * Downloads all the papers in the bibtex file, saving the local path 
+     * of each downloaded paper into the bibtex file as the downloads finish.
+     * If the number of threads is greater than one, the papers are downloaded
+     * concurrently. Failed downloads are tried again according to the {@link RetryPolicy}
+     * and a paper that cannot be downloaded doesn't stop the download of the other ones.
+     * In incremental mode, papers already downloaded are skipped.
+     * Entries missing some field are completed by the {@link MetadataEnricher} before.
      *
      * @throws IOException 
      * @throws ParseException 
      * @throws InvalidPaperIdException
+     * @see #setNumberOfThreads(int) 
+     * @see #setIncremental(boolean) 
+     * @see #setResume(boolean) 
+     * @see #setRetryPolicy(RetryPolicy) 
+     * @see #setMetadataEnricher(MetadataEnricher) 
+     * @see #setProgressReporter(ProgressReporter) 
      */
     public void downloadAllPapers() throws IOException, ParseException, InvalidPaperIdException {
         System.out.printf(
-                "\nDownloading %d papers from %s respository to %s\n", 
-                getEntriesCollection().size(), repository, downloadDir);
+                "\nDownloading %d papers from %s respository to %s using %d thread(s)\n", 
+                numberOfPapers(), router, downloadDir, numberOfThreads);
         System.out.printf("Origin BibTeX file: %s\n\n", bibFileName);
+        jobJournal = new JobJournal(bibFileName, resume);
+        startProgressReporter();
+        try {
+            if(streaming)
+                downloadAllPapersStreaming();
+            else downloadAllPapersParsed();
+            stopProgressReporter();
+            System.out.printf("%s\n%s", jobJournal, metrics);
+        } finally {
+            stopProgressReporter();
+            jobJournal.close();
+        }
+    }
+
+    private void startProgressReporter() {
+        if(progressReporter == null)
+            return;
+        progressReporter.setTotal(numberOfPapers());
+        progressReporter.start();
+    }
+
+    private void stopProgressReporter() {
+        if(progressReporter != null)
+            progressReporter.stop();
+    }
+
+    private void downloadAllPapersStreaming() throws IOException, ParseException {
+        try {
+            new BibTeXStreamDownloader(this).downloadAllPapers();
+        } finally {
+            saveResolutionCache();
+        }
+        printRepositoriesStatistics();
+    }
+
+    /**
+     * Prints the rate limit and circuit breaker statistics
+     * of each repository papers were downloaded from.
+     */
+    private void printRepositoriesStatistics() {
+        for (PaperRepository usedRepository : usedRepositories.keySet()) {
+            System.out.printf("\n%s: %s%s", usedRepository, 
+                    usedRepository.getRateLimiter(), usedRepository.getCircuitBreaker());
+        }
+    }
+
+    private void downloadAllPapersParsed() throws IOException {
+        enrichIncompleteEntries();
+        List<Paper> papers = createPapers();
+        if(resume)
+            papers = removePapersFinishedInPreviousRuns(papers);
+        if(incremental)
+            papers = removeAlreadyDownloadedPapers(papers);
+        jobJournal.addPending(getIds(papers));
+        if(progressReporter != null)
+            progressReporter.setTotal(papers.size());
+        try {
+            downloadPapers(papers);
+        } finally {
+            saveResolutionCache();
+            final long start = System.nanoTime();
+            writeBack.close();
+            metrics.record(DownloadMetrics.Phase.SAVE, start);
+        }
+        printRepositoriesStatistics();
+        System.out.printf("\nBibtex updated to include paper's PDF paths\n\n");
+    }
+
+    /**
+     * Completes the entries missing some field required to download their papers,
+     * recording the added fields to be written back to the bibtex file.
+     * @see MetadataEnricher
+     */
+    private void enrichIncompleteEntries() throws IOException {
+        if(metadataEnricher == null)
+            return;
+        final List<BibTeXEntry> incomplete = new ArrayList<>();
+        for (BibTeXEntry entry : getEntriesCollection()) {
+            if(isToDownload(entry) && MetadataEnricher.isIncomplete(entry))
+                incomplete.add(entry);
+        }
+        if(incomplete.isEmpty())
+            return;
+
+        final Map<String, Map<String, String>> changes = metadataEnricher.enrich(incomplete);
+        for (Map.Entry<String, Map<String, String>> entry : changes.entrySet()) {
+            for (Map.Entry<String, String> field : entry.getValue().entrySet()) {
+                writeBack.setField(entry.getKey(), field.getKey(), field.getValue());
+            }
+        }
+        System.out.printf("Completed the metadata of %d of %d incomplete entries\n\n", changes.size(), incomplete.size());
+    }
+
+    private static List<String> getIds(final List<Paper> papers) {
+        final List<String> ids = new ArrayList<>(papers.size());
+        for (Paper paper : papers) {
+            ids.add(paper.getId());
+        }
+        return ids;
+    }
+
+    private void saveResolutionCache() throws IOException {
+        if(resolutionCache != null)
+            resolutionCache.save();
+    }
+
+    /**
+     * Creates a {@link Paper} for each bibtex entry, 
+     * numbering them in the order they appear inside the bibtex file.
+     * Entries that cannot be downloaded from the repository are ignored.
+     * @return the list of created papers
+     */
+    private List<Paper> createPapers() {
+        final List<Paper> papers = new ArrayList<>(getEntriesCollection().size());
         int i = 0;
         for (BibTeXEntry bibEntry : getEntriesCollection()) {
-            i++;
-            Paper paper = repository.getPaperInstance(this, bibEntry);
+            ++i;
+            if(!isToDownload(bibEntry))
+                continue;
+            Paper paper = createPaper(bibEntry);
+            if(paper == null)
+                continue;
             paper.setOrderInsideBibTexFile(i);
+            papers.add(paper);
+        }
+        return papers;
+    }
+
+    /**
+     * Creates the paper of a bibtex entry, using the repository the entry is routed to.
+     * @param bibEntry the bibtex entry
+     * @return the paper or null if the paper of the entry cannot be downloaded
+     */
+    Paper createPaper(final BibTeXEntry bibEntry) {
+        final PaperRepository repository = router.route(bibEntry);
+        if(repository == null){
+            System.out.println("The repository of paper " + bibEntry.getKey() + " couldn't be identified.");
+            return null;
+        }
+        return repository.getPaperInstance(this, bibEntry);
+    }
+
+    /**
+     * Removes the papers whose bibtex entries already point to a complete PDF file.
+     * @param papers the list of papers to check
+     * @return a list containing just the papers that have to be downloaded
+     */
+    private List<Paper> removeAlreadyDownloadedPapers(final List<Paper> papers) {
+        final List<Paper> pending = new ArrayList<>(papers.size());
+        for (Paper paper : papers) {
+            if(!paper.isAlreadyDownloaded())
+                pending.add(paper);
+        }
+        System.out.printf(
+                "Skipping %d papers already downloaded\n\n", papers.size() - pending.size());
+        return pending;
+    }
+
+    /**
+     * Removes the papers that were downloaded (or found to be unavailable)
+     * by previous runs, according to the {@link JobJournal}.
+     * @param papers the list of papers to check
+     * @return a list containing just the papers that have to be downloaded
+     */
+    private List<Paper> removePapersFinishedInPreviousRuns(final List<Paper> papers) throws IOException {
+        final List<Paper> pending = new ArrayList<>(papers.size());
+        for (Paper paper : papers) {
+            if(!isFinishedInPreviousRun(paper))
+                pending.add(paper);
+        }
+        System.out.printf(
+                "Resuming: skipping %d papers finished by previous runs\n\n", papers.size() - pending.size());
+        return pending;
+    }
+
+    /**
+     * Checks if a paper was downloaded (or found to be unavailable) by a previous run,
+     * according to the {@link JobJournal}. If the paper was downloaded but the file
+     * wasn't saved into its bibtex entry, just the file field of the entry is updated.
+     *
+     * @param paper the paper to check
+     * @return true if the paper doesn't have to be downloaded again, false otherwise
+     * @throws IOException when the bibtex entry cannot be updated
+     */
+    boolean isFinishedInPreviousRun(final Paper paper) throws IOException {
+        final JobJournal.Job job = jobJournal.get(paper.getId());
+        if(job == null)
+            return false;
+        if(job.getState() == JobJournal.State.PAYWALLED)
+            return true;
+        if(job.getState() != JobJournal.State.DONE || !FileSystemUtils.isValidPdfFile(job.getPaperFile()))
+            return false;
+
+        if(!job.getPaperFile().equals(paper.getFieldValue(Paper.FILE_FIELD))){
+            paper.setLocalFileNameInBibTexEntry(job.getPaperFile());
+            if(writeBack != null)
+                writeBack.setField(paper.getId(), Paper.FILE_FIELD, job.getPaperFile());
+        }
+        return true;
+    }
+
+    /**
+     * Downloads the papers using a pool of {@link #getNumberOfThreads()} threads
+     * for each repository (a single thread downloads one paper after another).
+     * Failed downloads are tried again according to the {@link RetryPolicy},
+     * while the other papers are downloaded.
+     * If the download of a paper fails with an unexpected exception,
+     * no other paper is downloaded and the exception is re-thrown
+     * after the papers in flight finish.
+     * 
+     * @param papers the papers to download
+     * @throws IOException 
+     * @see RetryScheduler
+     */
+    private void downloadPapers(final List<Paper> papers) throws IOException {
+        final List<Future<Boolean>> futures = new ArrayList<>(papers.size());
+        try (final RetryScheduler scheduler = new RetryScheduler(this, retryPolicy)) {
+            for (final Paper paper : papers) {
+                futures.add(scheduler.submit(paper));
+            }
+            waitDownloadsToFinish(futures);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("The download of the papers was interrupted.", e);
+        }
+    }
+
+    private void waitDownloadsToFinish(final List<Future<Boolean>> futures) throws InterruptedException, IOException {
+        IOException firstError = null;
+        for (Future<Boolean> future : futures) {
             try {
-                System.out.println(paper);
-                paper.downloadAndIfSuccessfulSetLocalFileNameAndUrl();
-            } catch (PaperNotAvailableForDownloadException ex) {
-                System.out.println("Paper " + paper.getTitle() + ". " + ex.getLocalizedMessage());
+                future.get();
+            } catch (ExecutionException e) {
+                if(firstError == null)
+                    firstError = toIOException(e.getCause());
+            }
+        }
+        if(firstError != null)
+            throw firstError;
+    }
+
+    static IOException toIOException(final Throwable cause) {
+        if(cause instanceof IOException)
+            return (IOException)cause;
+        if(cause instanceof RuntimeException)
+            throw (RuntimeException)cause;
+        if(cause instanceof Error)
+            throw (Error)cause;
+        return new IOException(cause);
+    }
+
+    /**
+     * @param name the name of the scheduler (such as the name of the repository it downloads papers from)
+     * @return a new scheduler with {@link #getNumberOfThreads()} threads to download papers
+     */
+    ScheduledExecutorService newDownloaderScheduler(final String name) {
+        return Executors.newScheduledThreadPool(numberOfThreads, newDownloaderThreadFactory(name));
+    }
+
+    private static ThreadFactory newDownloaderThreadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-downloader-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
             }
+        };
+    }
+
+    /**
+     * Downloads a paper, if it's available, 
+     * and records the paper file and URL to be written back to the bibtex file.
+     * The paper is claimed in the {@link JobJournal} before, so that it's not downloaded
+     * by another worker at the same time, and the result of the download is recorded there.
+     * @param paper the paper to download
+     * @return the state recorded for the paper ({@link JobJournal.State#DONE DONE} if it was downloaded,
+     * {@link JobJournal.State#PAYWALLED PAYWALLED} or {@link JobJournal.State#FAILED FAILED}),
+     * or null if the paper was claimed by another worker and so it wasn't tried
+     * @throws IOException 
+     * @see BibTeXWriteBack
+     */
+    JobJournal.State downloadPaper(final Paper paper) throws IOException {
+        usedRepositories.putIfAbsent(paper.getRepository(), Boolean.TRUE);
+        if(!jobJournal.claim(paper.getId())){
+            System.out.println("Paper " + paper.getTitle() + " was claimed by another worker.");
+            paperSkipped();
+            return null;
+        }
+
+        JobJournal.State state = JobJournal.State.FAILED;
+        metrics.started();
+        try {
+            //the progress reporter replaces the information of each paper
+            if(progressReporter == null)
+                System.out.println(paper);
+            if(!paper.downloadAndIfSuccessfulSetLocalFileNameAndUrl())
+                return state;
+            if(writeBack != null)
+                writeBack(paper);
+            state = JobJournal.State.DONE;
+            return state;
+        } catch (PaperNotAvailableForDownloadException ex) {
+            state = JobJournal.State.PAYWALLED;
+            System.out.println("Paper " + paper.getTitle() + ". " + ex.getLocalizedMessage());
+            return state;
+        } catch (IOException ex) {
+            if(RetryPolicy.classify(ex) == RetryPolicy.Failure.PAYWALL)
+                state = JobJournal.State.PAYWALLED;
+            throw ex;
+        } finally {
+            metrics.finished();
+            if(state == JobJournal.State.DONE)
+                metrics.record(paper.getRepository(), DownloadMetrics.Outcome.DOWNLOADED);
+            else if(state == JobJournal.State.PAYWALLED)
+                metrics.record(paper.getRepository(), DownloadMetrics.Outcome.PAYWALLED);
+            jobJournal.update(paper.getId(), state, paper.getLocalFileName());
+        }
+    }
+
+    /**
+     * Records that a paper counted in the total of the {@link ProgressReporter}
+     * won't be downloaded by this run (since it was skipped or claimed by another worker),
+     * so that it doesn't keep the progress below 100%.
+     */
+    void paperSkipped() {
+        if(progressReporter != null)
+            progressReporter.decrementTotal();
+    }
+
+    private void writeBack(final Paper paper) throws IOException {
+        final long start = System.nanoTime();
+        for (Map.Entry<String, String> field : paper.getDownloadFields().entrySet()) {
+            writeBack.setField(paper.getId(), field.getKey(), field.getValue());
         }
-        this.saveChangesInBibTexFile();
+        metrics.record(DownloadMetrics.Phase.SAVE, start);
+    }
+
+    /**
+     * Checks if the paper of an entry has to be downloaded,
+     * according to the {@link #setKeysToDownload(java.util.Collection) keys to download}.
+     * @param entry the entry to check
+     * @return true if the paper of the entry has to be downloaded, false otherwise
+     */
+    boolean isToDownload(final BibTeXEntry entry) {
+        return keysToDownload == null || keysToDownload.contains(entry.getKey().getValue());
+    }
+
+    /**
+     * Gets the entries parsed from the bibtex file.
+     * @return a read-only collection of the entries
+     * @throws IllegalStateException when the file is being downloaded in streaming mode,
+     * where the entries aren't kept in memory
+     */
+    public Collection<BibTeXEntry> getEntries() {
+        if(streaming)
+            throw new IllegalStateException("The entries aren't kept in memory in streaming mode.");
+        return Collections.unmodifiableCollection(getEntriesCollection());
     }
 
     private Collection<BibTeXEntry> getEntriesCollection() {
@@ -121,24 +609,33 @@ public class BibTexPapersDownloader {
     }
     
     public int numberOfPapers(){
-        return getEntriesCollection().size();
+        return streaming ? numberOfEntriesInStream : getEntriesCollection().size();
     }
 
     /**
-     * Save the changes in the parsed bibtex to a file
+     * Save the changes in the parsed bibtex to a file, 
+     * regenerating the entire file from the parsed entries.
+     * Usually, this isn't required since the changes made when the papers are downloaded
+     * are written back to the file, keeping its original formatting.
      * @return Returns true if the file was successfully saved
      * @throws java.io.FileNotFoundException 
      * @throws java.io.IOException 
      */
     public boolean saveChangesInBibTexFile() throws FileNotFoundException, IOException{
+        final long start = System.nanoTime();
         try(Writer writer = new FileWriter(bibFileName)){
-          BibTeXFormatterBuilder builder = new BibTeXFormatterBuilder();
-          database.accept(builder.buildConciseFormatter(writer));
+          formatBibTeX(database, writer);
         }
+        metrics.record(DownloadMetrics.Phase.SAVE, start);
         System.out.printf("\nBibtex updated to include paper's PDF paths\n\n");
         
         return true;
     }
+
+    private static void formatBibTeX(final BibTeXDatabase database, final Writer writer) throws IOException {
+        BibTeXFormatterBuilder builder = new BibTeXFormatterBuilder();
+        database.accept(builder.buildConciseFormatter(writer));
+    }
     
 
     /**
@@ -168,4 +665,170 @@ public class BibTexPapersDownloader {
     public void setDownloadDir(final String downloadDir) {
         this.downloadDir = FileSystemUtils.insertTrailBackslach(downloadDir);
     }
+
+    /**
+     * @return the number of papers downloaded at the same time
+     */
+    public int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
+    /**
+     * @return true if the bibtex file is parsed while the papers are downloaded, 
+     * false if it's entirely parsed before
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * @return true if papers already downloaded are skipped, false otherwise
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * @param incremental true to skip the papers already downloaded,
+     * whose bibtex entries have a file field pointing to a complete PDF file
+     * @see Paper#isAlreadyDownloaded() 
+     */
+    public void setIncremental(final boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * @return true if the papers finished by previous runs are skipped, false otherwise
+     */
+    public boolean isResume() {
+        return resume;
+    }
+
+    /**
+     * @param resume true to skip the papers that previous runs downloaded
+     * or found to be unavailable, according to the {@link JobJournal},
+     * false to start a new journal and try to download all papers.
+     * Several processes downloading the papers of the same bibtex file
+     * at the same time must all be started with this option.
+     */
+    public void setResume(final boolean resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * @return the journal of the state of each paper download
+     * or null if the downloads weren't started
+     */
+    public JobJournal getJobJournal() {
+        return jobJournal;
+    }
+
+    /**
+     * @return the policy that defines which failed downloads are tried again
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @param retryPolicy the policy that defines which failed downloads are tried again
+     * and how long to wait before each retry
+     */
+    public void setRetryPolicy(final RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @return the keys of the entries whose papers have to be downloaded
+     * or null if the papers of all entries have to be downloaded
+     */
+    public Set<String> getKeysToDownload() {
+        return keysToDownload;
+    }
+
+    /**
+     * Restricts the papers to download to those of some entries.
+     * The other entries are kept in the bibtex file unchanged.
+     * @param keysToDownload the keys of the entries whose papers have to be downloaded,
+     * or null to download the papers of all entries
+     */
+    public void setKeysToDownload(final Collection<String> keysToDownload) {
+        this.keysToDownload = keysToDownload == null ? null : new HashSet<>(keysToDownload);
+    }
+
+    /**
+     * @return the reporter of the progress of the downloads
+     * or null if the progress isn't reported
+     */
+    public ProgressReporter getProgressReporter() {
+        return progressReporter;
+    }
+
+    /**
+     * @param progressReporter the reporter of the progress of the downloads,
+     * that replaces the information printed for each paper, 
+     * or null to just print the information of each paper
+     */
+    public void setProgressReporter(final ProgressReporter progressReporter) {
+        this.progressReporter = progressReporter;
+    }
+
+    /**
+     * @return the enricher that completes the entries missing some field
+     * or null if entries aren't completed
+     */
+    public MetadataEnricher getMetadataEnricher() {
+        return metadataEnricher;
+    }
+
+    /**
+     * @param metadataEnricher the enricher that completes the entries missing some field
+     * (such as the DOI or the year) before the papers are downloaded,
+     * or null to download the papers with the fields the entries have
+     */
+    public void setMetadataEnricher(final MetadataEnricher metadataEnricher) {
+        this.metadataEnricher = metadataEnricher;
+    }
+
+    /**
+     * @return the store where the downloaded papers are kept
+     * or null if the papers aren't kept in a store
+     */
+    public PdfStore getPdfStore() {
+        return pdfStore;
+    }
+
+    /**
+     * @param pdfStore the store where the downloaded papers are kept,
+     * shared with other bibtex files, or null to not use a store.
+     * Papers already in the store aren't downloaded again.
+     */
+    public void setPdfStore(final PdfStore pdfStore) {
+        this.pdfStore = pdfStore;
+    }
+
+    /**
+     * @return the cache of paper page information
+     * or null if paper pages aren't cached
+     */
+    public ResolutionCache getResolutionCache() {
+        return resolutionCache;
+    }
+
+    /**
+     * @param resolutionCache the cache of paper page information, 
+     * shared with later runs and other bibtex files, or null to not use a cache.
+     * The pages of papers in the cache aren't fetched again.
+     */
+    public void setResolutionCache(final ResolutionCache resolutionCache) {
+        this.resolutionCache = resolutionCache;
+    }
+
+    /**
+     * @param numberOfThreads the number of papers to download at the same time.
+     * Values lower than 1 are changed to 1 (sequential download).
+     */
+    public void setNumberOfThreads(final int numberOfThreads) {
+        this.numberOfThreads = Math.max(1, numberOfThreads);
+    }
 }
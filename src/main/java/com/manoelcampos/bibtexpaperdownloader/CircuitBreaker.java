@@ -0,0 +1,149 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+/**
+ * Stops sending requests to a repository that seems to be down,
+ * so that the downloads don't waste time on dead connections.
+ *
+ * <p>After a number of consecutive {@link RetryPolicy.Failure#isRepositoryFailure() repository failures},
+ * the circuit opens and no download is tried for some time.
+ * Then, a single download is tried: if it succeeds the circuit closes,
+ * otherwise it opens again for twice the time.
+ * If the circuit opens a maximum number of times in a row, the repository
+ * is considered down for the rest of the run and the remaining downloads fail immediately.
+ * A trial download that finishes without a verdict of the repository
+ * has to be {@link #cancelTrial() cancelled}, so that another download can be tried.</p>
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class CircuitBreaker {
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_MILLIS = 30000;
+    public static final int DEFAULT_MAX_TRIPS = 3;
+
+    /**
+     * Time to wait for the result of a trial download,
+     * before checking again if downloads can be tried.
+     */
+    private static final long TRIAL_WAIT_MILLIS = 1000;
+
+    /**
+     * Value returned by {@link #getDelayMillis()} when the repository is considered down.
+     */
+    public static final long GIVEN_UP = -1;
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final int maxTrips;
+    private int consecutiveFailures;
+    private int trips;
+    private long openUntil;
+
+    /**
+     * The thread making the trial download or null if no trial is in progress.
+     */
+    private Thread trialThread;
+
+    /**
+     * Creates a circuit breaker with the default thresholds.
+     */
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS, DEFAULT_MAX_TRIPS);
+    }
+
+    /**
+     *
+     * @param failureThreshold number of consecutive failures that opens the circuit
+     * @param openMillis time (in milliseconds) the circuit is kept open the first time it opens
+     * @param maxTrips number of times in a row the circuit opens
+     * before the repository is considered down
+     */
+    public CircuitBreaker(final int failureThreshold, final long openMillis, final int maxTrips) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+        this.maxTrips = Math.max(1, maxTrips);
+    }
+
+    /**
+     * Checks if a download can be tried now.
+     * If the circuit was open and its time expired, the calling thread
+     * is allowed to make a trial download and the other ones have to wait its result.
+     *
+     * @return 0 if the download can be tried now, the time (in milliseconds) to wait
+     * before checking again or {@link #GIVEN_UP} if the repository is considered down
+     */
+    public synchronized long getDelayMillis() {
+        if(isGivenUp())
+            return GIVEN_UP;
+        if(trips == 0)
+            return 0;
+        if(trialThread != null)
+            return TRIAL_WAIT_MILLIS;
+
+        final long remaining = openUntil - System.currentTimeMillis();
+        if(remaining > 0)
+            return remaining;
+        trialThread = Thread.currentThread();
+        return 0;
+    }
+
+    /**
+     * Releases the trial download allowed to the current thread by {@link #getDelayMillis()}
+     * when it finished without a verdict of the repository (for instance, when the paper
+     * was claimed by another worker), so that the next download is tried instead.
+     * It does nothing if the current thread isn't making a trial download.
+     */
+    public synchronized void cancelTrial() {
+        if(trialThread == Thread.currentThread())
+            trialThread = null;
+    }
+
+    /**
+     * Records the result of a download that was tried.
+     * @param repositoryFailure true if the download failed because of the repository,
+     * false if the repository answered (even if the paper wasn't downloaded)
+     */
+    public synchronized void record(final boolean repositoryFailure) {
+        if(repositoryFailure)
+            recordFailure();
+        else recordSuccess();
+    }
+
+    private void recordSuccess() {
+        consecutiveFailures = 0;
+        trips = 0;
+        trialThread = null;
+    }
+
+    private void recordFailure() {
+        consecutiveFailures++;
+        if(trialThread != null || (trips == 0 && consecutiveFailures >= failureThreshold)){
+            trialThread = null;
+            openUntil = System.currentTimeMillis() + (openMillis << Math.min(trips, 20));
+            trips++;
+        }
+    }
+
+    /**
+     * @return true if the circuit opened the maximum number of times in a row
+     * and the repository is considered down, false otherwise
+     */
+    public synchronized boolean isGivenUp() {
+        return trips >= maxTrips;
+    }
+
+    /**
+     * @return true if downloads are currently not being tried, false otherwise
+     */
+    public synchronized boolean isOpen() {
+        return trips > 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        if(isGivenUp())
+            return String.format("Circuit breaker: repository considered down after opening %d times\n", trips);
+        if(isOpen())
+            return String.format("Circuit breaker: open (%d times in a row)\n", trips);
+        return "Circuit breaker: closed\n";
+    }
+}
@@ -0,0 +1,313 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import com.manoelcampos.bibtexpaperdownloader.repository.PaperRepository;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Measures where the time of the downloads goes and what their results are:
+ * a timer for each {@link Phase} of the download pipeline,
+ * the number of papers of each {@link Outcome} by repository,
+ * the number of PDF bytes transferred and how many papers are being
+ * downloaded or waiting to be downloaded.
+ *
+ * <p>All the measures are lock-free counters, updated by the download threads,
+ * that can be read at any time (for instance, by {@link MetricsServer} or {@link JmxMetrics}).
+ * A single instance is shared by all the downloads of the JVM,
+ * so that the measures accumulate across runs, as expected by monitoring systems.</p>
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class DownloadMetrics {
+    /**
+     * The phases of the download pipeline.
+     */
+    public enum Phase {
+        /**
+         * Parsing of the bibtex file (or of each entry, in streaming mode).
+         */
+        PARSE,
+
+        /**
+         * Connecting to a repository and reading a paper page or metadata document.
+         */
+        PAGE_FETCH,
+
+        /**
+         * Getting the access verdict of a paper: the whole resolution of the paper page
+         * (from the {@link ResolutionCache}, the {@link MetadataApi} or the page itself),
+         * including the fetch and the extraction of the PDF URL when they are required.
+         */
+        ACCESS_CHECK,
+
+        /**
+         * Scanning a paper page with the repository regexes to find the PDF URL.
+         */
+        PDF_URL_EXTRACTION,
+
+        /**
+         * Transferring a PDF file.
+         */
+        DOWNLOAD,
+
+        /**
+         * Recording the downloaded papers into the bibtex file.
+         */
+        SAVE;
+
+        /**
+         * @return the name of the phase in lower case, as used by the exporters
+         */
+        public String getName() {
+            return name().toLowerCase();
+        }
+    }
+
+    /**
+     * The final results of a paper download.
+     */
+    public enum Outcome {
+        DOWNLOADED, PAYWALLED, FAILED;
+
+        /**
+         * @return the name of the outcome in lower case, as used by the exporters
+         */
+        public String getName() {
+            return name().toLowerCase();
+        }
+    }
+
+    private static final DownloadMetrics DEFAULT = new DownloadMetrics();
+
+    private final Timer timers[];
+    private final ConcurrentMap<String, AtomicLongArray> outcomes = new ConcurrentHashMap<>();
+    private final AtomicLong bytesTransferred = new AtomicLong();
+    private final AtomicLong inFlight = new AtomicLong();
+    private final AtomicLong pending = new AtomicLong();
+
+    /**
+     * Creates an instance with all measures zeroed.
+     * Usually, the {@link #getDefault() default instance} is used instead.
+     */
+    public DownloadMetrics() {
+        timers = new Timer[Phase.values().length];
+        for (int i = 0; i < timers.length; i++) {
+            timers[i] = new Timer();
+        }
+    }
+
+    /**
+     * @return the instance updated by the download pipeline
+     */
+    public static DownloadMetrics getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Records the time spent in a phase.
+     * @param phase the phase
+     * @param startNanos the {@link System#nanoTime()} when the phase started
+     */
+    public void record(final Phase phase, final long startNanos) {
+        recordNanos(phase, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records the time spent in a phase.
+     * @param phase the phase
+     * @param nanos the time spent (in nanoseconds)
+     */
+    public void recordNanos(final Phase phase, final long nanos) {
+        timers[phase.ordinal()].record(nanos);
+    }
+
+    /**
+     * @param phase the phase
+     * @return the timer of the phase
+     */
+    public Timer getTimer(final Phase phase) {
+        return timers[phase.ordinal()];
+    }
+
+    /**
+     * Records the final result of a paper download.
+     * @param repository the repository the paper was downloaded from
+     * @param outcome the result
+     */
+    public void record(final PaperRepository repository, final Outcome outcome) {
+        final String name = repository.toString();
+        AtomicLongArray counts = outcomes.get(name);
+        if(counts == null){
+            final AtomicLongArray newCounts = new AtomicLongArray(Outcome.values().length);
+            counts = outcomes.putIfAbsent(name, newCounts);
+            if(counts == null)
+                counts = newCounts;
+        }
+        counts.incrementAndGet(outcome.ordinal());
+    }
+
+    /**
+     * Gets the number of papers of each result by repository.
+     * @return a map where each key is the name of a repository and each value
+     * is the number of papers of each {@link Outcome}, indexed by its ordinal
+     */
+    public Map<String, long[]> getOutcomes() {
+        final Map<String, long[]> map = new TreeMap<>();
+        for (Map.Entry<String, AtomicLongArray> entry : outcomes.entrySet()) {
+            final long counts[] = new long[Outcome.values().length];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = entry.getValue().get(i);
+            }
+            map.put(entry.getKey(), counts);
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * @param outcome a result
+     * @return the number of papers of the given result, from all repositories
+     */
+    public long getCount(final Outcome outcome) {
+        long count = 0;
+        for (AtomicLongArray counts : outcomes.values()) {
+            count += counts.get(outcome.ordinal());
+        }
+        return count;
+    }
+
+    /**
+     * @param bytes number of PDF bytes transferred
+     */
+    public void addBytesTransferred(final long bytes) {
+        bytesTransferred.addAndGet(bytes);
+    }
+
+    /**
+     * @return the number of PDF bytes transferred
+     */
+    public long getBytesTransferred() {
+        return bytesTransferred.get();
+    }
+
+    /**
+     * Records that a paper was sent to the download pipeline.
+     */
+    void queued() {
+        pending.incrementAndGet();
+    }
+
+    /**
+     * Records that a paper sent to the download pipeline left it
+     * (downloaded or not).
+     */
+    void dequeued() {
+        pending.decrementAndGet();
+    }
+
+    /**
+     * Records that a download attempt started.
+     */
+    void started() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Records that a download attempt finished.
+     */
+    void finished() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * @return the number of papers being downloaded now
+     */
+    public long getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return the number of papers waiting to be downloaded
+     * (including those waiting for a retry)
+     */
+    public long getQueued() {
+        return Math.max(0, pending.get() - inFlight.get());
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("Download metrics:\n");
+        for (Phase phase : Phase.values()) {
+            final Timer timer = getTimer(phase);
+            sb.append(String.format("\t%-24s %8d times, total %10.3f s, mean %9.3f ms, max %9.3f ms\n",
+                    phase.getName(), timer.getCount(), timer.getTotalNanos() / 1e9,
+                    timer.getMeanNanos() / 1e6, timer.getMaxNanos() / 1e6));
+        }
+        for (Map.Entry<String, long[]> entry : getOutcomes().entrySet()) {
+            sb.append(String.format("\t%-24s %8d downloaded, %d paywalled, %d failed\n", entry.getKey(),
+                    entry.getValue()[Outcome.DOWNLOADED.ordinal()], entry.getValue()[Outcome.PAYWALLED.ordinal()],
+                    entry.getValue()[Outcome.FAILED.ordinal()]));
+        }
+        sb.append(String.format("\t%-24s %8d bytes\n", "transferred", getBytesTransferred()));
+        return sb.toString();
+    }
+
+    /**
+     * Accumulates the number of times a phase ran and the time spent on it.
+     */
+    public static class Timer {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(final long nanos) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max;
+            while(nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)){
+                //tries again if another thread changed the maximum
+            }
+        }
+
+        /**
+         * @return the number of times the phase ran
+         */
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * @return the total time (in nanoseconds) spent on the phase
+         */
+        public long getTotalNanos() {
+            return totalNanos.get();
+        }
+
+        /**
+         * @return the longest time (in nanoseconds) the phase took
+         */
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        /**
+         * @return the mean time (in nanoseconds) the phase took
+         */
+        public double getMeanNanos() {
+            final long n = count.get();
+            return n == 0 ? 0 : totalNanos.get() / (double)n;
+        }
+
+        /**
+         * @return the total time (in seconds) spent on the phase
+         */
+        public double getTotalSeconds() {
+            return totalNanos.get() / (double)TimeUnit.SECONDS.toNanos(1);
+        }
+    }
+}
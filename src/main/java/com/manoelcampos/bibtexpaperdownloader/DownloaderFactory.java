@@ -0,0 +1,21 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import java.io.IOException;
+import org.jbibtex.ParseException;
+
+/**
+ * Creates the downloaders of the bibtex files processed by a long-running process
+ * (such as the {@link BibTeXWatcher} and the {@link JobServer}),
+ * with the settings of the downloads.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public interface DownloaderFactory {
+    /**
+     * @param bibFileName the name of the bibtex file
+     * @return a downloader that parses the whole file
+     * @throws IOException when the file cannot be read
+     * @throws ParseException when the file cannot be parsed
+     */
+    BibTexPapersDownloader create(String bibFileName) throws IOException, ParseException;
+}
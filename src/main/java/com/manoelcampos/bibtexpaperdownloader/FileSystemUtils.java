@@ -1,6 +1,16 @@
 package com.manoelcampos.bibtexpaperdownloader;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import org.apache.commons.lang.StringUtils;
 
 /**
@@ -8,6 +18,11 @@ import org.apache.commons.lang.StringUtils;
  * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
  */
 public class FileSystemUtils {
+    /**
+     * Number of bytes at the beginning and at the end of a PDF file
+     * where its header and trailer are looked for.
+     */
+    private static final int PDF_MARKER_SEARCH_LENGTH = 1024;
 
     /**
      *
@@ -30,5 +45,87 @@ public class FileSystemUtils {
     public static String validateFileName(String fileName) {
         return fileName.replaceAll("[^a-zA-Z0-9\\.\\-]", " ");
     }
-    
+
+    /**
+     * Gets the temporary file where the content of a file is written
+     * before it's complete. The temporary file is in the same directory
+     * of the final file, so that it can be atomically renamed to it.
+     * 
+     * @param file the final file
+     * @return the temporary file
+     * @see #moveAtomically(java.nio.file.Path, java.nio.file.Path) 
+     */
+    public static Path getTemporaryFile(final Path file) {
+        return file.resolveSibling(file.getFileName() + ".part");
+    }
+
+    /**
+     * Renames a file, replacing the target file if it exists.
+     * The file is atomically renamed when the file system supports it,
+     * so the target is either the old or the new complete file.
+     * 
+     * @param source the file to rename
+     * @param target the new file name
+     * @throws IOException when the file cannot be renamed
+     */
+    public static void moveAtomically(final Path source, final Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Deletes a directory and all the files inside it.
+     * @param dir the directory to delete
+     * @throws IOException when some file cannot be deleted
+     */
+    public static void deleteDirectory(final Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path dir, final IOException e) throws IOException {
+                if(e != null)
+                    throw e;
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Checks if a file exists and is a complete PDF file,
+     * looking for the PDF header (%PDF-) at its beginning 
+     * and the end of file marker (%%EOF) at its end.
+     * 
+     * @param fileName the name of the file to check
+     * @return true if the file is a complete PDF, false otherwise
+     */
+    public static boolean isValidPdfFile(final String fileName) {
+        if(StringUtils.isBlank(fileName))
+            return false;
+        final File file = new File(fileName);
+        if(!file.isFile() || file.length() == 0)
+            return false;
+
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            final int length = (int)Math.min(PDF_MARKER_SEARCH_LENGTH, raf.length());
+            final byte[] bytes = new byte[length];
+            raf.readFully(bytes);
+            if(!new String(bytes, StandardCharsets.ISO_8859_1).contains("%PDF-"))
+                return false;
+
+            raf.seek(raf.length() - length);
+            raf.readFully(bytes);
+            return new String(bytes, StandardCharsets.ISO_8859_1).contains("%%EOF");
+        } catch(IOException e){
+            return false;
+        }
+    }
 }
@@ -0,0 +1,288 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import java.io.Closeable;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Paces the requests sent to each host, using a token bucket
+ * to limit the number of requests per second and a semaphore
+ * to limit the number of simultaneous connections.
+ * Each host has its own bucket and connection budget,
+ * that are created the first time a request is sent to it.
+ *
+ * <p>A {@link Permit} has to be acquired before sending a request
+ * and closed when the response is fully read.</p>
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class HostRateLimiter {
+    /**
+     * A limiter that doesn't pace the requests at all.
+     */
+    public static final HostRateLimiter UNLIMITED = new HostRateLimiter(0, 0);
+
+    private final double maxRequestsPerSecond;
+    private final int maxConnectionsPerHost;
+    private final ConcurrentMap<String, Host> hosts = new ConcurrentHashMap<>();
+
+    /**
+     *
+     * @param maxRequestsPerSecond maximum number of requests per second sent to each host.
+     * A value lower or equal to zero means no limit.
+     * @param maxConnectionsPerHost maximum number of simultaneous connections to each host.
+     * A value lower or equal to zero means no limit.
+     */
+    public HostRateLimiter(final double maxRequestsPerSecond, final int maxConnectionsPerHost) {
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    /**
+     * Waits until a request can be sent to a given host.
+     *
+     * @param hostName the name of the host to send the request to
+     * @return a permit that has to be closed when the connection is finished
+     * @throws InterruptedIOException when the thread is interrupted while waiting
+     */
+    public Permit acquire(final String hostName) throws InterruptedIOException {
+        if(isUnlimited())
+            return Permit.NONE;
+
+        final Host host = getHost(hostName);
+        try {
+            return host.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to send a request to " + hostName);
+        }
+    }
+
+    private Host getHost(final String hostName) {
+        Host host = hosts.get(hostName);
+        if(host == null){
+            final Host newHost = new Host(hostName, maxRequestsPerSecond, maxConnectionsPerHost);
+            host = hosts.putIfAbsent(hostName, newHost);
+            if(host == null)
+                host = newHost;
+        }
+        return host;
+    }
+
+    /**
+     * @return true if the limiter doesn't limit neither
+     * the requests per second nor the connections per host.
+     */
+    public boolean isUnlimited() {
+        return maxRequestsPerSecond <= 0 && maxConnectionsPerHost <= 0;
+    }
+
+    /**
+     * @return the maximum number of requests per second sent to each host
+     */
+    public double getMaxRequestsPerSecond() {
+        return maxRequestsPerSecond;
+    }
+
+    /**
+     * @return the maximum number of simultaneous connections to each host
+     */
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    /**
+     * @return the counters of each host a request was sent to
+     */
+    public Collection<Host> getHosts() {
+        return Collections.unmodifiableCollection(hosts.values());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Rate limit: %.2f requests/s and %d connections per host\n",
+                maxRequestsPerSecond, maxConnectionsPerHost));
+        for (Host host : hosts.values()) {
+            sb.append('\t').append(host).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The token bucket, connection budget and counters of a host.
+     */
+    public static class Host {
+        private final String name;
+        private final double tokensPerNano;
+        private final double capacity;
+        private final Semaphore connections;
+        private double tokens;
+        private long lastRefillTime;
+
+        private final AtomicInteger queueDepth = new AtomicInteger();
+        private final AtomicInteger maxQueueDepth = new AtomicInteger();
+        private final AtomicInteger activeConnections = new AtomicInteger();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong totalWaitTime = new AtomicLong();
+
+        private Host(final String name, final double maxRequestsPerSecond, final int maxConnections) {
+            this.name = name;
+            this.tokensPerNano = maxRequestsPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = Math.max(1, Math.ceil(maxRequestsPerSecond));
+            this.tokens = capacity;
+            this.lastRefillTime = System.nanoTime();
+            this.connections = maxConnections > 0 ? new Semaphore(maxConnections, true) : null;
+        }
+
+        private Permit acquire() throws InterruptedException {
+            final long start = System.nanoTime();
+            updateMaxQueueDepth(queueDepth.incrementAndGet());
+            try {
+                if(connections != null)
+                    connections.acquire();
+                try {
+                    waitForToken();
+                } catch(InterruptedException e){
+                    releaseConnection();
+                    throw e;
+                }
+            } finally {
+                queueDepth.decrementAndGet();
+                totalWaitTime.addAndGet(System.nanoTime() - start);
+            }
+            requests.incrementAndGet();
+            activeConnections.incrementAndGet();
+            return new Permit(this);
+        }
+
+        private void waitForToken() throws InterruptedException {
+            if(tokensPerNano <= 0)
+                return;
+            final long waitTime = reserveToken();
+            if(waitTime > 0)
+                TimeUnit.NANOSECONDS.sleep(waitTime);
+        }
+
+        /**
+         * Takes a token from the bucket. If there is no token available,
+         * the token is borrowed from the future, making the
+         * next callers wait for it.
+         * @return the time (in nanoseconds) the caller has to wait until
+         * the reserved token becomes available
+         */
+        private synchronized long reserveToken() {
+            final long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefillTime) * tokensPerNano);
+            lastRefillTime = now;
+            tokens--;
+            return tokens >= 0 ? 0 : (long)Math.ceil(-tokens / tokensPerNano);
+        }
+
+        private void updateMaxQueueDepth(final int depth) {
+            int max;
+            while((max = maxQueueDepth.get()) < depth && !maxQueueDepth.compareAndSet(max, depth)){
+                //retries until the max value is updated
+            }
+        }
+
+        private void release() {
+            activeConnections.decrementAndGet();
+            releaseConnection();
+        }
+
+        private void releaseConnection() {
+            if(connections != null)
+                connections.release();
+        }
+
+        /**
+         * @return the host name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the number of requests currently waiting to be sent to the host
+         */
+        public int getQueueDepth() {
+            return queueDepth.get();
+        }
+
+        /**
+         * @return the maximum number of requests that have waited at the same time
+         */
+        public int getMaxQueueDepth() {
+            return maxQueueDepth.get();
+        }
+
+        /**
+         * @return the number of connections currently open to the host
+         */
+        public int getActiveConnections() {
+            return activeConnections.get();
+        }
+
+        /**
+         * @return the number of requests sent to the host
+         */
+        public long getRequests() {
+            return requests.get();
+        }
+
+        /**
+         * @return the total time (in milliseconds) requests have waited
+         * to be sent to the host
+         */
+        public long getTotalWaitTimeMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(totalWaitTime.get());
+        }
+
+        /**
+         * @return the average time (in milliseconds) a request waited to be sent to the host
+         */
+        public double getAverageWaitTimeMillis() {
+            final long count = requests.get();
+            return count == 0 ? 0 : getTotalWaitTimeMillis() / (double)count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%s: %d requests, %.1f ms average wait, %d waiting (max %d), %d active connections",
+                    name, getRequests(), getAverageWaitTimeMillis(), getQueueDepth(),
+                    getMaxQueueDepth(), getActiveConnections());
+        }
+    }
+
+    /**
+     * Authorization to send a request to a host.
+     * It has to be closed when the connection is finished,
+     * to give the connection back to the host budget.
+     */
+    public static class Permit implements Closeable {
+        private static final Permit NONE = new Permit(null);
+        private final Host host;
+        private boolean closed;
+
+        private Permit(final Host host) {
+            this.host = host;
+        }
+
+        @Override
+        public synchronized void close() {
+            if(closed || host == null)
+                return;
+            closed = true;
+            host.release();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a server answers a request with an HTTP error status code.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class HttpStatusException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final String url;
+
+    public HttpStatusException(final int statusCode, final String url) {
+        super("The server answered with the HTTP status " + statusCode + " for " + url);
+        this.statusCode = statusCode;
+        this.url = url;
+    }
+
+    /**
+     * @return the HTTP status code answered by the server
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return the requested URL
+     */
+    public String getUrl() {
+        return url;
+    }
+}
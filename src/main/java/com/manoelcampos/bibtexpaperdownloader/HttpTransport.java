@@ -0,0 +1,59 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Sends the HTTP requests used by {@link HttpUtils}.
+ * Different implementations can be plugged through
+ * {@link HttpUtils#setTransport(com.manoelcampos.bibtexpaperdownloader.HttpTransport)},
+ * for instance to use another HTTP client library.
+ * Implementations must be thread-safe.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public interface HttpTransport {
+    /**
+     * Sends a GET request.
+     * If no Accept-Encoding header is given, the implementation may ask for a compressed
+     * response, but the body of the returned response must be already decoded.
+     *
+     * @param url the URL to send the request to
+     * @param headers additional request headers
+     * @return the response, that has to be closed after its body is read
+     * @throws IOException when the request cannot be sent
+     */
+    Response get(URL url, Map<String, String> headers) throws IOException;
+
+    /**
+     * The response of a request.
+     * Closing the response after its body is fully read enables
+     * the connection to be reused by other requests.
+     */
+    interface Response extends Closeable {
+        /**
+         * @return the HTTP status code of the response
+         */
+        int getStatusCode();
+
+        /**
+         * @param name the name of the header
+         * @return the value of the header or null if the response doesn't have it
+         */
+        String getHeader(String name);
+
+        /**
+         * @return the length of the response body, or -1 if unknown
+         */
+        long getContentLength();
+
+        /**
+         * @return the decoded body of the response
+         * @throws IOException when the body cannot be read
+         */
+        InputStream getBody() throws IOException;
+    }
+}
@@ -1,19 +1,30 @@
 package com.manoelcampos.bibtexpaperdownloader;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
-import java.io.FileOutputStream;
+import java.io.EOFException;
+import java.io.FilterReader;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
+import java.io.Reader;
 import java.io.StringWriter;
 import java.net.CookieHandler;
 import java.net.CookieManager;
 import java.net.CookiePolicy;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -22,19 +33,126 @@ import java.util.regex.Pattern;
  * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
  */
 public class HttpUtils {
+    /**
+     * Cache of compiled regexes, to avoid compiling the same regex
+     * for every parsed page.
+     */
+    private static final ConcurrentMap<String, Pattern> PATTERNS = new ConcurrentHashMap<>();
+
+    /**
+     * Maximum length of a text that can be found when a web page is scanned
+     * without being entirely loaded into memory.
+     * @see #findInWebPage(java.lang.String, java.util.regex.Pattern, com.manoelcampos.bibtexpaperdownloader.HostRateLimiter) 
+     */
+    public static final int MAX_MATCH_LENGTH = 8192;
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    /**
+     * Maximum number of bytes transferred by each call to
+     * {@link FileChannel#transferFrom(java.nio.channels.ReadableByteChannel, long, long)}.
+     */
+    private static final long TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    private static volatile HttpTransport transport = new UrlConnectionTransport();
+
     static {
         CookieManager manager = new CookieManager();
         manager.setCookiePolicy(CookiePolicy.ACCEPT_ALL);
         CookieHandler.setDefault(manager);
     }
     
+    /**
+     * @return the transport used to send the HTTP requests
+     */
+    public static HttpTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * @param transport the transport to be used to send the HTTP requests
+     */
+    public static void setTransport(final HttpTransport transport) {
+        if(transport == null)
+            throw new IllegalArgumentException("The HTTP transport cannot be null.");
+        HttpUtils.transport = transport;
+    }
+
+    /**
+     * Sends a GET request using the current {@link HttpTransport}.
+     * 
+     * @param url the URL to send the request to
+     * @param headers additional request headers
+     * @return the response to the request
+     * @throws HttpStatusException when the server answers with an error status code
+     * @throws IOException when the request cannot be sent
+     */
+    static HttpTransport.Response get(URL url, Map<String, String> headers) throws IOException {
+        final HttpTransport.Response response = transport.get(url, headers);
+        if(response.getStatusCode() >= HttpURLConnection.HTTP_BAD_REQUEST){
+            response.close();
+            throw new HttpStatusException(response.getStatusCode(), url.toString());
+        }
+        return response;
+    }
+
     private static BufferedReader sendRequest(URL url) throws IOException{
-        URLConnection conn = url.openConnection();
-        conn.addRequestProperty("User-Agent", "Mozilla/5.0 (Windows NT 5.1; rv:31.0) Gecko/20100101 Firefox/31.0");
-        conn.addRequestProperty("Host", url.getHost());
-        conn.connect();
-        BufferedReader bf = new BufferedReader(new InputStreamReader(conn.getInputStream())); 
-        return bf;
+        final HttpTransport.Response response = get(url, Collections.<String, String>emptyMap());
+        return new BufferedReader(new InputStreamReader(response.getBody(), getCharset(response)));
+    }
+
+    private static TimedReader sendTimedRequest(URL url) throws IOException{
+        final long start = System.nanoTime();
+        final BufferedReader reader = sendRequest(url);
+        return new TimedReader(reader, System.nanoTime() - start);
+    }
+
+    /**
+     * A reader of a response body that measures the time spent sending the request
+     * and waiting for the body, separating it from the time spent processing the body.
+     */
+    private static class TimedReader extends FilterReader {
+        private final long requestNanos;
+        private long readNanos;
+
+        TimedReader(final Reader reader, final long requestNanos) {
+            super(reader);
+            this.requestNanos = requestNanos;
+        }
+
+        @Override
+        public int read(final char[] cbuf, final int off, final int len) throws IOException {
+            final long start = System.nanoTime();
+            try {
+                return super.read(cbuf, off, len);
+            } finally {
+                readNanos += System.nanoTime() - start;
+            }
+        }
+    }
+
+    /**
+     * Gets the charset of a response from its Content-Type header.
+     * @param response the response to get the charset from
+     * @return the response charset or the default charset if the response doesn't define a valid one
+     */
+    private static Charset getCharset(HttpTransport.Response response) {
+        final String contentType = response.getHeader("Content-Type");
+        if(contentType != null){
+            for (String param : contentType.split(";")) {
+                param = param.trim();
+                if(param.toLowerCase().startsWith("charset=")){
+                    try {
+                        return Charset.forName(param.substring("charset=".length()).replace("\"", "").trim());
+                    } catch(IllegalArgumentException e){
+                        break;
+                    }
+                }
+            }
+        }
+        return Charset.defaultCharset();
     }
 
     /**
@@ -44,21 +162,115 @@ public class HttpUtils {
      * @throws java.net.MalformedURLException Thrown when the URL is invalid
      */
     public static String getWebPageHtmlContent(String url) throws MalformedURLException, IOException {
+        return getWebPageHtmlContent(url, HostRateLimiter.UNLIMITED);
+    }
+
+    /**
+     *
+     * @param url The page url
+     * @param rateLimiter Limiter used to pace the requests sent to the page host
+     * @return The HTMl code of the page 
+     * @throws java.net.MalformedURLException Thrown when the URL is invalid
+     */
+    @SuppressWarnings("try") //the permit is just held until the request finishes
+    public static String getWebPageHtmlContent(String url, HostRateLimiter rateLimiter) throws MalformedURLException, IOException {
         String line;
-        try (final BufferedReader is = sendRequest(new URL(url))) {
+        final URL u = newUrl(url);
+        try (final HostRateLimiter.Permit permit = rateLimiter.acquire(u.getHost());
+             final BufferedReader is = sendRequest(u)) {
             try (final StringWriter os = new StringWriter()) {
                 while ((line = is.readLine()) != null) {
                     os.append(line);
                 }
                 return os.toString();
             }
-        } catch (MalformedURLException e) {
-            throw new MalformedURLException("Invalid URL " + url);
         } catch (IOException e) {
             throw new IOException("Error trying to write in the local buffer to store the page HTML from " + url, e);
         }
     }
 
+    /**
+     * Reads a web page, looking for a regex, and stops reading the page
+     * (closing the connection) as soon as the regex matches.
+     * The page is never entirely loaded into memory: it's scanned
+     * over a sliding window that keeps the last {@link #MAX_MATCH_LENGTH} chars read,
+     * so that a text split between two reads is still found.
+     * As in {@link #getWebPageHtmlContent(java.lang.String)}, line breaks are ignored.
+     * The time spent reading the page and scanning it are recorded as the
+     * {@link DownloadMetrics.Phase#PAGE_FETCH} and {@link DownloadMetrics.Phase#PDF_URL_EXTRACTION} phases.
+     *
+     * @param url The page url
+     * @param pattern The compiled regex to look for
+     * @param rateLimiter Limiter used to pace the requests sent to the page host
+     * @return the result of the first match of the regex or null if it doesn't match
+     * @throws java.net.MalformedURLException Thrown when the URL is invalid
+     */
+    @SuppressWarnings("try") //the permit is just held until the request finishes
+    public static MatchResult findInWebPage(String url, Pattern pattern, HostRateLimiter rateLimiter) throws MalformedURLException, IOException {
+        final URL u = newUrl(url);
+        try (final HostRateLimiter.Permit permit = rateLimiter.acquire(u.getHost());
+             final TimedReader is = sendTimedRequest(u)) {
+            final long start = System.nanoTime();
+            try {
+                return find(is, pattern, MAX_MATCH_LENGTH);
+            } finally {
+                final DownloadMetrics metrics = DownloadMetrics.getDefault();
+                metrics.recordNanos(DownloadMetrics.Phase.PDF_URL_EXTRACTION, System.nanoTime() - start - is.readNanos);
+                metrics.recordNanos(DownloadMetrics.Phase.PAGE_FETCH, is.requestNanos + is.readNanos);
+            }
+        } catch (IOException e) {
+            throw new IOException("Error trying to read the page HTML from " + url, e);
+        }
+    }
+
+    /**
+     * Reads a text, looking for a regex, and stops reading as soon as the regex matches.
+     * The text is scanned over a sliding window that keeps the last
+     * maxMatchLength chars read. Line breaks are ignored.
+     *
+     * @param reader The reader to get the text from
+     * @param pattern The compiled regex to look for
+     * @param maxMatchLength The maximum length of the text matched by the regex
+     * @return the result of the first match of the regex or null if it doesn't match
+     * @throws IOException when the text cannot be read
+     */
+    public static MatchResult find(Reader reader, Pattern pattern, int maxMatchLength) throws IOException {
+        final char[] buffer = new char[READ_BUFFER_SIZE];
+        final StringBuilder window = new StringBuilder(maxMatchLength + READ_BUFFER_SIZE);
+        int len;
+        while ((len = reader.read(buffer)) != -1) {
+            appendIgnoringLineBreaks(window, buffer, len);
+            final Matcher matcher = pattern.matcher(window);
+            /*If the match reaches the end of the window, 
+            more chars may change it, so the next chars are read before accepting it.*/
+            if (matcher.find() && !matcher.hitEnd()) {
+                return matcher.toMatchResult();
+            }
+            if (window.length() > maxMatchLength) {
+                window.delete(0, window.length() - maxMatchLength);
+            }
+        }
+
+        final Matcher matcher = pattern.matcher(window);
+        return matcher.find() ? matcher.toMatchResult() : null;
+    }
+
+    private static void appendIgnoringLineBreaks(StringBuilder window, char[] buffer, int len) {
+        for (int i = 0; i < len; i++) {
+            if (buffer[i] != '\n' && buffer[i] != '\r') {
+                window.append(buffer[i]);
+            }
+        }
+    }
+
+    private static URL newUrl(String url) throws MalformedURLException {
+        try {
+            return new URL(url);
+        } catch (MalformedURLException e) {
+            throw new MalformedURLException("Invalid URL " + url);
+        }
+    }
+
     /**
      * Using a specified regex expression, 
      * gets a specific information from an HTML code.
@@ -69,7 +281,19 @@ public class HttpUtils {
      * Returns a empty string if the information is not found.
      */
     public static String getInformationFromWebPageContent(String html, String regex) {
-        Pattern pattern = Pattern.compile(regex);
+        return getInformationFromWebPageContent(html, compilePattern(regex));
+    }
+
+    /**
+     * Using a specified compiled regex, 
+     * gets a specific information from an HTML code.
+     *
+     * @param html HTML code to be parsed.
+     * @param pattern Compiled regular expression to get the desired information from the HTML code.
+     * @return The information extracted from applying the regex to the HTML code.
+     * Returns a empty string if the information is not found.
+     */
+    public static String getInformationFromWebPageContent(String html, Pattern pattern) {
         Matcher matcher = pattern.matcher(html);
         if (matcher.find()) {
             return (matcher.groupCount()==0 ? matcher.group() : matcher.group(1));
@@ -77,6 +301,22 @@ public class HttpUtils {
         return "";
     }
 
+    /**
+     * Compiles a regex, returning a cached {@link Pattern}
+     * if the regex was already compiled before.
+     * 
+     * @param regex the regular expression to compile
+     * @return the compiled regex
+     */
+    public static Pattern compilePattern(String regex) {
+        Pattern pattern = PATTERNS.get(regex);
+        if(pattern == null){
+            pattern = Pattern.compile(regex);
+            PATTERNS.putIfAbsent(regex, pattern);
+        }
+        return pattern;
+    }
+
     /**
      * Downloads the file specified by the URL.
      *
@@ -86,21 +326,141 @@ public class HttpUtils {
      * @throws java.net.MalformedURLException Thrown when the informed URL is invalid.
      */
     public static boolean downloadFile(String url, String fileName) throws MalformedURLException, IOException {
-        URL u = new URL(url);
-        try (final InputStream is = new BufferedInputStream(u.openStream())) {
-            try (final OutputStream os = new FileOutputStream(fileName)) {
-                byte[] b = new byte[1024];
-                int len;
-                while ((len = is.read(b, 0, b.length)) != -1) {
-                    os.write(b, 0, len);
-                }
+        return downloadFile(url, fileName, HostRateLimiter.UNLIMITED);
+    }
+
+    /**
+     * Downloads the file specified by the URL.
+     * The file is transferred through NIO channels into a temporary file
+     * that, after the transfer finishes, is flushed to the disk and atomically
+     * renamed to the given file name. This way, a failed transfer never
+     * leaves a truncated file with the final name.
+     * If the transfer fails, the received bytes are kept so that the next
+     * download of the same file continues from where it stopped, 
+     * using an HTTP Range request. If the server ignores the range,
+     * or sends a range other than the requested one, the entire file is downloaded again.
+     * The transfers are recorded as the {@link DownloadMetrics.Phase#DOWNLOAD} phase.
+     *
+     * @param url The URL of the remote file.
+     * @param fileName Name to save the download file locally.
+     * @param rateLimiter Limiter used to pace the requests sent to the file host
+     * @return True if the file was downloaded and false otherwise.
+     * @throws java.net.MalformedURLException Thrown when the informed URL is invalid.
+     * @see PartialDownload
+     */
+    public static boolean downloadFile(String url, String fileName, HostRateLimiter rateLimiter) throws MalformedURLException, IOException {
+        return downloadFile(url, fileName, rateLimiter, false);
+    }
+
+    /**
+     * Downloads a PDF file, as {@link #downloadFile(String, String, HostRateLimiter)} does,
+     * but doesn't save a body that isn't a complete PDF file
+     * (such as the login page sent by a server instead of the paper).
+     *
+     * @param url The URL of the remote file.
+     * @param fileName Name to save the download file locally.
+     * @param rateLimiter Limiter used to pace the requests sent to the file host
+     * @return True if the file was downloaded and false otherwise.
+     * @throws java.net.MalformedURLException Thrown when the informed URL is invalid.
+     * @throws NotPdfFileException when the downloaded file isn't a PDF (it's discarded)
+     * @see FileSystemUtils#isValidPdfFile(java.lang.String)
+     */
+    public static boolean downloadPdf(String url, String fileName, HostRateLimiter rateLimiter) throws MalformedURLException, IOException {
+        return downloadFile(url, fileName, rateLimiter, true);
+    }
+
+    private static boolean downloadFile(String url, String fileName, HostRateLimiter rateLimiter, boolean pdf) throws MalformedURLException, IOException {
+        URL u = newUrl(url);
+        try {
+            final PartialDownload partial = new PartialDownload(Paths.get(fileName));
+            try {
+                downloadFile(u, partial, partial.getResumePosition(url), rateLimiter);
+            } catch(HttpStatusException e) {
+                if(e.getStatusCode() != HTTP_RANGE_NOT_SATISFIABLE)
+                    throw e;
+                partial.discard();
+                downloadFile(u, partial, 0, rateLimiter);
+            } catch(PartialDownload.RangeMismatchException e) {
+                //the received part cannot be appended to the partial file, so a plain GET is sent
+                partial.discard();
+                downloadFile(u, partial, 0, rateLimiter);
             }
-        } catch (MalformedURLException e) {
-            throw new MalformedURLException("Invalid URL " + url);
+            if(pdf && !FileSystemUtils.isValidPdfFile(partial.getTempFile().toString())){
+                partial.discard();
+                throw new NotPdfFileException(url);
+            }
+            partial.commit();
+        } catch (NotPdfFileException e) {
+            throw e;
         } catch (IOException e) {
             throw new IOException("Error trying to access the file " + fileName, e);
         }
         return true;
     }
+
+    @SuppressWarnings("try") //the permit is just held until the request finishes
+    private static void downloadFile(URL url, PartialDownload partial, long position, HostRateLimiter rateLimiter) throws IOException {
+        try (final HostRateLimiter.Permit permit = rateLimiter.acquire(url.getHost())) {
+            final long start = System.nanoTime();
+            try {
+                transferFile(url, partial, position);
+            } finally {
+                DownloadMetrics.getDefault().record(DownloadMetrics.Phase.DOWNLOAD, start);
+            }
+        }
+    }
+
+    private static void transferFile(URL url, PartialDownload partial, long position) throws IOException {
+        try (final HttpTransport.Response response = get(url, partial.getRequestHeaders(position));
+             final ReadableByteChannel in = Channels.newChannel(response.getBody());
+             final FileChannel out = FileChannel.open(partial.getTempFile(), 
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            position = partial.start(url.toString(), response, position);
+            out.truncate(position);
+            out.position(position);
+            try {
+                final long transferred = transfer(in, out);
+                DownloadMetrics.getDefault().addBytesTransferred(transferred);
+                checkTransferredBytes(transferred, response.getContentLength(), url.toString());
+            } finally {
+                out.force(true);
+                partial.save(out.size());
+            }
+        }
+    }
+
+    /**
+     * Checks if all the bytes of a response body were transferred,
+     * since a connection closed before the end of the body may be reported as
+     * a regular end of stream.
+     * 
+     * @param transferred the number of bytes transferred
+     * @param expected the expected number of bytes or -1 if unknown
+     * @param url the URL the bytes were transferred from
+     * @throws IOException when less bytes than expected were transferred
+     */
+    private static void checkTransferredBytes(final long transferred, final long expected, final String url) throws IOException {
+        if(expected >= 0 && transferred != expected)
+            throw new EOFException(
+                String.format("Incomplete transfer from %s: %d of %d bytes received", url, transferred, expected));
+    }
+
+    /**
+     * Transfers all the bytes from a channel to the current position of a file.
+     * @param in the channel to read the bytes from
+     * @param out the file to write the bytes to
+     * @return the number of transferred bytes
+     * @throws IOException 
+     */
+    private static long transfer(final ReadableByteChannel in, final FileChannel out) throws IOException {
+        long position = out.position();
+        final long start = position;
+        long transferred;
+        while ((transferred = out.transferFrom(in, position, TRANSFER_CHUNK_SIZE)) > 0) {
+            position += transferred;
+            out.position(position);
+        }
+        return position - start;
+    }
     
 }
@@ -0,0 +1,141 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Exposes the {@link DownloadMetrics} as attributes of an MBean,
+ * so that they can be seen by JMX clients such as JConsole and VisualVM.
+ * Each phase has the attributes {@code <Phase>Count}, {@code <Phase>TotalMillis} and {@code <Phase>MaxMillis}
+ * (such as {@code PageFetchCount}) and each repository has the attributes
+ * {@code <Repository>Downloaded}, {@code <Repository>Paywalled} and {@code <Repository>Failed}.
+ * Since repositories are added while papers are downloaded, their attributes
+ * appear when the MBean information is got again.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class JmxMetrics implements DynamicMBean {
+    public static final String OBJECT_NAME = "com.manoelcampos.bibtexpaperdownloader:type=DownloadMetrics";
+
+    private final DownloadMetrics metrics;
+
+    /**
+     *
+     * @param metrics the metrics to expose
+     */
+    public JmxMetrics(final DownloadMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Registers the {@link DownloadMetrics#getDefault() default metrics}
+     * into the platform MBean server, if they weren't registered yet.
+     * @return the name of the MBean
+     * @throws JMException when the MBean cannot be registered
+     */
+    public static ObjectName register() throws JMException {
+        final ObjectName name = new ObjectName(OBJECT_NAME);
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(new JmxMetrics(DownloadMetrics.getDefault()), name);
+        } catch (InstanceAlreadyExistsException e) {
+            //the metrics are shared by all the downloads of the JVM
+        }
+        return name;
+    }
+
+    /**
+     * Gets the current value of each attribute.
+     */
+    private Map<String, Number> getValues() {
+        final Map<String, Number> values = new LinkedHashMap<>();
+        for (DownloadMetrics.Phase phase : DownloadMetrics.Phase.values()) {
+            final DownloadMetrics.Timer timer = metrics.getTimer(phase);
+            final String name = toCamelCase(phase.name());
+            values.put(name + "Count", timer.getCount());
+            values.put(name + "TotalMillis", timer.getTotalNanos() / 1000000);
+            values.put(name + "MaxMillis", timer.getMaxNanos() / 1000000);
+        }
+        for (DownloadMetrics.Outcome outcome : DownloadMetrics.Outcome.values()) {
+            values.put(toCamelCase(outcome.name()), metrics.getCount(outcome));
+        }
+        for (Map.Entry<String, long[]> entry : metrics.getOutcomes().entrySet()) {
+            for (DownloadMetrics.Outcome outcome : DownloadMetrics.Outcome.values()) {
+                values.put(entry.getKey() + toCamelCase(outcome.name()), entry.getValue()[outcome.ordinal()]);
+            }
+        }
+        values.put("BytesTransferred", metrics.getBytesTransferred());
+        values.put("InFlight", metrics.getInFlight());
+        values.put("Queued", metrics.getQueued());
+        return values;
+    }
+
+    private static String toCamelCase(final String constantName) {
+        final StringBuilder sb = new StringBuilder(constantName.length());
+        for (String word : constantName.split("_")) {
+            sb.append(word.charAt(0)).append(word.substring(1).toLowerCase());
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public Object getAttribute(final String attribute) throws AttributeNotFoundException {
+        final Number value = getValues().get(attribute);
+        if(value == null)
+            throw new AttributeNotFoundException(attribute);
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(final String[] attributes) {
+        final Map<String, Number> values = getValues();
+        final AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            if(values.containsKey(attribute))
+                list.add(new Attribute(attribute, values.get(attribute)));
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(final Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("The download metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(final AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(final String actionName, final Object[] params, final String[] signature) {
+        throw new UnsupportedOperationException("The download metrics don't have operations: " + actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        final List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (Map.Entry<String, Number> value : getValues().entrySet()) {
+            attributes.add(new MBeanAttributeInfo(
+                    value.getKey(), Long.class.getName(), value.getKey(), true, false, false));
+        }
+        return new MBeanInfo(
+                getClass().getName(), "Metrics of the paper downloads",
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+                null, new MBeanOperationInfo[0], null);
+    }
+}
@@ -0,0 +1,458 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A durable journal of the state of the download of each entry of a bibtex file,
+ * so that a run that was killed can be resumed exactly where it stopped
+ * and several workers (threads or processes) can download the papers of the same
+ * bibtex file without downloading the same paper twice.
+ *
+ * <p>The journal is an append-only text file (the bibtex file name followed by {@code .jobs})
+ * where each line records a state change of an entry: its key, state, number of attempts,
+ * time, the worker that made the change and the paper file.
+ * The last line of an entry gives its current state.
+ * Every line is synced to disk before the state change is considered done.</p>
+ *
+ * <p>Before downloading a paper, a worker {@link #claim(String) claims} its entry.
+ * The journal file is locked while an entry is claimed and the changes made by other
+ * processes are read before, so that an entry is claimed by a single worker.
+ * Each worker holds the lock of a file of its own (the journal file name followed by the worker ID
+ * and {@code .lock}) while the journal is open. The operating system releases the lock when
+ * the worker process dies (even if it's killed), so the entries left in progress by a worker
+ * whose lock is free are claimed again at once.</p>
+ *
+ * <p>A journal opened without resuming starts a new run, discarding the states of the previous ones,
+ * unless another worker is still downloading the papers of the same bibtex file.
+ * In that case, the worker joins the run in progress.</p>
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class JobJournal implements Closeable {
+    private static final String SEPARATOR = "\t";
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * The lock files of the journals opened by this process.
+     * They are never opened to be checked, since closing a channel of a file
+     * may release all the locks the process holds on that file.
+     */
+    private static final Set<Path> LOCK_FILES_OF_THIS_PROCESS =
+            Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+    private static final int FIELDS = 6;
+
+    /**
+     * The states of the download of a bibtex entry.
+     */
+    public enum State {
+        PENDING, RESOLVING, DOWNLOADING, DONE, PAYWALLED, FAILED;
+
+        /**
+         * @return true if some worker is processing the entry, false otherwise
+         */
+        public boolean isInProgress() {
+            return this == RESOLVING || this == DOWNLOADING;
+        }
+
+        /**
+         * @return true if the entry doesn't have to be processed again, false otherwise
+         */
+        public boolean isFinished() {
+            return this == DONE || this == PAYWALLED;
+        }
+    }
+
+    private final Path file;
+    private final FileChannel channel;
+    private final String worker;
+    private final Path workerLockFile;
+    private final FileChannel workerLockChannel;
+    private final FileLock workerLock;
+    private final Map<String, Job> jobs = new HashMap<>();
+    private final Set<String> claimedKeys = new HashSet<>();
+
+    /**
+     * The workers found to be dead, whose claims can be taken over.
+     */
+    private final Set<String> deadWorkers = new HashSet<>();
+    private long readPosition;
+
+    /**
+     * Opens the journal of a bibtex file.
+     *
+     * @param bibFileName the name of the bibtex file
+     * @param resume true to keep the states recorded by previous runs,
+     * false to start a new journal (if no other worker is using it)
+     * @throws IOException when the journal cannot be opened
+     */
+    @SuppressWarnings("try") //the journal lock is just held while the journal is read
+    public JobJournal(final String bibFileName, final boolean resume) throws IOException {
+        final Path bibFile = Paths.get(bibFileName);
+        this.file = bibFile.resolveSibling(bibFile.getFileName() + ".jobs");
+        //the process name is made unique, since the same process may open the journal again later
+        this.worker = (ManagementFactory.getRuntimeMXBean().getName() + "-" + Long.toHexString(RANDOM.nextLong()))
+                      .replace(SEPARATOR, " ");
+        this.workerLockFile = getWorkerLockFile(worker).toAbsolutePath();
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try (final FileLock lock = channel.lock()) {
+            if(resume || isAnotherWorkerAlive())
+                readChanges();
+            else channel.truncate(0);
+            //the worker lock is got while the journal is locked, so that workers starting together see each other
+            workerLockChannel = FileChannel.open(workerLockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            workerLock = workerLockChannel.lock();
+            LOCK_FILES_OF_THIS_PROCESS.add(workerLockFile);
+        } catch(IOException | RuntimeException e){
+            channel.close();
+            throw e;
+        }
+    }
+
+    private Path getWorkerLockFile(final String workerId) {
+        return file.resolveSibling(file.getFileName() + "." + workerId.replaceAll("[^A-Za-z0-9._-]", "_") + LOCK_SUFFIX);
+    }
+
+    /**
+     * Checks if another worker has the journal open.
+     * The lock files of the workers that died are removed.
+     */
+    private boolean isAnotherWorkerAlive() throws IOException {
+        final String prefix = file.getFileName() + ".";
+        final DirectoryStream.Filter<Path> filter = new DirectoryStream.Filter<Path>() {
+            @Override
+            public boolean accept(final Path path) {
+                final String name = path.getFileName().toString();
+                return name.startsWith(prefix) && name.endsWith(LOCK_SUFFIX);
+            }
+        };
+        boolean alive = false;
+        try (final DirectoryStream<Path> lockFiles = Files.newDirectoryStream(file.toAbsolutePath().getParent(), filter)) {
+            for (Path lockFile : lockFiles) {
+                alive |= isLockHeld(lockFile);
+            }
+        }
+        return alive;
+    }
+
+    /**
+     * Checks if the worker that made the last state change of an entry is alive.
+     * The claims of the current worker are not checked by this method.
+     * @param workerId the ID of the worker
+     * @return true if the worker still has the journal open, false otherwise
+     */
+    private boolean isWorkerAlive(final String workerId) throws IOException {
+        if(deadWorkers.contains(workerId))
+            return false;
+        if(isLockHeld(getWorkerLockFile(workerId)))
+            return true;
+        //a dead worker never comes back
+        deadWorkers.add(workerId);
+        return false;
+    }
+
+    /**
+     * Checks if the lock file of a worker is locked.
+     * If it isn't, the worker died and its lock file is removed.
+     */
+    private static boolean isLockHeld(final Path lockFile) throws IOException {
+        if(LOCK_FILES_OF_THIS_PROCESS.contains(lockFile.toAbsolutePath()))
+            return true;
+        try (final FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.WRITE)) {
+            final FileLock lock = lockChannel.tryLock();
+            if(lock == null)
+                return true;
+            try {
+                Files.deleteIfExists(lockFile);
+            } finally {
+                lock.release();
+            }
+            return false;
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (OverlappingFileLockException e) {
+            //the lock was got by a journal of this process meanwhile
+            return true;
+        }
+    }
+
+    /**
+     * Records a list of entries as pending, if they don't have a state yet.
+     * @param keys the keys of the entries
+     * @throws IOException when the journal cannot be written
+     */
+    @SuppressWarnings("try") //the journal lock is just held while the entries are recorded
+    public synchronized void addPending(final Collection<String> keys) throws IOException {
+        try (final FileLock lock = channel.lock()) {
+            readChanges();
+            final StringBuilder lines = new StringBuilder();
+            for (String key : keys) {
+                if(!jobs.containsKey(key))
+                    lines.append(newJob(key, State.PENDING, 0, null).toLine());
+            }
+            append(lines.toString());
+        }
+    }
+
+    /**
+     * Claims an entry for the current worker, changing its state to {@link State#RESOLVING}
+     * and incrementing its number of attempts.
+     * An entry cannot be claimed if it's already finished or if another worker
+     * that is still alive claimed it.
+     *
+     * @param key the key of the entry
+     * @return true if the entry was claimed, false otherwise
+     * @throws IOException when the journal cannot be written
+     */
+    @SuppressWarnings("try") //the journal lock is just held while the entry is claimed
+    public synchronized boolean claim(final String key) throws IOException {
+        if(claimedKeys.contains(key))
+            return false;
+        try (final FileLock lock = channel.lock()) {
+            readChanges();
+            final Job job = jobs.get(key);
+            if(job != null && (job.state.isFinished() || isClaimedByAnotherWorker(job)))
+                return false;
+            final int attempts = job == null ? 1 : job.attempts + 1;
+            append(newJob(key, State.RESOLVING, attempts, null).toLine());
+            claimedKeys.add(key);
+            return true;
+        }
+    }
+
+    private boolean isClaimedByAnotherWorker(final Job job) throws IOException {
+        return job.state.isInProgress() && !worker.equals(job.worker) && isWorkerAlive(job.worker);
+    }
+
+    /**
+     * Changes the state of an entry claimed by the current worker.
+     * If the state is a final one, the entry claim is released.
+     *
+     * @param key the key of the entry
+     * @param state the new state
+     * @param paperFile the file where the paper was downloaded (that may be null)
+     * @throws IOException when the journal cannot be written
+     */
+    @SuppressWarnings("try") //the journal lock is just held while the state is recorded
+    public synchronized void update(final String key, final State state, final String paperFile) throws IOException {
+        try (final FileLock lock = channel.lock()) {
+            readChanges();
+            final Job job = jobs.get(key);
+            append(newJob(key, state, job == null ? 0 : job.attempts, paperFile).toLine());
+        }
+        if(!state.isInProgress())
+            claimedKeys.remove(key);
+    }
+
+    /**
+     * Gets the current state of an entry.
+     * @param key the key of the entry
+     * @return the entry state or null if the entry wasn't recorded in the journal
+     */
+    public synchronized Job get(final String key) {
+        return jobs.get(key);
+    }
+
+    private Job newJob(final String key, final State state, final int attempts, final String paperFile) {
+        final Job job = new Job(key.replace(SEPARATOR, " "), state, attempts, System.currentTimeMillis(), worker,
+                                paperFile == null ? "" : paperFile.replace(SEPARATOR, " "));
+        jobs.put(key, job);
+        return job;
+    }
+
+    /**
+     * Reads the lines appended to the journal (by other processes) since the last read.
+     * Must be called while holding the journal lock.
+     */
+    private void readChanges() throws IOException {
+        final long size = channel.size();
+        if(size <= readPosition)
+            return;
+
+        final ByteBuffer buffer = ByteBuffer.allocate((int)(size - readPosition));
+        while(buffer.hasRemaining() && channel.read(buffer, readPosition + buffer.position()) != -1){
+            //reads until the buffer is full
+        }
+        final String content = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+        readPosition += buffer.position();
+        for (String line : content.split("\n")) {
+            final Job job = Job.parse(line);
+            if(job != null)
+                jobs.put(job.key, job);
+        }
+    }
+
+    /**
+     * Appends lines to the journal, syncing them to disk.
+     * Must be called while holding the journal lock.
+     */
+    private void append(final String lines) throws IOException {
+        if(lines.isEmpty())
+            return;
+        final long size = channel.size();
+        //a line partially written by a process that died is terminated, so that it's ignored
+        final String content = size > 0 && !endsWithNewLine(size) ? "\n" + lines : lines;
+        final ByteBuffer buffer = ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+        long position = size;
+        while(buffer.hasRemaining()){
+            position += channel.write(buffer, position);
+        }
+        channel.force(false);
+        readPosition = position;
+    }
+
+    private boolean endsWithNewLine(final long size) throws IOException {
+        final ByteBuffer last = ByteBuffer.allocate(1);
+        channel.read(last, size - 1);
+        return last.get(0) == '\n';
+    }
+
+    /**
+     * @return the number of entries in each state
+     */
+    public synchronized Map<State, Integer> countByState() {
+        final Map<State, Integer> count = new EnumMap<>(State.class);
+        for (Job job : jobs.values()) {
+            final Integer value = count.get(job.state);
+            count.put(job.state, value == null ? 1 : value + 1);
+        }
+        return count;
+    }
+
+    /**
+     * @return the journal file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Closes the journal. The entries left in progress by this worker
+     * can then be claimed by other workers.
+     * @throws IOException when the journal cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            Files.deleteIfExists(workerLockFile);
+            workerLock.release();
+            workerLockChannel.close();
+            LOCK_FILES_OF_THIS_PROCESS.remove(workerLockFile);
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("Jobs:");
+        for (Map.Entry<State, Integer> e : countByState().entrySet()) {
+            sb.append(String.format(" %d %s", e.getValue(), e.getKey().name().toLowerCase()));
+        }
+        return sb.append(" (").append(file).append(")\n").toString();
+    }
+
+    /**
+     * The state of the download of a bibtex entry.
+     */
+    public static class Job {
+        private final String key;
+        private final State state;
+        private final int attempts;
+        private final long time;
+        private final String worker;
+        private final String paperFile;
+
+        Job(final String key, final State state, final int attempts, final long time, final String worker, final String paperFile) {
+            this.key = key;
+            this.state = state;
+            this.attempts = attempts;
+            this.time = time;
+            this.worker = worker;
+            this.paperFile = paperFile;
+        }
+
+        private static Job parse(final String line) {
+            final String fields[] = line.split(SEPARATOR, -1);
+            if(fields.length != FIELDS)
+                return null;
+            try {
+                return new Job(fields[0], State.valueOf(fields[1]), Integer.parseInt(fields[2]),
+                               Long.parseLong(fields[3]), fields[4], fields[5]);
+            } catch(IllegalArgumentException e){
+                //ignores corrupted lines
+                return null;
+            }
+        }
+
+        private String toLine() {
+            return key + SEPARATOR + state + SEPARATOR + attempts + SEPARATOR + time +
+                   SEPARATOR + worker + SEPARATOR + paperFile + "\n";
+        }
+
+        /**
+         * @return the key of the entry
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return the current state of the entry
+         */
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * @return the number of times the download of the paper was tried
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * @return the time (in milliseconds) of the last state change
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * @return the worker that made the last state change
+         */
+        public String getWorker() {
+            return worker;
+        }
+
+        /**
+         * @return the file where the paper was downloaded or an empty string
+         * if it wasn't downloaded
+         */
+        public String getPaperFile() {
+            return paperFile;
+        }
+    }
+}
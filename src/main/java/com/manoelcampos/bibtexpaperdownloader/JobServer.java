@@ -0,0 +1,720 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jbibtex.BibTeXEntry;
+import org.jbibtex.Key;
+import org.jbibtex.ParseException;
+import org.jbibtex.Value;
+
+/**
+ * An HTTP/JSON service that downloads the papers of bibtex files (or lists of DOIs)
+ * submitted by its clients, so that a single process, with its open connections,
+ * {@link ResolutionCache}, {@link PdfStore} and the request limits of each repository,
+ * serves several users and CI jobs instead of each one starting a JVM of its own.
+ *
+ * <p>The service has the following endpoints, under the {@value #PATH} path:</p>
+ * <ul>
+ *   <li>{@code POST /jobs}: submits a job. The body is either a bibtex file or,
+ *   if the content type is JSON, a list of DOIs such as {@code {"dois": ["10.1109/5.771073"]}}
+ *   (whose entries are completed by the {@link MetadataEnricher}).
+ *   Answers {@code 202 Accepted} with the job ID and status.</li>
+ *   <li>{@code GET /jobs}: the status of all jobs.</li>
+ *   <li>{@code GET /jobs/{id}}: the status of a job: its state and the number of papers
+ *   downloaded, paywalled, failed and pending.</li>
+ *   <li>{@code GET /jobs/{id}/results}: the result of each paper, as a JSON object per line,
+ *   streamed as the papers finish. The response ends with the final status of the job.</li>
+ *   <li>{@code GET /jobs/{id}/bibtex}: the bibtex file of the job, including the downloaded files.</li>
+ *   <li>{@code GET /jobs/{id}/papers/{key}}: the PDF of the paper of an entry.</li>
+ *   <li>{@code DELETE /jobs/{id}}: removes a job that is finished or still queued, with its directory.
+ *   Answers {@code 204 No Content} or, for a running job, {@code 409 Conflict}.</li>
+ * </ul>
+ *
+ * <p>Each job has a directory of its own, where its bibtex file and papers are stored.
+ * A finished job is removed (with its directory) after the {@link #setRetentionMillis(long) retention time}
+ * or when there are more than {@link #setMaxFinishedJobs(int) some} finished jobs,
+ * in which case the oldest ones are removed.
+ * The jobs wait in a queue and a few of them run at the same time,
+ * each one with the threads of its {@link BibTexPapersDownloader}.
+ * Since the repositories are shared by all the jobs, their rate limits apply to all of them together.</p>
+ *
+ * <p>By default, the service is just reachable from the local machine.
+ * It doesn't authenticate its clients, so it should be exposed to other machines
+ * just inside a trusted network.</p>
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class JobServer implements Closeable {
+    public static final String PATH = "/jobs";
+    public static final int DEFAULT_CONCURRENT_JOBS = 2;
+    public static final int MAX_PAYLOAD_BYTES = 16 * 1024 * 1024;
+    public static final long DEFAULT_RETENTION_MILLIS = TimeUnit.DAYS.toMillis(1);
+    public static final int DEFAULT_MAX_FINISHED_JOBS = 100;
+    private static final long EVICTION_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final String JSON_TYPE = "application/json; charset=utf-8";
+    private static final String NDJSON_TYPE = "application/x-ndjson; charset=utf-8";
+    private static final String BIBTEX_TYPE = "application/x-bibtex; charset=utf-8";
+    private static final String BIB_FILE_NAME = "job.bib";
+    private static final long RESULTS_POLL_MILLIS = 250;
+
+    /**
+     * The states of a job.
+     */
+    public enum State {
+        QUEUED, RUNNING, DONE, FAILED;
+
+        /**
+         * @return true if the job won't change anymore, false otherwise
+         */
+        public boolean isFinished() {
+            return this == DONE || this == FAILED;
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService requestExecutor;
+    private final ExecutorService jobExecutor;
+    private final ScheduledExecutorService evictionExecutor;
+    private final Path workDir;
+    private final DownloaderFactory factory;
+    private final Map<String, Job> jobs = Collections.synchronizedMap(new LinkedHashMap<String, Job>());
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private volatile long retentionMillis = DEFAULT_RETENTION_MILLIS;
+    private volatile int maxFinishedJobs = DEFAULT_MAX_FINISHED_JOBS;
+
+    /**
+     * Starts the service at the loopback address.
+     * @param port the port to listen to (0 to use any free port)
+     * @param workDir the directory where to create the directories of the jobs
+     * @param factory the factory of the downloaders of the jobs
+     * @param concurrentJobs the number of jobs that can run at the same time
+     * @throws IOException when the port or the directory cannot be used
+     */
+    public JobServer(
+            final int port, final String workDir,
+            final DownloaderFactory factory, final int concurrentJobs) throws IOException
+    {
+        this(InetAddress.getLoopbackAddress(), port, workDir, factory, concurrentJobs);
+    }
+
+    /**
+     * Starts the service.
+     * @param bindAddress the address to listen to
+     * (such as the wildcard address, to be reachable from other machines)
+     * @param port the port to listen to (0 to use any free port)
+     * @param workDir the directory where to create the directories of the jobs
+     * @param factory the factory of the downloaders of the jobs
+     * @param concurrentJobs the number of jobs that can run at the same time
+     * @throws IOException when the port or the directory cannot be used
+     */
+    public JobServer(
+            final InetAddress bindAddress, final int port, final String workDir,
+            final DownloaderFactory factory, final int concurrentJobs) throws IOException
+    {
+        this.workDir = Files.createDirectories(Paths.get(workDir));
+        this.factory = factory;
+        this.jobExecutor = Executors.newFixedThreadPool(Math.max(1, concurrentJobs), newThreadFactory("job-runner"));
+        //the results are streamed while the jobs run, so a request may hold a thread for long
+        this.requestExecutor = Executors.newCachedThreadPool(newThreadFactory("job-server"));
+        this.evictionExecutor = Executors.newSingleThreadScheduledExecutor(newThreadFactory("job-eviction"));
+        server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        server.setExecutor(requestExecutor);
+        server.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    route(exchange);
+                } catch (IllegalArgumentException e) {
+                    sendJson(exchange, 400, errorJson(e.getMessage()));
+                } catch (IOException | RuntimeException e) {
+                    sendJson(exchange, 500, errorJson(e.getMessage()));
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        evictionExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evictFinishedJobs();
+            }
+        }, EVICTION_INTERVAL_MILLIS, EVICTION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private static ThreadFactory newThreadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * @return the port the service is listening to
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return the time (in milliseconds) a finished job is kept before being removed
+     */
+    public long getRetentionMillis() {
+        return retentionMillis;
+    }
+
+    /**
+     * @param retentionMillis the time (in milliseconds) a finished job is kept before being removed
+     * (the jobs are checked every minute)
+     */
+    public void setRetentionMillis(final long retentionMillis) {
+        this.retentionMillis = retentionMillis;
+    }
+
+    /**
+     * @return the maximum number of finished jobs kept
+     */
+    public int getMaxFinishedJobs() {
+        return maxFinishedJobs;
+    }
+
+    /**
+     * @param maxFinishedJobs the maximum number of finished jobs kept.
+     * When a job finishes and this number is exceeded, the oldest finished jobs are removed.
+     */
+    public void setMaxFinishedJobs(final int maxFinishedJobs) {
+        this.maxFinishedJobs = maxFinishedJobs;
+    }
+
+    /**
+     * Waits until the service is {@link #close() closed}.
+     * @throws InterruptedException when the current thread is interrupted meanwhile
+     */
+    public void awaitClose() throws InterruptedException {
+        closed.await();
+    }
+
+    /**
+     * Stops the service. The jobs running are interrupted.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        evictionExecutor.shutdownNow();
+        jobExecutor.shutdownNow();
+        requestExecutor.shutdownNow();
+        closed.countDown();
+    }
+
+    private void route(final HttpExchange exchange) throws IOException {
+        final String method = exchange.getRequestMethod();
+        final String subPath = exchange.getRequestURI().getRawPath().substring(PATH.length());
+        if(!subPath.isEmpty() && !subPath.startsWith("/")){
+            sendJson(exchange, 404, errorJson("Resource not found: " + exchange.getRequestURI().getPath()));
+            return;
+        }
+        final String path[] = subPath.split("/");
+        //the first element is empty, since the path after /jobs starts with a slash
+        if(path.length <= 1){
+            if("POST".equals(method))
+                submit(exchange);
+            else if("GET".equals(method))
+                sendJson(exchange, 200, listJson());
+            else sendJson(exchange, 405, errorJson("Method not allowed: " + method));
+            return;
+        }
+
+        final Job job = jobs.get(decode(path[1]));
+        if(job == null){
+            sendJson(exchange, 404, errorJson("Job not found: " + decode(path[1])));
+            return;
+        }
+        if("DELETE".equals(method) && path.length == 2){
+            delete(exchange, job);
+            return;
+        }
+        if(!"GET".equals(method)){
+            sendJson(exchange, 405, errorJson("Method not allowed: " + method));
+            return;
+        }
+
+        final String resource = path.length > 2 ? path[2] : "";
+        switch(resource){
+            case "": sendJson(exchange, 200, job.toJson()); break;
+            case "results": sendResults(exchange, job); break;
+            case "bibtex": sendFile(exchange, job.bibFile, BIBTEX_TYPE); break;
+            case "papers":
+                if(path.length > 3)
+                    sendPaper(exchange, job, decode(path[3]));
+                else sendJson(exchange, 404, errorJson("The key of the paper is missing"));
+                break;
+            default: sendJson(exchange, 404, errorJson("Resource not found: " + resource));
+        }
+    }
+
+    /**
+     * Creates a job from the body of a request and queues it.
+     */
+    private void submit(final HttpExchange exchange) throws IOException {
+        final byte payload[] = readPayload(exchange.getRequestBody());
+        if(payload == null){
+            sendJson(exchange, 413, errorJson("The payload is larger than " + MAX_PAYLOAD_BYTES + " bytes"));
+            return;
+        }
+
+        final String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        final String bibtex = contentType != null && contentType.toLowerCase(Locale.ENGLISH).contains("json") ?
+                toBibTeX(parseDois(payload)) : new String(payload, StandardCharsets.UTF_8);
+        if(bibtex.trim().isEmpty())
+            throw new IllegalArgumentException("The payload must be a bibtex file or a JSON list of DOIs");
+
+        final String id = UUID.randomUUID().toString();
+        final Path dir = Files.createDirectory(workDir.resolve(id));
+        final Job job = new Job(id, dir.resolve(BIB_FILE_NAME));
+        Files.write(job.bibFile, bibtex.getBytes(StandardCharsets.UTF_8));
+        jobs.put(id, job);
+        jobExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runJob(job);
+            }
+        });
+
+        exchange.getResponseHeaders().set("Location", PATH + "/" + id);
+        sendJson(exchange, 202, job.toJson());
+    }
+
+    /**
+     * Reads the body of a request.
+     * @return the body or null if it's larger than {@link #MAX_PAYLOAD_BYTES}
+     */
+    private static byte[] readPayload(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte buffer[] = new byte[8192];
+        int n;
+        while((n = in.read(buffer)) != -1){
+            if(out.size() + n > MAX_PAYLOAD_BYTES)
+                return null;
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Gets the DOIs from a JSON document that is either an array of DOIs
+     * or an object with such an array in its {@code dois} field.
+     * @param payload the JSON document
+     * @return the DOIs
+     * @throws IllegalArgumentException when some value isn't a valid DOI
+     */
+    static List<String> parseDois(final byte payload[]) throws IOException {
+        final List<String> dois = new ArrayList<>();
+        try (final JsonReader reader = new JsonReader(new InputStreamReader(
+                new ByteArrayInputStream(payload), StandardCharsets.UTF_8))) {
+            JsonReader.Token token = reader.next();
+            if(token == JsonReader.Token.BEGIN_OBJECT){
+                while((token = reader.next()) == JsonReader.Token.NAME){
+                    if("dois".equals(reader.getValue()))
+                        readDois(reader, dois);
+                    else reader.skipValue();
+                }
+            } else if(token == JsonReader.Token.BEGIN_ARRAY)
+                readArrayOfDois(reader, dois);
+        }
+        return dois;
+    }
+
+    private static void readDois(final JsonReader reader, final List<String> dois) throws IOException {
+        if(reader.next() != JsonReader.Token.BEGIN_ARRAY)
+            throw new IllegalArgumentException("The dois field must be an array");
+        readArrayOfDois(reader, dois);
+    }
+
+    private static void readArrayOfDois(final JsonReader reader, final List<String> dois) throws IOException {
+        JsonReader.Token token;
+        while((token = reader.next()) == JsonReader.Token.STRING){
+            final String doi = reader.getValue().trim();
+            if(!doi.startsWith("10.") || !doi.contains("/") || doi.contains("{") || doi.contains("}"))
+                throw new IllegalArgumentException("Invalid DOI: " + doi);
+            dois.add(doi);
+        }
+        if(token != JsonReader.Token.END_ARRAY)
+            throw new IllegalArgumentException("The list of DOIs must contain just strings");
+    }
+
+    /**
+     * Creates a bibtex file with an entry for each DOI.
+     * The other fields of the entries are got by the {@link MetadataEnricher}.
+     */
+    static String toBibTeX(final List<String> dois) {
+        final StringBuilder sb = new StringBuilder(dois.size() * 48);
+        for (int i = 0; i < dois.size(); i++) {
+            sb.append("@misc{doi").append(i + 1).append(",\ndoi = {").append(dois.get(i)).append("}\n}\n\n");
+        }
+        return sb.toString();
+    }
+
+    private void runJob(final Job job) {
+        synchronized(job){
+            if(job.cancelled)
+                return;
+            job.started = System.currentTimeMillis();
+            job.state = State.RUNNING;
+        }
+        State state = State.FAILED;
+        try {
+            final BibTexPapersDownloader bibtex = factory.create(job.bibFile.toString());
+            bibtex.setDownloadDir(job.bibFile.getParent().toString());
+            //the reports of concurrent jobs would be mixed on the console
+            bibtex.setProgressReporter(null);
+            job.setDownloader(bibtex);
+            bibtex.downloadAllPapers();
+            state = State.DONE;
+        } catch (IOException | ParseException | InvalidPaperIdException | RuntimeException e) {
+            job.error = e.getMessage() == null ? e.toString() : e.getMessage();
+        } finally {
+            //the finish time is set first, so that a finished job is never seen without it (and evicted)
+            job.finished = System.currentTimeMillis();
+            job.state = state;
+            evictFinishedJobs();
+        }
+    }
+
+    /**
+     * Removes a job that is finished or that didn't start yet.
+     */
+    private void delete(final HttpExchange exchange, final Job job) throws IOException {
+        synchronized(job){
+            //a queued job is cancelled, so that it never starts
+            job.cancelled = job.state != State.RUNNING;
+        }
+        if(!job.cancelled){
+            sendJson(exchange, 409, errorJson("The job " + job.id + " is running and cannot be removed"));
+            return;
+        }
+        remove(job);
+        exchange.sendResponseHeaders(204, -1);
+    }
+
+    /**
+     * Removes the finished jobs kept for longer than the {@link #getRetentionMillis() retention time}
+     * and, if there are still more than {@link #getMaxFinishedJobs()} finished jobs, the oldest ones.
+     */
+    private void evictFinishedJobs() {
+        final List<Job> finished = new ArrayList<>();
+        synchronized(jobs){
+            for (Job job : jobs.values()) {
+                if(job.state.isFinished())
+                    finished.add(job);
+            }
+        }
+
+        final long expiration = System.currentTimeMillis() - retentionMillis;
+        int exceeding = finished.size() - Math.max(0, maxFinishedJobs);
+        //the jobs are in the order they were submitted, so the oldest ones are removed first
+        for (Job job : finished) {
+            if(exceeding > 0 || job.finished < expiration){
+                remove(job);
+                exceeding--;
+            }
+        }
+    }
+
+    /**
+     * Removes a job and its directory.
+     */
+    private void remove(final Job job) {
+        if(jobs.remove(job.id) == null)
+            return;
+        try {
+            FileSystemUtils.deleteDirectory(job.bibFile.getParent());
+        } catch (IOException e) {
+            System.err.printf("The directory of the job %s couldn't be deleted: %s\n", job.id, e.getMessage());
+        }
+    }
+
+    /**
+     * Streams the result of each paper of a job as it finishes, as a JSON object per line,
+     * ending with the final status of the job.
+     */
+    private static void sendResults(final HttpExchange exchange, final Job job) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", NDJSON_TYPE);
+        exchange.sendResponseHeaders(200, 0);
+        final Set<String> sent = new HashSet<>();
+        try (final OutputStream out = exchange.getResponseBody()) {
+            while(true){
+                //the state is got before the papers, so that no paper finished before the job is missed
+                final boolean finished = job.state.isFinished();
+                final StringBuilder lines = new StringBuilder();
+                for (Map.Entry<String, BibTeXEntry> entry : job.getEntries().entrySet()) {
+                    final JobJournal.Job paper = job.getPaperJob(entry.getKey());
+                    if(paper == null || sent.contains(entry.getKey()))
+                        continue;
+                    //a failed paper may be tried again until the job finishes
+                    if(paper.getState().isFinished() || finished && paper.getState() == JobJournal.State.FAILED){
+                        lines.append(resultJson(job, entry.getValue(), paper)).append('\n');
+                        sent.add(entry.getKey());
+                    }
+                }
+                if(finished)
+                    lines.append(job.toJson()).append('\n');
+                if(lines.length() > 0){
+                    out.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+                if(finished)
+                    return;
+                Thread.sleep(RESULTS_POLL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String resultJson(final Job job, final BibTeXEntry entry, final JobJournal.Job paper) {
+        final StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"key\":").append(quote(paper.getKey()))
+          .append(",\"doi\":").append(quote(getFieldValue(entry, BibTeXEntry.KEY_DOI)))
+          .append(",\"title\":").append(quote(getFieldValue(entry, BibTeXEntry.KEY_TITLE)))
+          .append(",\"state\":").append(quote(paper.getState().name().toLowerCase(Locale.ENGLISH)))
+          .append(",\"attempts\":").append(paper.getAttempts());
+        if(paper.getState() == JobJournal.State.DONE)
+            sb.append(",\"paper\":").append(quote(PATH + "/" + job.id + "/papers/" + encode(paper.getKey())));
+        return sb.append('}').toString();
+    }
+
+    private static void sendPaper(final HttpExchange exchange, final Job job, final String key) throws IOException {
+        final JobJournal.Job paper = job.getPaperJob(key);
+        if(paper == null || paper.getState() != JobJournal.State.DONE || paper.getPaperFile().isEmpty()){
+            sendJson(exchange, 404, errorJson("The paper " + key + " wasn't downloaded"));
+            return;
+        }
+        sendFile(exchange, Paths.get(paper.getPaperFile()), "application/pdf");
+    }
+
+    private static void sendFile(final HttpExchange exchange, final Path file, final String contentType) throws IOException {
+        if(!Files.isRegularFile(file)){
+            sendJson(exchange, 404, errorJson("File not found: " + file.getFileName()));
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, Files.size(file));
+        try (final OutputStream out = exchange.getResponseBody()) {
+            Files.copy(file, out);
+        }
+    }
+
+    private static void sendJson(final HttpExchange exchange, final int status, final String json) throws IOException {
+        final byte body[] = (json + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", JSON_TYPE);
+        exchange.sendResponseHeaders(status, body.length);
+        try (final OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private String listJson() {
+        final List<Job> list;
+        synchronized(jobs){
+            list = new ArrayList<>(jobs.values());
+        }
+        final StringBuilder sb = new StringBuilder("[");
+        for (Job job : list) {
+            if(sb.length() > 1)
+                sb.append(',');
+            sb.append(job.toJson());
+        }
+        return sb.append(']').toString();
+    }
+
+    private static String errorJson(final String message) {
+        return "{\"error\":" + quote(message) + "}";
+    }
+
+    private static String getFieldValue(final BibTeXEntry entry, final Key key) {
+        final Value value = entry.getField(key);
+        return value == null ? null : value.toUserString();
+    }
+
+    /**
+     * Formats a string as a JSON value.
+     * @param value the string (which may be null)
+     * @return the quoted and escaped string or null
+     */
+    static String quote(final String value) {
+        if(value == null)
+            return "null";
+        final StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch(c){
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if(c < 0x20)
+                        sb.append(String.format("\\u%04x", (int)c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static String formatTime(final long millis) {
+        if(millis == 0)
+            return "null";
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return quote(format.format(new Date(millis)));
+    }
+
+    private static String decode(final String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String encode(final String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A submitted bibtex file whose papers are downloaded in a directory of its own.
+     */
+    private static class Job {
+        private final String id;
+        private final Path bibFile;
+        private final long submitted = System.currentTimeMillis();
+        private volatile long started, finished;
+        private volatile State state = State.QUEUED;
+        private volatile String error;
+        private volatile BibTexPapersDownloader downloader;
+
+        /**
+         * Indicates if the job was removed, so that it doesn't start if it's still queued.
+         */
+        private volatile boolean cancelled;
+
+        /**
+         * The entries of the bibtex file by key, got when the job starts
+         * (the entries aren't changed structurally during the downloads).
+         */
+        private volatile Map<String, BibTeXEntry> entries = Collections.emptyMap();
+
+        Job(final String id, final Path bibFile) {
+            this.id = id;
+            this.bibFile = bibFile;
+        }
+
+        void setDownloader(final BibTexPapersDownloader downloader) {
+            final Collection<BibTeXEntry> all = downloader.getEntries();
+            final Map<String, BibTeXEntry> map = new LinkedHashMap<>(all.size() * 2);
+            for (BibTeXEntry entry : all) {
+                map.put(entry.getKey().getValue(), entry);
+            }
+            this.entries = Collections.unmodifiableMap(map);
+            this.downloader = downloader;
+        }
+
+        Map<String, BibTeXEntry> getEntries() {
+            return entries;
+        }
+
+        /**
+         * @return the state of the download of a paper or null if it wasn't recorded yet
+         */
+        JobJournal.Job getPaperJob(final String key) {
+            final BibTexPapersDownloader bibtex = downloader;
+            final JobJournal journal = bibtex == null ? null : bibtex.getJobJournal();
+            return journal == null ? null : journal.get(key);
+        }
+
+        String toJson() {
+            final Map<JobJournal.State, Integer> count = new LinkedHashMap<>();
+            final BibTexPapersDownloader bibtex = downloader;
+            final JobJournal journal = bibtex == null ? null : bibtex.getJobJournal();
+            if(journal != null)
+                count.putAll(journal.countByState());
+            final int done = getCount(count, JobJournal.State.DONE);
+            final int paywalled = getCount(count, JobJournal.State.PAYWALLED);
+            //failed papers still being retried are counted as pending until the job finishes
+            final int failed = state.isFinished() ? getCount(count, JobJournal.State.FAILED) : 0;
+            //just the entries whose repository was identified are recorded in the journal
+            int papers = journal == null ? entries.size() : 0;
+            for (Integer value : count.values()) {
+                papers += value;
+            }
+
+            final StringBuilder sb = new StringBuilder(256);
+            sb.append("{\"id\":").append(quote(id))
+              .append(",\"state\":").append(quote(state.name().toLowerCase(Locale.ENGLISH)))
+              .append(",\"submitted\":").append(formatTime(submitted))
+              .append(",\"started\":").append(formatTime(started))
+              .append(",\"finished\":").append(formatTime(finished))
+              .append(",\"papers\":").append(papers)
+              .append(",\"downloaded\":").append(done)
+              .append(",\"paywalled\":").append(paywalled)
+              .append(",\"failed\":").append(failed)
+              .append(",\"pending\":").append(Math.max(0, papers - done - paywalled - failed))
+              .append(",\"results\":").append(quote(PATH + "/" + id + "/results"))
+              .append(",\"bibtex\":").append(quote(PATH + "/" + id + "/bibtex"))
+              .append(",\"error\":").append(quote(error));
+            return sb.append('}').toString();
+        }
+
+        private static int getCount(final Map<JobJournal.State, Integer> count, final JobJournal.State state) {
+            final Integer value = count.get(state);
+            return value == null ? 0 : value;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A minimal streaming reader of JSON documents, that reads one token at a time,
+ * so that just the needed values of a (possibly large) document are kept in memory
+ * and the rest of the document can be skipped.
+ * The reader is lenient about the separators between the values.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class JsonReader implements Closeable {
+    /**
+     * The kinds of tokens of a JSON document.
+     */
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final int NONE = -2;
+
+    private final Reader reader;
+
+    /**
+     * The scopes the reader is inside: true for an object, false for an array.
+     */
+    private final Deque<Boolean> scopes = new ArrayDeque<>();
+    private boolean expectingName;
+    private int peeked = NONE;
+    private String value;
+
+    /**
+     *
+     * @param reader the reader of the JSON document
+     */
+    public JsonReader(final Reader reader) {
+        this.reader = reader instanceof BufferedReader ? reader : new BufferedReader(reader);
+    }
+
+    /**
+     * Reads the next token.
+     * The text of a {@link Token#NAME}, {@link Token#STRING}, {@link Token#NUMBER}
+     * or {@link Token#BOOLEAN} is got by {@link #getValue()}.
+     *
+     * @return the kind of token read
+     * @throws IOException when the document cannot be read or isn't a valid JSON
+     */
+    public Token next() throws IOException {
+        value = null;
+        int c = nextNonSpace();
+        while(c == ',' || c == ':'){
+            if(c == ',')
+                expectingName = isInObject();
+            c = nextNonSpace();
+        }
+
+        switch(c){
+            case -1: return Token.END_DOCUMENT;
+            case '{':
+                scopes.push(true);
+                expectingName = true;
+                return Token.BEGIN_OBJECT;
+            case '[':
+                scopes.push(false);
+                expectingName = false;
+                return Token.BEGIN_ARRAY;
+            case '}':
+            case ']':
+                if(scopes.isEmpty())
+                    throw new IOException("Invalid JSON: unexpected " + (char)c);
+                scopes.pop();
+                expectingName = false;
+                return c == '}' ? Token.END_OBJECT : Token.END_ARRAY;
+            case '"':
+                value = readString();
+                if(expectingName){
+                    expectingName = false;
+                    return Token.NAME;
+                }
+                return Token.STRING;
+            default:
+                return readLiteral(c);
+        }
+    }
+
+    /**
+     * Skips the next value, including all the values inside it
+     * if it's an object or an array.
+     * @throws IOException when the document cannot be read or isn't a valid JSON
+     */
+    public void skipValue() throws IOException {
+        nextString();
+    }
+
+    /**
+     * Reads the next value.
+     * @return the text of the value if it's a string, number or boolean,
+     * or null if it's null, an object or an array (which are skipped)
+     * @throws IOException when the document cannot be read or isn't a valid JSON
+     */
+    public String nextString() throws IOException {
+        final Token token = next();
+        if(token == Token.BEGIN_OBJECT || token == Token.BEGIN_ARRAY){
+            final int depth = getDepth();
+            Token t;
+            do {
+                t = next();
+            } while(getDepth() >= depth && t != Token.END_DOCUMENT);
+            value = null;
+        }
+        return value;
+    }
+
+    /**
+     * @return the text of the last token read, or null if it doesn't have a text
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * @return the number of objects and arrays the reader is inside
+     */
+    public int getDepth() {
+        return scopes.size();
+    }
+
+    private boolean isInObject() {
+        return !scopes.isEmpty() && scopes.peek();
+    }
+
+    private int read() throws IOException {
+        if(peeked != NONE){
+            final int c = peeked;
+            peeked = NONE;
+            return c;
+        }
+        return reader.read();
+    }
+
+    private int nextNonSpace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while(c != -1 && Character.isWhitespace(c));
+        return c;
+    }
+
+    private String readString() throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        while(true){
+            int c = read();
+            if(c == -1)
+                throw new IOException("Invalid JSON: unterminated string");
+            if(c == '"')
+                return sb.toString();
+            if(c == '\\')
+                c = readEscaped();
+            sb.append((char)c);
+        }
+    }
+
+    private int readEscaped() throws IOException {
+        final int c = read();
+        switch(c){
+            case 'b': return '\b';
+            case 'f': return '\f';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            case 'u':
+                final char hex[] = new char[4];
+                for (int i = 0; i < hex.length; i++) {
+                    final int h = read();
+                    if(h == -1)
+                        throw new IOException("Invalid JSON: unterminated string");
+                    hex[i] = (char)h;
+                }
+                try {
+                    return Integer.parseInt(new String(hex), 16);
+                } catch(NumberFormatException e){
+                    throw new IOException("Invalid JSON: invalid unicode escape \\u" + new String(hex), e);
+                }
+            case -1: throw new IOException("Invalid JSON: unterminated string");
+            default: return c;
+        }
+    }
+
+    private Token readLiteral(int c) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        while(c != -1 && !Character.isWhitespace(c) && ",:]}".indexOf(c) == -1){
+            sb.append((char)c);
+            c = read();
+        }
+        peeked = c;
+        value = sb.toString();
+        if("true".equals(value) || "false".equals(value))
+            return Token.BOOLEAN;
+        if("null".equals(value)){
+            value = null;
+            return Token.NULL;
+        }
+        if(!value.isEmpty() && (value.charAt(0) == '-' || Character.isDigit(value.charAt(0))))
+            return Token.NUMBER;
+        throw new IOException("Invalid JSON: unexpected " + (value.isEmpty() ? String.valueOf((char)c) : value));
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -1,9 +1,19 @@
 package com.manoelcampos.bibtexpaperdownloader;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.management.JMException;
+import com.manoelcampos.bibtexpaperdownloader.repository.PaperRepositoryFactory;
+import com.manoelcampos.bibtexpaperdownloader.repository.PaperRepositoryRegistry;
+import com.manoelcampos.bibtexpaperdownloader.repository.RepositoryRouter;
+import org.apache.commons.lang.StringUtils;
 import org.jbibtex.ParseException;
 
 /**
@@ -15,11 +25,52 @@ import org.jbibtex.ParseException;
  */
 public class Main {
    public static final String DEFAULT_DOWNLOAD_DIR = "/tmp/";
+   public static final String OPTION_PREFIX = "--";
+   public static final String THREADS_OPTION = "threads";
+   public static final String CONNECT_TIMEOUT_OPTION = "connect-timeout";
+   public static final String READ_TIMEOUT_OPTION = "read-timeout";
+   public static final String INCREMENTAL_OPTION = "incremental";
+   public static final String STORE_OPTION = "store";
+   public static final String CACHE_OPTION = "cache";
+   public static final String STREAMING_OPTION = "streaming";
+   public static final String RESUME_OPTION = "resume";
+   public static final String RETRIES_OPTION = "retries";
+   public static final String METADATA_API_OPTION = "metadata-api";
+   public static final String ENRICHMENT_API_OPTION = "enrichment-api";
+   public static final String METRICS_PORT_OPTION = "metrics-port";
+   public static final String BIND_ADDRESS_OPTION = "bind-address";
+   public static final String PROGRESS_OPTION = "progress";
+   public static final String PROGRESS_INTERVAL_OPTION = "progress-interval";
+   public static final String WATCH_OPTION = "watch";
+   public static final String SERVE_OPTION = "serve";
+   public static final String JSON = "json";
+   public static final String NONE = "none";
 
    private String bibFileName;
    private String downloadDir;
-   public static final String supportedRepositories[] = {"IEEE", "ScienceDirect"};
+   public static final String supportedRepositories[] = 
+           PaperRepositoryRegistry.getDefault().getNames().toArray(new String[0]);
    private String repositoryName = supportedRepositories[0];
+   private int numberOfThreads = BibTexPapersDownloader.DEFAULT_NUMBER_OF_THREADS;
+   private int connectTimeoutSeconds = UrlConnectionTransport.DEFAULT_CONNECT_TIMEOUT_SECONDS;
+   private int readTimeoutSeconds = UrlConnectionTransport.DEFAULT_READ_TIMEOUT_SECONDS;
+   private boolean incremental;
+   private String storeDir;
+   private String cacheFileName;
+   private boolean streaming;
+   private boolean resume;
+   private int maxRetries = RetryPolicy.DEFAULT_MAX_RETRIES;
+   private String metadataApiUrl = MetadataApi.DEFAULT_BASE_URL;
+   private String enrichmentApiUrl = MetadataEnricher.DEFAULT_BASE_URL;
+   private int metricsPort;
+   private String bindAddress = "";
+   private String progressFormat = "";
+   private int progressIntervalSeconds = (int)(ProgressReporter.DEFAULT_INTERVAL_MILLIS / 1000);
+   private boolean watch;
+   private int serverPort;
+   private RepositoryRouter router;
+   private PdfStore pdfStore;
+   private ResolutionCache resolutionCache;
    
    public static String listOfSupportedRepositories(){
        StringBuilder res = new StringBuilder(supportedRepositories.length);
@@ -31,7 +82,7 @@ public class Main {
     
    public static void showUsage(){
        System.out.println("Usage:");
-       System.out.println("\tjava -jar app_jar_file.jar BibTeXFileName [PapersDownloadDir] [RepositoryName]");
+       System.out.println("\tjava -jar app_jar_file.jar BibTeXFileName [PapersDownloadDir] [RepositoryName] [Options]");
        System.out.println("\t\t- BibTeXFileName is the path of a BibTeX file "
             + "containing the papers to be downloaded from a specified respository");
        System.out.println("\t\t- PapersDownloadDir is the directory where to "
@@ -39,6 +90,49 @@ public class Main {
        System.out.println(
             "\t\t- RepositoryName is the name of the repository that hosts the papers to "
             + "be downloaded. Available options are: "+listOfSupportedRepositories()+" (default value is "+ supportedRepositories[0] +")");
+       System.out.println("\tOptions:");
+       System.out.println("\t\t"+OPTION_PREFIX+THREADS_OPTION+"=N number of papers to download at the same time "
+            + "(default value is "+BibTexPapersDownloader.DEFAULT_NUMBER_OF_THREADS+")");
+       System.out.println("\t\t"+OPTION_PREFIX+CONNECT_TIMEOUT_OPTION+"=S seconds to wait for a connection to a repository "
+            + "(default value is "+UrlConnectionTransport.DEFAULT_CONNECT_TIMEOUT_SECONDS+")");
+       System.out.println("\t\t"+OPTION_PREFIX+READ_TIMEOUT_OPTION+"=S seconds to wait for data from a repository "
+            + "(default value is "+UrlConnectionTransport.DEFAULT_READ_TIMEOUT_SECONDS+")");
+       System.out.println("\t\t"+OPTION_PREFIX+INCREMENTAL_OPTION+" skips the papers whose file field already "
+            + "points to a complete PDF file");
+       System.out.println("\t\t"+OPTION_PREFIX+STORE_OPTION+"=DIR directory of a PDF store shared by different "
+            + "bibtex files, so that the same paper is downloaded just once");
+       System.out.println("\t\t"+OPTION_PREFIX+CACHE_OPTION+"=FILE file of a cache of the PDF URLs got from "
+            + "paper pages, shared by different runs and bibtex files");
+       System.out.println("\t\t"+OPTION_PREFIX+STREAMING_OPTION+" downloads each paper as soon as it's parsed, "
+            + "without loading the entire bibtex file into memory (for very large files)");
+       System.out.println("\t\t"+OPTION_PREFIX+RESUME_OPTION+" resumes an interrupted run, skipping the papers "
+            + "it already downloaded or found to be unavailable");
+       System.out.println("\t\t"+OPTION_PREFIX+RETRIES_OPTION+"=N maximum number of times a download that failed "
+            + "because of a timeout, an overloaded repository or an incomplete page is tried again "
+            + "(default value is "+RetryPolicy.DEFAULT_MAX_RETRIES+")");
+       System.out.println("\t\t"+OPTION_PREFIX+METADATA_API_OPTION+"=URL base URL of a JSON metadata API to which the "
+            + "paper DOI is appended to get the PDF URL without scraping the paper page, or "+NONE+" to always "
+            + "scrape the page (default value is "+MetadataApi.DEFAULT_BASE_URL+")");
+       System.out.println("\t\t"+OPTION_PREFIX+ENRICHMENT_API_OPTION+"=URL works endpoint of a Crossref-like API used to "
+            + "complete the entries missing the title, year, DOI or URL, or "+NONE+" to not complete them "
+            + "(default value is "+MetadataEnricher.DEFAULT_BASE_URL+")");
+       System.out.println("\t\t"+OPTION_PREFIX+METRICS_PORT_OPTION+"=PORT port of an HTTP endpoint that exposes the "
+            + "download metrics at "+MetricsServer.PATH+" in the Prometheus format while the papers are downloaded "
+            + "(the metrics are always exposed through JMX)");
+       System.out.println("\t\t"+OPTION_PREFIX+BIND_ADDRESS_OPTION+"=ADDR address the HTTP endpoints ("+OPTION_PREFIX+METRICS_PORT_OPTION+" and "+OPTION_PREFIX+SERVE_OPTION+") listen to, "
+            + "such as 0.0.0.0 to accept connections from other machines (default is the loopback address)");
+       System.out.println("\t\t"+OPTION_PREFIX+PROGRESS_OPTION+"[="+JSON+"] reports the progress, throughput and estimated "
+            + "time to finish in a single line refreshed on the console (the default) or as JSON lines on the standard output, "
+            + "instead of printing each paper");
+       System.out.println("\t\t"+OPTION_PREFIX+PROGRESS_INTERVAL_OPTION+"=S seconds between progress reports "
+            + "(default value is "+ProgressReporter.DEFAULT_INTERVAL_MILLIS/1000+")");
+       System.out.println("\t\t"+OPTION_PREFIX+WATCH_OPTION+" keeps running and watching the bibtex file "
+            + "(or a list of files separated by '"+File.pathSeparator+"'), downloading the papers of the entries "
+            + "added or changed each time it's saved (implies "+OPTION_PREFIX+INCREMENTAL_OPTION+")");
+       System.out.println("\tjava -jar app_jar_file.jar "+OPTION_PREFIX+SERVE_OPTION+"=PORT [JobsDir] [RepositoryName] [Options]");
+       System.out.println("\t\t- starts an HTTP/JSON service at "+JobServer.PATH+" that downloads the papers of the bibtex files "
+            + "(or JSON lists of DOIs) submitted to it, with the given options. The files and papers of each job are "
+            + "stored in a directory of its own inside JobsDir (default value is "+DEFAULT_DOWNLOAD_DIR+")");
    }
    
    public Main(String args[]) throws ParseException, ClassNotFoundException, InstantiationException, IOException, FileNotFoundException, InvalidPaperIdException {
@@ -53,7 +147,8 @@ public class Main {
      * @param args The command line arguments, in order:<br/>
      *   1º - Name of the bibtex file to be processed.<br/>
      *   2º - Destination directory where to download the papers.<br/>
-     *   3º - Name of the repository where to download the papers.
+     *   3º - Name of the repository where to download the papers.<br/>
+     *   Options in the format --name=value can be given at any position.
      * @see Main#showUsage() 
      */
     public static void main(String args[]) {
@@ -67,19 +162,216 @@ public class Main {
         }    
     }    
 
+    @SuppressWarnings("try") //the metrics are exposed while the papers are downloaded
     private void downloadPapersInBibFile() throws FileNotFoundException, ParseException, ClassNotFoundException, InstantiationException, IOException, InvalidPaperIdException {
-        BibTexPapersDownloader bibtex = new BibTexPapersDownloader(bibFileName, repositoryName);
+        HttpUtils.setTransport(new UrlConnectionTransport(connectTimeoutSeconds, readTimeoutSeconds));
+        MetadataApi.setBaseUrl(NONE.equalsIgnoreCase(metadataApiUrl) ? "" : metadataApiUrl);
+        router = PaperRepositoryFactory.getRouter(repositoryName);
+        if(StringUtils.isNotBlank(storeDir))
+            pdfStore = new PdfStore(storeDir);
+        if(StringUtils.isNotBlank(cacheFileName))
+            resolutionCache = new ResolutionCache(cacheFileName);
+        registerJmxMetrics();
+        try (final MetricsServer metricsServer = metricsPort > 0 ? 
+                new MetricsServer(getBindAddress(), metricsPort, DownloadMetrics.getDefault()) : null) {
+            if(serverPort > 0)
+                serveJobs();
+            else if(watch)
+                watchBibFiles();
+            else createDownloader(bibFileName).downloadAllPapers();
+        }
+    }
+
+    /**
+     * @return the address the HTTP endpoints listen to
+     * @throws IOException when the address given in the command line cannot be resolved
+     */
+    private InetAddress getBindAddress() throws IOException {
+        return StringUtils.isBlank(bindAddress) ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bindAddress);
+    }
+
+    /**
+     * Creates a downloader for a bibtex file, with the settings given in the command line.
+     * The repository router, the PDF store and the resolution cache are shared by all the downloaders.
+     * @param bibFileName the name of the bibtex file
+     * @return the downloader
+     */
+    private BibTexPapersDownloader createDownloader(final String bibFileName) throws IOException, ParseException {
+        BibTexPapersDownloader bibtex = new BibTexPapersDownloader(bibFileName, router, streaming);
         bibtex.setDownloadDir(downloadDir);
-        bibtex.downloadAllPapers();
+        bibtex.setNumberOfThreads(numberOfThreads);
+        bibtex.setIncremental(incremental);
+        bibtex.setResume(resume);
+        bibtex.setRetryPolicy(new RetryPolicy(
+                maxRetries, RetryPolicy.DEFAULT_INITIAL_DELAY_MILLIS, RetryPolicy.DEFAULT_MAX_DELAY_MILLIS));
+        bibtex.setMetadataEnricher(NONE.equalsIgnoreCase(enrichmentApiUrl) ? null :
+                new MetadataEnricher(enrichmentApiUrl, MetadataEnricher.DEFAULT_BATCH_SIZE));
+        bibtex.setPdfStore(pdfStore);
+        bibtex.setResolutionCache(resolutionCache);
+        bibtex.setProgressReporter(createProgressReporter());
+        return bibtex;
+    }
+
+    /**
+     * Keeps watching the bibtex files given in the command line,
+     * until the application is stopped.
+     */
+    private void watchBibFiles() throws IOException {
+        final BibTeXWatcher watcher = new BibTeXWatcher(
+                Arrays.asList(bibFileName.split(File.pathSeparator)), newDownloaderFactory());
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                try {
+                    watcher.close();
+                } catch (IOException e) {
+                    System.err.println(e.getMessage());
+                }
+            }
+        });
+        watcher.run();
+    }
+
+    /**
+     * Serves the HTTP API to download the papers of the bibtex files submitted to it,
+     * until the application is stopped.
+     */
+    private void serveJobs() throws IOException {
+        final InetAddress address = getBindAddress();
+        final JobServer server = new JobServer(
+                address, serverPort, downloadDir, newDownloaderFactory(), JobServer.DEFAULT_CONCURRENT_JOBS);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                server.close();
+            }
+        });
+        System.out.printf("Accepting download jobs at http://%s:%d%s\n",
+                address.isLoopbackAddress() ? "localhost" : address.getHostAddress(), server.getPort(), JobServer.PATH);
+        try {
+            server.awaitClose();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private DownloaderFactory newDownloaderFactory() {
+        return new DownloaderFactory() {
+            @Override
+            public BibTexPapersDownloader create(String bibFileName) throws IOException, ParseException {
+                return createDownloader(bibFileName);
+            }
+        };
+    }
+
+    /**
+     * Creates the reporter of the download progress, if the progress has to be reported.
+     * The console line is written to the standard error, so that it isn't mixed 
+     * with the messages of the downloads when the standard output is redirected.
+     * @return the reporter or null if the progress isn't reported
+     */
+    private ProgressReporter createProgressReporter() {
+        if(StringUtils.isBlank(progressFormat) || "false".equalsIgnoreCase(progressFormat))
+            return null;
+        final long intervalMillis = progressIntervalSeconds * 1000L;
+        if(JSON.equalsIgnoreCase(progressFormat))
+            return new ProgressReporter(ProgressReporter.Format.JSON, System.out, intervalMillis);
+        return new ProgressReporter(ProgressReporter.Format.CONSOLE, System.err, intervalMillis);
+    }
+
+    private static void registerJmxMetrics() {
+        try {
+            JmxMetrics.register();
+        } catch (JMException e) {
+            System.err.println("The download metrics couldn't be exposed through JMX: " + e.getMessage());
+        }
     }
 
     private void getComandLineParameters(String[] args) throws IllegalArgumentException {
-        bibFileName = getCommandLineParam(args, 0, "");
-        downloadDir = getCommandLineParam(args, 1, DEFAULT_DOWNLOAD_DIR);
-        repositoryName = getCommandLineParam(args, 2, repositoryName); 
-        if("".equals(bibFileName))
+        final String params[] = getPositionalParams(args);
+        serverPort = getIntCommandLineOption(args, SERVE_OPTION, serverPort);
+        //the bibtex files are submitted to the server, so the first parameter is the download dir
+        final int first = serverPort > 0 ? -1 : 0;
+        bibFileName = serverPort > 0 ? "" : getCommandLineParam(params, first, "");
+        downloadDir = getCommandLineParam(params, first + 1, DEFAULT_DOWNLOAD_DIR);
+        repositoryName = getCommandLineParam(params, first + 2, repositoryName); 
+        numberOfThreads = getIntCommandLineOption(args, THREADS_OPTION, numberOfThreads);
+        connectTimeoutSeconds = getIntCommandLineOption(args, CONNECT_TIMEOUT_OPTION, connectTimeoutSeconds);
+        readTimeoutSeconds = getIntCommandLineOption(args, READ_TIMEOUT_OPTION, readTimeoutSeconds);
+        incremental = getBooleanCommandLineOption(args, INCREMENTAL_OPTION);
+        storeDir = getCommandLineOption(args, STORE_OPTION, "");
+        cacheFileName = getCommandLineOption(args, CACHE_OPTION, "");
+        streaming = getBooleanCommandLineOption(args, STREAMING_OPTION);
+        resume = getBooleanCommandLineOption(args, RESUME_OPTION);
+        maxRetries = getIntCommandLineOption(args, RETRIES_OPTION, maxRetries);
+        metadataApiUrl = getCommandLineOption(args, METADATA_API_OPTION, metadataApiUrl);
+        enrichmentApiUrl = getCommandLineOption(args, ENRICHMENT_API_OPTION, enrichmentApiUrl);
+        metricsPort = getIntCommandLineOption(args, METRICS_PORT_OPTION, metricsPort);
+        bindAddress = getCommandLineOption(args, BIND_ADDRESS_OPTION, bindAddress);
+        progressFormat = getCommandLineOption(args, PROGRESS_OPTION, progressFormat);
+        progressIntervalSeconds = getIntCommandLineOption(args, PROGRESS_INTERVAL_OPTION, progressIntervalSeconds);
+        watch = getBooleanCommandLineOption(args, WATCH_OPTION);
+        if(watch){
+            //the papers of the entries unchanged since the last download are skipped
+            incremental = true;
+            streaming = false;
+        }
+        if(serverPort > 0)
+            streaming = false;
+        else if("".equals(bibFileName))
             throw new IllegalArgumentException("BibTex file name is a required command line parameter.");
     }
+
+   /**
+     * Gets the command line parameters that aren't options
+     * (that don't start with {@link #OPTION_PREFIX}).
+     * 
+     * @param args Command line parameters array.
+     * @return the positional parameters, in the order they were given
+     */
+    private String[] getPositionalParams(String args[]){
+        final List<String> params = new ArrayList<>(args.length);
+        for(String arg: args){
+            if(!arg.trim().startsWith(OPTION_PREFIX))
+                params.add(arg);
+        }
+        return params.toArray(new String[params.size()]);
+    }
+
+   /**
+     * Gets the value of a command line option in the format --name=value.
+     * An option given without a value (--name) has the value "true".
+     * 
+     * @param args Command line parameters array.
+     * @param optionName Name of the option, without the {@link #OPTION_PREFIX}.
+     * @param defaultValue Default value to be returned in case of the option
+     * was not given.
+     * @return The option value of the default value (when the option was not given)
+     */
+    private String getCommandLineOption(String args[], String optionName, String defaultValue){
+        final String option = OPTION_PREFIX + optionName;
+        for(String arg: args){
+            arg = arg.trim();
+            if(arg.equals(option))
+                return "true";
+            if(arg.startsWith(option + "="))
+                return arg.substring(option.length()+1).trim();
+        }
+        return defaultValue;
+    }
+
+    private boolean getBooleanCommandLineOption(String args[], String optionName){
+        return Boolean.parseBoolean(getCommandLineOption(args, optionName, "false"));
+    }
+
+    private int getIntCommandLineOption(String args[], String optionName, int defaultValue){
+        final String value = getCommandLineOption(args, optionName, String.valueOf(defaultValue));
+        try{
+            return Integer.parseInt(value);
+        } catch(NumberFormatException e){
+            throw new IllegalArgumentException("The value of the option " + OPTION_PREFIX + optionName + " must be an integer number.", e);
+        }
+    }
     
    /**
      * Gets the value of a given command line parameter in the 
@@ -0,0 +1,163 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import com.manoelcampos.bibtexpaperdownloader.repository.PaperRepository;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Gets the PDF URL of a paper from a JSON metadata API, instead of scraping the paper page.
+ * By default, the metadata is got by DOI content negotiation
+ * (asking https://doi.org for the CSL JSON of the paper), but any API
+ * whose documents have the same {@code link} array (such as the Crossref
+ * {@code https://api.crossref.org/works/} endpoint) can be set as the base URL.
+ *
+ * <p>The JSON is streamed and read just until a link with the
+ * {@code application/pdf} content type is found.
+ * Since the metadata is much smaller than the paper pages and doesn't depend on their layout,
+ * the paper page is just scraped when the metadata doesn't have a PDF link.</p>
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class MetadataApi {
+    public static final String DEFAULT_BASE_URL = "https://doi.org/";
+    private static final String ACCEPT = "application/vnd.citationstyles.csl+json, application/json;q=0.9";
+    private static final String LINK_FIELD = "link";
+    private static final String LINK_URL_FIELD = "URL";
+    private static final String LINK_CONTENT_TYPE_FIELD = "content-type";
+    private static final String PDF_CONTENT_TYPE = "application/pdf";
+
+    private static volatile String baseUrl = DEFAULT_BASE_URL;
+
+    /**
+     * @return the base URL of the metadata API, to which the paper DOI is appended,
+     * or an empty string if the API isn't used
+     */
+    public static String getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * Sets the base URL of the metadata API.
+     * @param baseUrl the URL to which the paper DOI is appended
+     * (such as a local mirror), or an empty string to not use the API
+     */
+    public static void setBaseUrl(final String baseUrl) {
+        MetadataApi.baseUrl = baseUrl == null ? "" : baseUrl.trim();
+    }
+
+    /**
+     * Gets the URL of the metadata of a paper in the current API.
+     * @param doi the paper DOI (that may be empty)
+     * @return the metadata URL or null if the paper doesn't have a DOI or the API isn't used
+     */
+    public static String getMetadataUrl(final String doi) {
+        final String base = baseUrl;
+        if(StringUtils.isBlank(base) || StringUtils.isBlank(doi))
+            return null;
+        return base + doi.trim();
+    }
+
+    /**
+     * Gets the PDF URL of a paper from its metadata.
+     * The request is recorded as the {@link DownloadMetrics.Phase#PAGE_FETCH} phase.
+     *
+     * @param pageUrl the URL of the paper page
+     * @param doi the paper DOI (that may be empty)
+     * @param repository the repository where the paper is hosted
+     * @return the paper information, or null if the repository doesn't have
+     * a metadata URL for the paper or the metadata doesn't have a PDF link
+     * @throws IOException when the metadata cannot be got or isn't a valid JSON
+     */
+    @SuppressWarnings("try") //the permit is just held until the request finishes
+    public static PaperPage fetch(final String pageUrl, final String doi, final PaperRepository repository) throws IOException {
+        final String metadataUrl = repository.getMetadataUrl(doi);
+        if(metadataUrl == null)
+            return null;
+
+        final URL url = new URL(metadataUrl);
+        final Map<String, String> headers = Collections.singletonMap("Accept", ACCEPT);
+        try (final HostRateLimiter.Permit permit = repository.getRateLimiter().acquire(url.getHost())) {
+            final long start = System.nanoTime();
+            try {
+                final String pdfUrl = findPdfLink(url, headers);
+                return pdfUrl == null ? null : new PaperPage(pageUrl, true, pdfUrl);
+            } finally {
+                DownloadMetrics.getDefault().record(DownloadMetrics.Phase.PAGE_FETCH, start);
+            }
+        } catch (IOException e) {
+            throw new IOException("It wasn't possible to get the paper metadata from the URL " + metadataUrl, e);
+        }
+    }
+
+    /**
+     * Requests the metadata of a paper and looks for its PDF link.
+     * @param url the metadata URL
+     * @param headers additional request headers
+     * @return the PDF URL or null if it wasn't found
+     * @throws IOException when the metadata cannot be got or isn't a valid JSON
+     */
+    static String findPdfLink(final URL url, final Map<String, String> headers) throws IOException {
+        try (final HttpTransport.Response response = HttpUtils.get(url, headers);
+             final JsonReader json = new JsonReader(new InputStreamReader(response.getBody(), StandardCharsets.UTF_8))) {
+            return findPdfLink(json);
+        }
+    }
+
+    /**
+     * Looks for the first PDF link inside the {@code link} arrays of a JSON document.
+     * @param json the reader of the document
+     * @return the PDF URL or null if it wasn't found
+     * @throws IOException when the document cannot be read or isn't a valid JSON
+     */
+    static String findPdfLink(final JsonReader json) throws IOException {
+        JsonReader.Token token;
+        while((token = json.next()) != JsonReader.Token.END_DOCUMENT){
+            if(token == JsonReader.Token.NAME && LINK_FIELD.equals(json.getValue()) &&
+               json.next() == JsonReader.Token.BEGIN_ARRAY){
+                final String pdfUrl = findPdfLinkInArray(json);
+                if(pdfUrl != null)
+                    return pdfUrl;
+            }
+        }
+        return null;
+    }
+
+    private static String findPdfLinkInArray(final JsonReader json) throws IOException {
+        JsonReader.Token token;
+        while((token = json.next()) != JsonReader.Token.END_ARRAY && token != JsonReader.Token.END_DOCUMENT){
+            if(token == JsonReader.Token.BEGIN_OBJECT){
+                final String pdfUrl = readPdfLink(json);
+                if(pdfUrl != null)
+                    return pdfUrl;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads a link object, whose opening was already read.
+     * @return the URL of the link if it's a PDF link, null otherwise
+     */
+    private static String readPdfLink(final JsonReader json) throws IOException {
+        String url = null, contentType = null;
+        JsonReader.Token token;
+        while((token = json.next()) != JsonReader.Token.END_OBJECT && token != JsonReader.Token.END_DOCUMENT){
+            if(token != JsonReader.Token.NAME)
+                continue;
+            final String name = json.getValue();
+            if(LINK_URL_FIELD.equals(name))
+                url = json.nextString();
+            else if(LINK_CONTENT_TYPE_FIELD.equals(name))
+                contentType = json.nextString();
+            else json.skipValue();
+        }
+        if(StringUtils.isNotBlank(url) && contentType != null && contentType.toLowerCase().startsWith(PDF_CONTENT_TYPE))
+            return url;
+        return null;
+    }
+}
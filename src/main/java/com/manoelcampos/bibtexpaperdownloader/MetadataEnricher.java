@@ -0,0 +1,311 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.apache.commons.lang.StringUtils;
+import org.jbibtex.BibTeXEntry;
+import org.jbibtex.Key;
+import org.jbibtex.StringValue;
+import org.jbibtex.Value;
+
+/**
+ * Completes the bibtex entries that miss some field required to create their papers
+ * (a title, a valid year and a DOI or URL), getting the missing fields from a metadata service
+ * with the Crossref works API, before the papers are downloaded.
+ *
+ * <p>Entries having a DOI are resolved in batches: a single request
+ * asks for the metadata of several DOIs at once.
+ * Since the API doesn't look for several titles in a single request,
+ * entries having just a title are resolved one at a time,
+ * and the metadata found is used only if its title is the same as the entry title.
+ * Entries having neither a DOI nor a title cannot be resolved.</p>
+ *
+ * <p>Fields already in the entries are never changed.
+ * A batch that cannot be resolved is just reported,
+ * so that its entries are downloaded (if possible) with the fields they have.</p>
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class MetadataEnricher {
+    public static final String DEFAULT_BASE_URL = "https://api.crossref.org/works";
+    public static final int DEFAULT_BATCH_SIZE = 20;
+    private static final String ACCEPT = "application/json";
+
+    private final String baseUrl;
+    private final int batchSize;
+
+    /**
+     * Creates an enricher that uses the Crossref API with the default batch size.
+     */
+    public MetadataEnricher() {
+        this(DEFAULT_BASE_URL, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     *
+     * @param baseUrl the URL of the works endpoint of the metadata service
+     * @param batchSize the maximum number of DOIs resolved by a single request
+     */
+    public MetadataEnricher(final String baseUrl, final int batchSize) {
+        this.baseUrl = baseUrl.trim();
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Checks if a bibtex entry misses some field required to create its paper.
+     * An entry having a DOI or a URL doesn't need the other one,
+     * since the paper can be found by any of them.
+     * @param entry the entry to check
+     * @return true if the entry doesn't have a title, a valid year or either a DOI or a URL, false otherwise
+     */
+    public static boolean isIncomplete(final BibTeXEntry entry) {
+        return isBlank(entry, BibTeXEntry.KEY_TITLE) || parseYear(getFieldValue(entry, BibTeXEntry.KEY_YEAR)) == null ||
+               (isBlank(entry, BibTeXEntry.KEY_DOI) && isBlank(entry, BibTeXEntry.KEY_URL));
+    }
+
+    /**
+     * Completes the fields missing in some bibtex entries.
+     * The entries must not be changed by other threads meanwhile.
+     *
+     * @param entries the entries to complete (complete entries are ignored)
+     * @return a map where each key is the key of an entry that was changed
+     * and each value contains the names and values of the fields added to that entry
+     */
+    public Map<String, Map<String, String>> enrich(final Collection<BibTeXEntry> entries) {
+        final List<BibTeXEntry> byDoi = new ArrayList<>();
+        final List<BibTeXEntry> byTitle = new ArrayList<>();
+        for (BibTeXEntry entry : entries) {
+            if(!isIncomplete(entry))
+                continue;
+            if(!isBlank(entry, BibTeXEntry.KEY_DOI))
+                byDoi.add(entry);
+            else if(!isBlank(entry, BibTeXEntry.KEY_TITLE))
+                byTitle.add(entry);
+        }
+
+        final Map<String, Map<String, String>> changes = new LinkedHashMap<>();
+        for (int i = 0; i < byDoi.size(); i += batchSize) {
+            enrichByDoi(byDoi.subList(i, Math.min(i + batchSize, byDoi.size())), changes);
+        }
+        for (BibTeXEntry entry : byTitle) {
+            enrichByTitle(entry, changes);
+        }
+        return changes;
+    }
+
+    private void enrichByDoi(final List<BibTeXEntry> batch, final Map<String, Map<String, String>> changes) {
+        final StringBuilder filter = new StringBuilder();
+        for (BibTeXEntry entry : batch) {
+            if(filter.length() > 0)
+                filter.append(',');
+            filter.append("doi:").append(getFieldValue(entry, BibTeXEntry.KEY_DOI).trim());
+        }
+
+        final Map<String, Map<String, String>> works = new HashMap<>();
+        try {
+            for (Map<String, String> work : query("filter=" + encode(filter.toString()) + "&rows=" + batch.size())) {
+                works.put(normalizeDoi(work.get(BibTeXEntry.KEY_DOI.getValue())), work);
+            }
+        } catch (IOException e) {
+            System.out.printf("The metadata of %d incomplete entries couldn't be got: %s\n", batch.size(), e.getMessage());
+            return;
+        }
+
+        for (BibTeXEntry entry : batch) {
+            final Map<String, String> work = works.get(normalizeDoi(getFieldValue(entry, BibTeXEntry.KEY_DOI)));
+            if(work != null)
+                addMissingFields(entry, work, changes);
+        }
+    }
+
+    private void enrichByTitle(final BibTeXEntry entry, final Map<String, Map<String, String>> changes) {
+        final String title = getFieldValue(entry, BibTeXEntry.KEY_TITLE);
+        try {
+            for (Map<String, String> work : query("query.bibliographic=" + encode(title) + "&rows=1")) {
+                if(normalizeTitle(title).equals(normalizeTitle(work.get(BibTeXEntry.KEY_TITLE.getValue()))))
+                    addMissingFields(entry, work, changes);
+            }
+        } catch (IOException e) {
+            System.out.printf("The metadata of the entry %s couldn't be got: %s\n", entry.getKey(), e.getMessage());
+        }
+    }
+
+    /**
+     * Queries the metadata service.
+     * @param query the query string
+     * @return the metadata of each work found, using the bibtex field names as keys
+     * @throws IOException when the service cannot be accessed or its answer isn't valid
+     */
+    private List<Map<String, String>> query(final String query) throws IOException {
+        final URL url = new URL(baseUrl + (baseUrl.contains("?") ? "&" : "?") + query);
+        try (final HttpTransport.Response response = HttpUtils.get(url, Collections.singletonMap("Accept", ACCEPT));
+             final JsonReader json = new JsonReader(new InputStreamReader(response.getBody(), StandardCharsets.UTF_8))) {
+            return readWorks(json);
+        }
+    }
+
+    /**
+     * Reads the works inside the {@code items} array of a Crossref answer.
+     */
+    static List<Map<String, String>> readWorks(final JsonReader json) throws IOException {
+        final List<Map<String, String>> works = new ArrayList<>();
+        JsonReader.Token token;
+        while((token = json.next()) != JsonReader.Token.END_DOCUMENT){
+            if(token != JsonReader.Token.NAME || !"items".equals(json.getValue()))
+                continue;
+            if(json.next() != JsonReader.Token.BEGIN_ARRAY)
+                continue;
+            while((token = json.next()) == JsonReader.Token.BEGIN_OBJECT){
+                works.add(readWork(json));
+            }
+        }
+        return works;
+    }
+
+    /**
+     * Reads a work object, whose opening was already read.
+     */
+    private static Map<String, String> readWork(final JsonReader json) throws IOException {
+        final Map<String, String> work = new LinkedHashMap<>();
+        JsonReader.Token token;
+        while((token = json.next()) != JsonReader.Token.END_OBJECT && token != JsonReader.Token.END_DOCUMENT){
+            if(token != JsonReader.Token.NAME)
+                continue;
+            switch(json.getValue()){
+                case "DOI": put(work, BibTeXEntry.KEY_DOI, json.nextString()); break;
+                case "URL": put(work, BibTeXEntry.KEY_URL, json.nextString()); break;
+                case "title": put(work, BibTeXEntry.KEY_TITLE, readFirstString(json)); break;
+                case "issued": put(work, BibTeXEntry.KEY_YEAR, readYear(json)); break;
+                default: json.skipValue();
+            }
+        }
+        return work;
+    }
+
+    private static void put(final Map<String, String> work, final Key key, final String value) {
+        if(StringUtils.isNotBlank(value))
+            work.put(key.getValue(), value.trim());
+    }
+
+    /**
+     * Reads the first string of an array value (such as the title array).
+     */
+    private static String readFirstString(final JsonReader json) throws IOException {
+        if(json.next() != JsonReader.Token.BEGIN_ARRAY)
+            return json.getValue();
+
+        String first = null;
+        final int depth = json.getDepth();
+        JsonReader.Token token;
+        while((token = json.next()) != JsonReader.Token.END_DOCUMENT && json.getDepth() >= depth){
+            if(first == null && token == JsonReader.Token.STRING)
+                first = json.getValue();
+        }
+        return first;
+    }
+
+    /**
+     * Reads the year of an {@code issued} date, given as
+     * {@code {"date-parts": [[year, month, day]]}}.
+     */
+    private static String readYear(final JsonReader json) throws IOException {
+        if(json.next() != JsonReader.Token.BEGIN_OBJECT)
+            return null;
+
+        String year = null;
+        final int depth = json.getDepth();
+        JsonReader.Token token;
+        while((token = json.next()) != JsonReader.Token.END_DOCUMENT && json.getDepth() >= depth){
+            if(year == null && token == JsonReader.Token.NUMBER)
+                year = json.getValue();
+        }
+        return year;
+    }
+
+    private static void addMissingFields(
+            final BibTeXEntry entry, final Map<String, String> work,
+            final Map<String, Map<String, String>> changes)
+    {
+        for (Map.Entry<String, String> field : work.entrySet()) {
+            final Key key = new Key(field.getKey());
+            final boolean invalidYear =
+                    BibTeXEntry.KEY_YEAR.equals(key) && parseYear(getFieldValue(entry, key)) == null;
+            if(!isBlank(entry, key) && !invalidYear)
+                continue;
+
+            entry.removeField(key);
+            entry.addField(key, new StringValue(field.getValue(), StringValue.Style.BRACED));
+            Map<String, String> added = changes.get(entry.getKey().getValue());
+            if(added == null){
+                added = new LinkedHashMap<>();
+                changes.put(entry.getKey().getValue(), added);
+            }
+            added.put(field.getKey(), field.getValue());
+        }
+    }
+
+    /**
+     * Gets the value of a field of a bibtex entry.
+     * @param entry the bibtex entry
+     * @param key the field key
+     * @return the field value or an empty string if the entry doesn't have the field
+     */
+    public static String getFieldValue(final BibTeXEntry entry, final Key key) {
+        final Value value = entry.getField(key);
+        return value == null ? "" : value.toUserString();
+    }
+
+    private static boolean isBlank(final BibTeXEntry entry, final Key key) {
+        return StringUtils.isBlank(getFieldValue(entry, key));
+    }
+
+    /**
+     * Parses the year of a bibtex entry.
+     * @param year the value of the year field
+     * @return the year or null if it isn't a valid number
+     */
+    public static Integer parseYear(final String year) {
+        try {
+            return Integer.valueOf(year.trim());
+        } catch(NumberFormatException e){
+            return null;
+        }
+    }
+
+    private static String normalizeDoi(final String doi) {
+        return doi == null ? "" : doi.trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    private static String normalizeTitle(final String title) {
+        return title == null ? "" : title.toLowerCase(Locale.ENGLISH).replaceAll("[^\\p{L}\\p{Nd}]+", "");
+    }
+
+    private static String encode(final String value) throws IOException {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+    }
+
+    /**
+     * @return the maximum number of DOIs resolved by a single request
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return the URL of the works endpoint of the metadata service
+     */
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+}
@@ -0,0 +1,147 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * An HTTP endpoint that exposes the {@link DownloadMetrics} in the
+ * <a href="https://prometheus.io/docs/instrumenting/exposition_formats/">Prometheus text format</a>
+ * at the {@value #PATH} path, so that the downloads can be monitored while they run.
+ * By default, the endpoint is just reachable from the local machine.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class MetricsServer implements Closeable {
+    public static final String PATH = "/metrics";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String PREFIX = "bibtexpaperdownloader_";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Starts the endpoint at the loopback address.
+     * @param port the port to listen to (0 to use any free port)
+     * @param metrics the metrics to expose
+     * @throws IOException when the port cannot be used
+     */
+    public MetricsServer(final int port, final DownloadMetrics metrics) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port, metrics);
+    }
+
+    /**
+     * Starts the endpoint.
+     * @param bindAddress the address to listen to
+     * (such as the wildcard address, to be reachable from other machines)
+     * @param port the port to listen to (0 to use any free port)
+     * @param metrics the metrics to expose
+     * @throws IOException when the port cannot be used
+     */
+    public MetricsServer(final InetAddress bindAddress, final int port, final DownloadMetrics metrics) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "metrics-server");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    final byte body[] = format(metrics).getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (final OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * @return the port the endpoint is listening to
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Formats the metrics in the Prometheus text format.
+     * @param metrics the metrics to format
+     * @return the formatted metrics
+     */
+    public static String format(final DownloadMetrics metrics) {
+        final StringBuilder sb = new StringBuilder(2048);
+        header(sb, "phase_seconds", "summary", "Time spent in each phase of the download pipeline.");
+        for (DownloadMetrics.Phase phase : DownloadMetrics.Phase.values()) {
+            final DownloadMetrics.Timer timer = metrics.getTimer(phase);
+            sample(sb, "phase_seconds_count", "phase", phase.getName(), timer.getCount());
+            sample(sb, "phase_seconds_sum", "phase", phase.getName(), timer.getTotalSeconds());
+        }
+        header(sb, "phase_max_seconds", "gauge", "Longest time a phase of the download pipeline took.");
+        for (DownloadMetrics.Phase phase : DownloadMetrics.Phase.values()) {
+            sample(sb, "phase_max_seconds", "phase", phase.getName(), metrics.getTimer(phase).getMaxNanos() / 1e9);
+        }
+
+        header(sb, "papers_total", "counter", "Papers by repository and final result of the download.");
+        for (Map.Entry<String, long[]> entry : metrics.getOutcomes().entrySet()) {
+            for (DownloadMetrics.Outcome outcome : DownloadMetrics.Outcome.values()) {
+                sb.append(PREFIX).append("papers_total{repository=\"").append(escape(entry.getKey()))
+                  .append("\",outcome=\"").append(outcome.getName()).append("\"} ")
+                  .append(entry.getValue()[outcome.ordinal()]).append('\n');
+            }
+        }
+
+        header(sb, "transferred_bytes_total", "counter", "PDF bytes transferred.");
+        sample(sb, "transferred_bytes_total", null, null, metrics.getBytesTransferred());
+        header(sb, "downloads_in_flight", "gauge", "Papers being downloaded.");
+        sample(sb, "downloads_in_flight", null, null, metrics.getInFlight());
+        header(sb, "downloads_queued", "gauge", "Papers waiting to be downloaded.");
+        sample(sb, "downloads_queued", null, null, metrics.getQueued());
+        return sb.toString();
+    }
+
+    private static void header(final StringBuilder sb, final String name, final String type, final String help) {
+        sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(
+            final StringBuilder sb, final String name,
+            final String label, final String labelValue, final Number value)
+    {
+        sb.append(PREFIX).append(name);
+        if(label != null)
+            sb.append('{').append(label).append("=\"").append(escape(labelValue)).append("\"}");
+        sb.append(' ').append(value).append('\n');
+    }
+
+    private static String escape(final String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,27 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the file downloaded from a PDF URL isn't a complete PDF file,
+ * what usually means the server sent a login or error page instead of the paper.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class NotPdfFileException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final String url;
+
+    public NotPdfFileException(final String url) {
+        super("The file downloaded from " + url + " isn't a PDF");
+        this.url = url;
+    }
+
+    /**
+     * @return the URL the file was downloaded from
+     */
+    public String getUrl() {
+        return url;
+    }
+}
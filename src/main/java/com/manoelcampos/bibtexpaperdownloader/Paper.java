@@ -4,7 +4,10 @@ import com.manoelcampos.bibtexpaperdownloader.repository.PaperNotAvailableForDow
 import com.manoelcampos.bibtexpaperdownloader.repository.PaperRepository;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import org.apache.commons.lang.StringUtils;
 import org.jbibtex.BibTeXEntry;
 import org.jbibtex.Key;
@@ -20,12 +23,31 @@ import org.jbibtex.Value;
  * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
  */
 public class Paper {
+    /**
+     * Name of the bibtex field where the path of the downloaded paper is stored.
+     */
+    public static final String FILE_FIELD = "file";
+
+    /**
+     * Name of the bibtex field where the URL of the paper page is stored.
+     */
+    public static final String URL_FIELD = "url";
+
+    /**
+     * URL used to get the paper page from the paper DOI, when the bibtex entry doesn't have a URL.
+     */
+    public static final String DOI_RESOLVER_URL = "https://doi.org/";
+
     private Integer index = 0;
     private String id;
     private String title;
     private Integer year;
     private String doi;
     private String localFileName;
+    private PaperPage page;
+    private boolean pageFromCache;
+    private boolean pageFromMetadata;
+    private boolean scrapePaperPage;
 
     private final BibTeXEntry bibTeXEntry;
     private final BibTexPapersDownloader bibtex;
@@ -56,33 +78,113 @@ public class Paper {
     }
     
     /**
-     *
+     * Gets the information extracted from the paper page.
+     * The information is got just the first time this method is called
+     * and only if it isn't in the {@link ResolutionCache} being used.
+     * Just a page denying the access is cached right away, while a PDF URL
+     * is cached only after it gives the paper (see {@link #cachePaperPage()}).
+     * 
      * @return 
      * @throws IOException
      */
-    private String getPaperPageHtml() throws IOException {
-        try {
-            return HttpUtils.getWebPageHtmlContent(getUrl());
-        } catch (IOException e) {
-            throw new IOException("It wasn't possible to get the paper page content from the URL " + getUrl(), e);
+    private PaperPage getPaperPage() throws IOException {
+        if(page != null)
+            return page;
+
+        final ResolutionCache cache = bibtex.getResolutionCache();
+        if(cache != null)
+            page = cache.get(repository, doi, getUrl());
+        pageFromCache = page != null;
+        if(page == null){
+            page = resolvePaperPage();
+            if(cache != null && !page.isAccessAllowed())
+                cache.put(repository, doi, page);
         }
+        return page;
     }
 
     /**
-     * 
+     * Gets the paper information from the repository metadata API
+     * or, if the metadata doesn't have the PDF URL, by fetching the paper page.
+     * @return 
+     * @throws IOException when the paper page cannot be fetched
+     * @see MetadataApi
+     */
+    private PaperPage resolvePaperPage() throws IOException {
+        pageFromMetadata = false;
+        if(!scrapePaperPage){
+            try {
+                final PaperPage metadata = MetadataApi.fetch(getUrl(), doi, repository);
+                if(metadata != null){
+                    pageFromMetadata = true;
+                    return metadata;
+                }
+            } catch(IOException e){
+                System.out.printf("Paper %s: %s. Getting the PDF URL from the paper page.\n", id, e.getMessage());
+            }
+        }
+        return PaperPage.fetch(getUrl(), repository);
+    }
+
+    /**
+     * Discards the paper page information got from the {@link ResolutionCache}
+     * or from the metadata API, so that the page is fetched again.
+     * @return true if the page information came from the cache or the metadata API
+     * and was discarded, false otherwise
+     */
+    private boolean discardResolvedPaperPage() {
+        if(!pageFromCache && !pageFromMetadata)
+            return false;
+        if(pageFromCache)
+            bibtex.getResolutionCache().remove(repository, doi, getUrl());
+        else scrapePaperPage = true;
+        page = null;
+        pageFromCache = false;
+        pageFromMetadata = false;
+        return true;
+    }
+
+    /**
+     * Forgets the paper page fetched without a working PDF URL, so that a retry of the download
+     * fetches the page again instead of failing with the same page.
+     * The page information got from the {@link ResolutionCache} or the metadata API
+     * is discarded by {@link #discardResolvedPaperPage()} instead.
+     */
+    private void forgetFetchedPaperPage() {
+        if(pageFromCache || pageFromMetadata)
+            return;
+        page = null;
+    }
+
+    /**
+     * Caches the paper page information, after its PDF URL gave the paper.
+     */
+    private void cachePaperPage() {
+        final ResolutionCache cache = bibtex.getResolutionCache();
+        if(cache != null && page != null && !pageFromCache)
+            cache.put(repository, doi, page);
+    }
+
+    /**
+     * Checks if the access to the paper is allowed, getting the paper page information if required.
+     * The check is recorded as the {@link DownloadMetrics.Phase#ACCESS_CHECK} phase.
      * @return
      * @throws IOException 
      */
     public boolean isPaperAccessAllowed() throws IOException {
-        return StringUtils.isBlank(
-                HttpUtils.getInformationFromWebPageContent(getPaperPageHtml(), 
-                        repository.getRegexToIdentifyUnallowedPaperAccess()));
+        final long start = System.nanoTime();
+        try {
+            return getPaperPage().isAccessAllowed();
+        } finally {
+            DownloadMetrics.getDefault().record(DownloadMetrics.Phase.ACCESS_CHECK, start);
+        }
     }
 
     /**
      *
      * @return 
-     * @throws java.io.IOException 
+     * @throws java.io.IOException when the paper page cannot be accessed
+     * or the PDF URL isn't found in the page ({@link PdfUrlNotFoundException})
      * @throws com.manoelcampos.bibtexpaperdownloader.repository.PaperNotAvailableForDownloadException 
      */
     private String getPaperPdfUrl() throws IOException, PaperNotAvailableForDownloadException {
@@ -95,8 +197,10 @@ public class Paper {
         
         try{
             String url = getPaperPdfUrlInternal();
-            if(StringUtils.isBlank(url))
-                throw new PaperNotAvailableForDownloadException(); 
+            if(StringUtils.isBlank(url)){
+                forgetFetchedPaperPage();
+                throw new PdfUrlNotFoundException(getUrl());
+            }
             return url;
         } catch(IOException e){
             throw new IOException("It wasn't possible to access the paper page from URL " + getUrl(), e);            
@@ -110,8 +214,14 @@ public class Paper {
      * @see Paper#getPaperPdfUrl() 
      */
     private String getPaperPdfUrlInternal() throws IOException {
-        return HttpUtils.getInformationFromWebPageContent(
-                getPaperPageHtml(), repository.getRegexToExtractPdfUrlFromPaperWebPage());
+        return getPaperPage().getPdfUrl();
+    }
+
+    /**
+     * @return the repository where the paper is hosted
+     */
+    public PaperRepository getRepository() {
+        return repository;
     }
 
     /**
@@ -162,32 +272,113 @@ public class Paper {
         return this;
     }
 
+    /**
+     * {@inheritDoc}
+     * The text is built by plain appends (instead of formatting each line),
+     * since it's printed for every paper downloaded.
+     */
     @Override
     public String toString() {
-        StringBuilder sb = new StringBuilder();
-        sb.append(String.format("%d - PaperID: %s\n", getOrderInsideBibTexFile(), this.getId()));
-        sb.append(String.format("\tTitle: %s\n", this.getTitle()));
-        sb.append(String.format("\tYear:  %s", this.getYear()));
-        sb.append(String.format("\tDOI:   %s\n", this.getDoi()));
-        sb.append(String.format("\tURL:   %s\n", this.getUrl()));
+        final String url = getUrl();
+        final StringBuilder sb = new StringBuilder(96 + length(title) + length(doi) + url.length());
+        sb.append(getOrderInsideBibTexFile()).append(" - PaperID: ").append(id).append('\n');
+        sb.append("\tTitle: ").append(title).append('\n');
+        sb.append("\tYear:  ").append(year);
+        sb.append("\tDOI:   ").append(doi).append('\n');
+        sb.append("\tURL:   ").append(url).append('\n');
         return sb.toString();
     }
 
+    private static int length(final String value) {
+        return value == null ? 4 : value.length();
+    }
+
+    /**
+     * Downloads the paper PDF and, if successful, sets its local file name and URL
+     * in the bibtex entry. If a {@link PdfStore} is being used and it already has the paper,
+     * the paper is linked from the store instead of being downloaded.
+     * 
+     * @return true if the paper was downloaded (or linked from the store), false otherwise
+     * @throws PaperNotAvailableForDownloadException
+     * @throws IOException 
+     */
     public boolean downloadAndIfSuccessfulSetLocalFileNameAndUrl() throws PaperNotAvailableForDownloadException, IOException {
         final String fileName = generatePaperPdfLocalFileName();
-        if(HttpUtils.downloadFile(getPaperPdfUrl(), fileName)) {
-            this.setLocalFileNameInBibTexEntry(fileName);
-            setFieldValue("url", getUrl());
+        final PdfStore store = bibtex.getPdfStore();
+        if(store != null && store.linkByDoi(doi, Paths.get(fileName))){
+            setLocalFileNameAndUrl(fileName);
+            return true;
+        }
+
+        if(downloadFile(fileName)) {
+            cachePaperPage();
+            if(store != null)
+                store.add(doi, Paths.get(fileName));
+            setLocalFileNameAndUrl(fileName);
             return true;
         }
         return false;
     }
 
+    /**
+     * Downloads the paper PDF. If the PDF URL came from the {@link ResolutionCache}
+     * or the {@link MetadataApi} and it doesn't work (or doesn't give a PDF file),
+     * the PDF URL is got again (from the paper page, in the last case).
+     * 
+     * @param fileName Name to save the PDF locally
+     * @return true if the file was downloaded, false otherwise
+     */
+    private boolean downloadFile(final String fileName) throws IOException, PaperNotAvailableForDownloadException {
+        try {
+            final String pdfUrl = getPaperPdfUrl();
+            setJobState(JobJournal.State.DOWNLOADING);
+            return downloadPdf(pdfUrl, fileName);
+        } catch(IOException e){
+            if(!discardResolvedPaperPage())
+                throw e;
+            return downloadPdf(getPaperPdfUrl(), fileName);
+        }
+    }
+
+    private boolean downloadPdf(final String pdfUrl, final String fileName) throws IOException {
+        try {
+            return HttpUtils.downloadPdf(pdfUrl, fileName, repository.getRateLimiter());
+        } catch(NotPdfFileException e){
+            forgetFetchedPaperPage();
+            throw e;
+        }
+    }
+
+    private void setJobState(final JobJournal.State state) throws IOException {
+        final JobJournal jobs = bibtex.getJobJournal();
+        if(jobs != null)
+            jobs.update(id, state, null);
+    }
+
+    private void setLocalFileNameAndUrl(final String fileName) {
+        this.setLocalFileNameInBibTexEntry(fileName);
+        setFieldValue(URL_FIELD, getUrl());
+    }
+
+    /**
+     * @return the names and values of the bibtex fields set when the paper is downloaded
+     * (the paper file and URL). The fields not set in the entry are left out.
+     */
+    public Map<String, String> getDownloadFields() {
+        final Map<String, String> fields = new LinkedHashMap<>();
+        for (String field : new String[]{FILE_FIELD, URL_FIELD}) {
+            final String value = getFieldValue(field);
+            if(value != null)
+                fields.put(field, value);
+        }
+        return fields;
+    }
+
     private String generatePaperPdfLocalFileName() {
         String fileName;
         fileName = String.format(pdfLocalFileNameFormat(), 
                 bibtex.getDownloadDir(), getOrderInsideBibTexFile(), 
-                FileSystemUtils.validateFileName(title.trim()));
+                FileSystemUtils.validateFileName(StringUtils.isBlank(title) ? id : title.trim()));
         return fileName;
     }
     
@@ -218,6 +409,8 @@ public class Paper {
 
     /**
      * Set a value to a bibtex key into a specific bibtex bibTeXEntry.
+     * The update is synchronized on the entry, so papers being downloaded 
+     * concurrently can safely change their entries.
      *
      * @param keyName Name of the key to be set
      * @param valueStr Value to be set on the key
@@ -227,11 +420,42 @@ public class Paper {
             throw new RuntimeException("The paper is not linked to a BibTeX entry. The bibTeXEntry field is null.");
         
         Key key = new Key(keyName);
-        Value bibValue = bibTeXEntry.getField(key);
-        if (bibValue != null) {
-            bibTeXEntry.removeField(key);
+        synchronized(bibTeXEntry){
+            Value bibValue = bibTeXEntry.getField(key);
+            if (bibValue != null) {
+                bibTeXEntry.removeField(key);
+            }
+            bibTeXEntry.addField(key, new StringValue(valueStr, StringValue.Style.BRACED));
+        }
+    }
+
+    /**
+     * Checks if the file set in the bibtex entry of the paper
+     * is a complete PDF file, indicating the paper was already downloaded.
+     * 
+     * @return true if the paper was already downloaded, false otherwise
+     * @see FileSystemUtils#isValidPdfFile(java.lang.String) 
+     */
+    public boolean isAlreadyDownloaded() {
+        final String fileName = getFieldValue(FILE_FIELD);
+        if(FileSystemUtils.isValidPdfFile(fileName)){
+            this.localFileName = fileName;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the value of a key from the bibtex entry of the paper.
+     * 
+     * @param keyName Name of the key to get the value
+     * @return the value of the key or null if the entry doesn't have it
+     */
+    public String getFieldValue(final String keyName) {
+        synchronized(bibTeXEntry){
+            final Value value = bibTeXEntry.getField(new Key(keyName));
+            return value == null ? null : value.toUserString();
         }
-        bibTeXEntry.addField(key, new StringValue(valueStr, StringValue.Style.BRACED));
     }
 
     /**
@@ -239,7 +463,7 @@ public class Paper {
      */
     public void setLocalFileNameInBibTexEntry(final String localFileName) {
         this.localFileName = localFileName;
-        setFieldValue("file", localFileName);
+        setFieldValue(FILE_FIELD, localFileName);
     }
 
     /**
@@ -262,8 +486,15 @@ public class Paper {
         return str;
     }
 
+    /**
+     * @return the URL of the paper page, got from the bibtex entry or,
+     * if the entry doesn't have a URL, from the paper DOI
+     */
     public String getUrl() {
-        return bibTeXEntry.getField(BibTeXEntry.KEY_URL).toUserString();
+        final String url = getFieldValue(URL_FIELD);
+        if(StringUtils.isBlank(url))
+            return StringUtils.isBlank(doi) ? "" : DOI_RESOLVER_URL + doi.trim();
+        return url;
     }
 
 }
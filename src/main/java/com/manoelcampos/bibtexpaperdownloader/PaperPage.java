@@ -0,0 +1,130 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import com.manoelcampos.bibtexpaperdownloader.repository.PaperRepository;
+import java.io.IOException;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The information extracted from the web page of a paper:
+ * if the access to the paper is allowed and the URL of its PDF.
+ * The page is fetched just once and scanned in a single pass
+ * by an alternation of the repository regex that identifies an unallowed access
+ * and the regex that extracts the PDF URL.
+ * The page is streamed and the scan stops at the first of these regexes that matches,
+ * since it defines the access verdict:
+ * an unallowed access message means the paper isn't available
+ * and a PDF link is only shown for those who have access to the paper.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class PaperPage {
+    private final String url;
+    private final boolean accessAllowed;
+    private final String pdfUrl;
+
+    /**
+     *
+     * @param url the URL of the paper page
+     * @param accessAllowed if the access to the paper is allowed
+     * @param pdfUrl the URL of the paper PDF or an empty string if it wasn't found
+     */
+    public PaperPage(final String url, final boolean accessAllowed, final String pdfUrl) {
+        this.url = url;
+        this.accessAllowed = accessAllowed;
+        this.pdfUrl = pdfUrl == null ? "" : pdfUrl;
+    }
+
+    /**
+     * Fetches the page of a paper and extracts the paper information from it,
+     * reading the page just until the access verdict is known.
+     *
+     * @param url the URL of the paper page
+     * @param repository the repository where the paper is hosted
+     * @return the information extracted from the page
+     * @throws IOException when the page content cannot be got
+     */
+    public static PaperPage fetch(final String url, final PaperRepository repository) throws IOException {
+        final Pattern pattern = getPaperPagePattern(repository);
+        try {
+            return fromMatch(url, HttpUtils.findInWebPage(url, pattern, repository.getRateLimiter()), repository);
+        } catch (IOException e) {
+            throw new IOException("It wasn't possible to get the paper page content from the URL " + url, e);
+        }
+    }
+
+    /**
+     * Extracts the paper information from the HTML of its page.
+     *
+     * @param url the URL of the paper page
+     * @param html the HTML of the paper page
+     * @param repository the repository where the paper is hosted
+     * @return the information extracted from the page
+     */
+    public static PaperPage parse(final String url, final String html, final PaperRepository repository) {
+        final Matcher matcher = getPaperPagePattern(repository).matcher(html);
+        return fromMatch(url, matcher.find() ? matcher : null, repository);
+    }
+
+    /**
+     * Gets an alternation of the regex that identifies an unallowed access
+     * and the regex that extracts the PDF URL, 
+     * in this order, each one inside a capturing group.
+     * @param repository the repository where the paper is hosted
+     * @return the compiled alternation
+     */
+    private static Pattern getPaperPagePattern(final PaperRepository repository) {
+        return HttpUtils.compilePattern(
+                "(" + repository.getPatternToIdentifyUnallowedPaperAccess().pattern() + ")|(" + 
+                repository.getPatternToExtractPdfUrlFromPaperWebPage().pattern() + ")");
+    }
+
+    /**
+     * Creates a PaperPage from the first match of the 
+     * {@link #getPaperPagePattern(com.manoelcampos.bibtexpaperdownloader.repository.PaperRepository) paper page pattern}.
+     * 
+     * @param url the URL of the paper page
+     * @param match the first match or null if there is no match
+     * @param repository the repository where the paper is hosted
+     * @return the information extracted from the page
+     */
+    private static PaperPage fromMatch(final String url, final MatchResult match, final PaperRepository repository) {
+        if(match == null)
+            return new PaperPage(url, true, "");
+
+        final int unallowedAccessGroup = 1;
+        if (match.group(unallowedAccessGroup) != null)
+            return new PaperPage(url, false, "");
+
+        final int pdfUrlGroup = 
+                unallowedAccessGroup + groupCount(repository.getPatternToIdentifyUnallowedPaperAccess()) + 1;
+        final boolean pdfRegexHasGroup = groupCount(repository.getPatternToExtractPdfUrlFromPaperWebPage()) > 0;
+        return new PaperPage(url, true, match.group(pdfRegexHasGroup ? pdfUrlGroup + 1 : pdfUrlGroup));
+    }
+
+    private static int groupCount(final Pattern pattern) {
+        return pattern.matcher("").groupCount();
+    }
+
+    /**
+     * @return the URL of the paper page
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return true if the access to the paper is allowed for the current network or account
+     */
+    public boolean isAccessAllowed() {
+        return accessAllowed;
+    }
+
+    /**
+     * @return the URL of the paper PDF or an empty string if it wasn't found in the page
+     */
+    public String getPdfUrl() {
+        return pdfUrl;
+    }
+}
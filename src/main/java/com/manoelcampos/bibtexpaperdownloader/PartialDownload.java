@@ -0,0 +1,207 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * A file being downloaded, that is kept in a temporary file
+ * while the download isn't finished.
+ * A sidecar metadata file records the URL, the ETag and Last-Modified
+ * validators sent by the server and the number of bytes received,
+ * so that an interrupted download can be resumed later
+ * using an HTTP Range request.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ * @see FileSystemUtils#getTemporaryFile(java.nio.file.Path)
+ */
+public class PartialDownload {
+    private static final String URL = "url";
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String BYTES = "bytes";
+    private static final Pattern CONTENT_RANGE_START = Pattern.compile("^\\s*bytes\\s+(\\d+)-");
+
+    private final Path file;
+    private final Path tempFile;
+    private final Path metadataFile;
+    private final Properties metadata = new Properties();
+
+    /**
+     * Creates a partial download for a given file,
+     * loading its metadata if a previous download was interrupted.
+     *
+     * @param file the final name of the file being downloaded
+     * @throws IOException when the metadata of a previous download cannot be read
+     */
+    public PartialDownload(final Path file) throws IOException {
+        this.file = file;
+        this.tempFile = FileSystemUtils.getTemporaryFile(file);
+        this.metadataFile = tempFile.resolveSibling(tempFile.getFileName() + ".meta");
+        loadMetadata();
+    }
+
+    private void loadMetadata() throws IOException {
+        if(!Files.exists(metadataFile))
+            return;
+        try (final InputStream is = Files.newInputStream(metadataFile)) {
+            metadata.load(is);
+        } catch(IllegalArgumentException e){
+            metadata.clear();
+        }
+    }
+
+    /**
+     * Gets the position from where a previous download of the file can be resumed.
+     * A download can be resumed if the temporary file has at least as many bytes as
+     * recorded in the metadata and either the server sent a validator (ETag or Last-Modified)
+     * or the URL is the same of the previous download.
+     *
+     * @param url the URL the file will be downloaded from
+     * @return the number of bytes already received or 0 if the download has to start from scratch
+     * @throws IOException
+     */
+    public long getResumePosition(final String url) throws IOException {
+        if(!Files.exists(tempFile) || metadata.isEmpty())
+            return 0;
+
+        final long bytes = getLong(BYTES);
+        if(bytes <= 0 || Files.size(tempFile) < bytes)
+            return 0;
+        if(StringUtils.isBlank(getValidator()) && !url.equals(metadata.getProperty(URL)))
+            return 0;
+        return bytes;
+    }
+
+    /**
+     * Gets the headers to request the file from a given position.
+     * @param position the position to get the file from
+     * @return the request headers
+     */
+    public Map<String, String> getRequestHeaders(final long position) {
+        final Map<String, String> headers = new HashMap<>();
+        headers.put("Accept-Encoding", "identity");
+        if(position > 0){
+            headers.put("Range", "bytes=" + position + "-");
+            final String validator = getValidator();
+            if(StringUtils.isNotBlank(validator))
+                headers.put("If-Range", validator);
+        }
+        return headers;
+    }
+
+    /**
+     * Thrown when the server answers a Range request with a part of the file
+     * that doesn't start at the requested position, so that the part cannot be
+     * appended to the bytes already received.
+     */
+    public static class RangeMismatchException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public RangeMismatchException(final String url, final long requestedPosition, final long receivedPosition) {
+            super(String.format("The server sent the bytes of %s from position %d instead of %d",
+                    url, receivedPosition, requestedPosition));
+        }
+    }
+
+    /**
+     * Starts receiving the file, recording the response validators in the metadata.
+     *
+     * @param url the URL the file is being downloaded from
+     * @param response the response to the request
+     * @param requestedPosition the position requested to the server
+     * @return the position where the response body has to be written.
+     * It is 0 if the server ignored the Range request and is sending the entire file.
+     * @throws RangeMismatchException when the server sent a part of the file
+     * that doesn't start at the requested position (the partial file has to be discarded)
+     * @throws IOException when the metadata cannot be written
+     */
+    public long start(final String url, final HttpTransport.Response response, final long requestedPosition) throws IOException {
+        long position = 0;
+        if(response.getStatusCode() == HttpURLConnection.HTTP_PARTIAL){
+            position = getContentRangeStart(response);
+            if(position != requestedPosition)
+                throw new RangeMismatchException(url, requestedPosition, position);
+        }
+        metadata.clear();
+        metadata.setProperty(URL, url);
+        setProperty(ETAG, response.getHeader("ETag"));
+        setProperty(LAST_MODIFIED, response.getHeader("Last-Modified"));
+        save(position);
+        return position;
+    }
+
+    private static long getContentRangeStart(final HttpTransport.Response response) {
+        final String range = response.getHeader("Content-Range");
+        if(range == null)
+            return -1;
+        final Matcher matcher = CONTENT_RANGE_START.matcher(range);
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    /**
+     * Records the number of bytes received so far.
+     * @param bytes the number of bytes received
+     * @throws IOException when the metadata cannot be written
+     */
+    public void save(final long bytes) throws IOException {
+        metadata.setProperty(BYTES, String.valueOf(bytes));
+        try (final OutputStream os = Files.newOutputStream(metadataFile)) {
+            metadata.store(os, "Partial download of " + file.getFileName());
+        }
+    }
+
+    /**
+     * Finishes the download, renaming the temporary file to the final file name
+     * and removing the metadata.
+     * @throws IOException when the file cannot be renamed
+     */
+    public void commit() throws IOException {
+        FileSystemUtils.moveAtomically(tempFile, file);
+        Files.deleteIfExists(metadataFile);
+    }
+
+    /**
+     * Discards the received bytes, so that the next download starts from scratch.
+     * @throws IOException when the files cannot be deleted
+     */
+    public void discard() throws IOException {
+        metadata.clear();
+        Files.deleteIfExists(tempFile);
+        Files.deleteIfExists(metadataFile);
+    }
+
+    /**
+     * @return the temporary file where the bytes are written to
+     */
+    public Path getTempFile() {
+        return tempFile;
+    }
+
+    private String getValidator() {
+        final String etag = metadata.getProperty(ETAG);
+        return StringUtils.isNotBlank(etag) ? etag : metadata.getProperty(LAST_MODIFIED);
+    }
+
+    private void setProperty(final String key, final String value) {
+        if(value != null)
+            metadata.setProperty(key, value);
+    }
+
+    private long getLong(final String key) {
+        try {
+            return Long.parseLong(metadata.getProperty(key, "0"));
+        } catch(NumberFormatException e){
+            return 0;
+        }
+    }
+}
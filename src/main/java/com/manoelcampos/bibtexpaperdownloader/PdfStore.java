@@ -0,0 +1,169 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * A local content-addressed store of PDF files, shared by different bibtex files
+ * and download directories, so that the same paper is downloaded and stored just once.
+ * Each PDF is stored under the SHA-256 hash of its bytes and indexed by the paper DOI.
+ * The files in the download directories become links to the stored files:
+ * hard links when possible, symbolic links otherwise
+ * (or copies, when the file system doesn't support links at all).
+ *
+ * <p>Directory layout:</p>
+ * <ul>
+ *   <li>objects/ab/abcdef...pdf: the PDF files, named by their SHA-256 hash;</li>
+ *   <li>doi/encoded-doi: a text file containing the hash of the PDF of the paper with that DOI.</li>
+ * </ul>
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class PdfStore {
+    private static final char HEX_DIGITS[] = "0123456789abcdef".toCharArray();
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final Path objectsDir;
+    private final Path doiDir;
+
+    /**
+     *
+     * @param storeDir the directory where the store is kept. It's created if it doesn't exist.
+     * @throws IOException when the store directories cannot be created
+     */
+    public PdfStore(final String storeDir) throws IOException {
+        final Path root = Paths.get(storeDir);
+        this.objectsDir = Files.createDirectories(root.resolve("objects"));
+        this.doiDir = Files.createDirectories(root.resolve("doi"));
+    }
+
+    /**
+     * Links a file to the stored PDF of a paper, if the store has it.
+     *
+     * @param doi the DOI of the paper
+     * @param file the file to be linked to the stored PDF. If it exists, it's replaced.
+     * @return true if the store has a complete PDF for the DOI and the file was linked to it,
+     * false otherwise
+     * @throws IOException when the file cannot be linked
+     */
+    public boolean linkByDoi(final String doi, final Path file) throws IOException {
+        final Path object = getObjectByDoi(doi);
+        if(object == null || !FileSystemUtils.isValidPdfFile(object.toString()))
+            return false;
+        link(object, file);
+        return true;
+    }
+
+    private Path getObjectByDoi(final String doi) throws IOException {
+        if(StringUtils.isBlank(doi))
+            return null;
+        final Path index = getDoiIndexFile(doi);
+        if(!Files.exists(index))
+            return null;
+        final String hash = new String(Files.readAllBytes(index), StandardCharsets.US_ASCII).trim();
+        return hash.isEmpty() ? null : getObjectFile(hash);
+    }
+
+    /**
+     * Adds a downloaded PDF to the store, indexing it by the paper DOI.
+     * The downloaded file is moved into the store or, if the store already 
+     * has a file with the same content, it's discarded.
+     * Then, the downloaded file is replaced by a link to the stored file.
+     *
+     * @param doi the DOI of the paper (that may be empty if the paper doesn't have a DOI)
+     * @param file the downloaded PDF file
+     * @throws IOException when the file cannot be added to the store
+     */
+    public void add(final String doi, final Path file) throws IOException {
+        final String hash = sha256(file);
+        final Path object = getObjectFile(hash);
+        if(Files.exists(object)){
+            Files.delete(file);
+        } else {
+            Files.createDirectories(object.getParent());
+            final Path tempObject = Files.createTempFile(object.getParent(), hash, ".part");
+            Files.move(file, tempObject, StandardCopyOption.REPLACE_EXISTING);
+            FileSystemUtils.moveAtomically(tempObject, object);
+        }
+        link(object, file);
+
+        if(StringUtils.isNotBlank(doi)){
+            final Path tempIndex = Files.createTempFile(doiDir, "doi", ".part");
+            Files.write(tempIndex, hash.getBytes(StandardCharsets.US_ASCII));
+            FileSystemUtils.moveAtomically(tempIndex, getDoiIndexFile(doi));
+        }
+    }
+
+    /**
+     * Creates a link to a stored file, trying a hard link, then a symbolic link
+     * and finally copying the file.
+     * @param object the stored file
+     * @param file the link to be created. If it exists, it's replaced.
+     * @throws IOException when the link cannot be created
+     */
+    private void link(final Path object, final Path file) throws IOException {
+        Files.deleteIfExists(file);
+        try {
+            Files.createLink(file, object);
+            return;
+        } catch(IOException | UnsupportedOperationException e){
+            //tries the next kind of link
+        }
+        try {
+            Files.createSymbolicLink(file, object.toAbsolutePath());
+        } catch(IOException | UnsupportedOperationException e){
+            Files.copy(object, file);
+        }
+    }
+
+    private Path getObjectFile(final String hash) {
+        return objectsDir.resolve(hash.substring(0, 2)).resolve(hash + ".pdf");
+    }
+
+    private Path getDoiIndexFile(final String doi) throws IOException {
+        return doiDir.resolve(URLEncoder.encode(doi.trim().toLowerCase(Locale.ENGLISH), "UTF-8"));
+    }
+
+    /**
+     * Computes the SHA-256 hash of a file.
+     * @param file the file to compute the hash
+     * @return the hash as a lower-case hexadecimal string
+     * @throws IOException when the file cannot be read
+     */
+    public static String sha256(final Path file) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("The JVM doesn't support SHA-256", e);
+        }
+
+        try (final InputStream is = new DigestInputStream(Files.newInputStream(file), digest)) {
+            final byte[] buffer = new byte[READ_BUFFER_SIZE];
+            while(is.read(buffer) != -1){
+                //the bytes are added to the digest while they are read
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private static String toHex(final byte[] bytes) {
+        final char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+}
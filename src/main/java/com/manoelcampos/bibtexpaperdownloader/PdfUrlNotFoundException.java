@@ -0,0 +1,28 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the access to a paper is allowed but its PDF URL
+ * cannot be found in the paper page, what usually means the page
+ * wasn't completely received or isn't the expected one.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class PdfUrlNotFoundException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final String url;
+
+    public PdfUrlNotFoundException(final String url) {
+        super("The PDF URL wasn't found in the paper page " + url);
+        this.url = url;
+    }
+
+    /**
+     * @return the URL of the paper page
+     */
+    public String getUrl() {
+        return url;
+    }
+}
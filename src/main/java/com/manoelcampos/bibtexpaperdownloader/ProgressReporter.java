@@ -0,0 +1,270 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically reports the progress of the downloads: how many papers finished
+ * (and how many were downloaded, paywalled or failed), the throughput in papers and bytes per second
+ * and the estimated time to finish.
+ * The report is either a single console line that is rewritten at each interval
+ * or a JSON object per line, to be consumed by other tools.
+ *
+ * <p>The progress is got from the {@link DownloadMetrics} by a thread of its own,
+ * so that reporting never blocks the downloads.
+ * Only the papers finished after the reporter is started are counted.</p>
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class ProgressReporter {
+    public static final long DEFAULT_INTERVAL_MILLIS = 2000;
+
+    /**
+     * The formats of the progress reports.
+     */
+    public enum Format {
+        /**
+         * A single line rewritten at each report, for a terminal.
+         */
+        CONSOLE,
+
+        /**
+         * A JSON object per report, in a line of its own.
+         */
+        JSON
+    }
+
+    private final Format format;
+    private final PrintStream out;
+    private final long intervalMillis;
+    private final DownloadMetrics metrics;
+    private final SimpleDateFormat dateFormat;
+
+    private ScheduledExecutorService scheduler;
+    private volatile long total;
+    private long startNanos;
+    private long startDownloaded, startPaywalled, startFailed, startBytes;
+    private long lastNanos, lastBytes;
+    private int lastLineLength;
+
+    /**
+     * Creates a reporter of the {@link DownloadMetrics#getDefault() default metrics}.
+     * @param format the format of the reports
+     * @param out the stream where to write the reports
+     * @param intervalMillis the time (in milliseconds) between reports
+     */
+    public ProgressReporter(final Format format, final PrintStream out, final long intervalMillis) {
+        this(format, out, intervalMillis, DownloadMetrics.getDefault());
+    }
+
+    /**
+     *
+     * @param format the format of the reports
+     * @param out the stream where to write the reports
+     * @param intervalMillis the time (in milliseconds) between reports
+     * @param metrics the metrics the progress is got from
+     */
+    public ProgressReporter(
+            final Format format, final PrintStream out,
+            final long intervalMillis, final DownloadMetrics metrics)
+    {
+        this.format = format;
+        this.out = out;
+        this.intervalMillis = Math.max(100, intervalMillis);
+        this.metrics = metrics;
+        this.dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT);
+        this.dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * Starts reporting the progress at each interval.
+     * The papers finished before are not counted.
+     */
+    public synchronized void start() {
+        if(scheduler != null)
+            return;
+        startNanos = lastNanos = System.nanoTime();
+        startDownloaded = metrics.getCount(DownloadMetrics.Outcome.DOWNLOADED);
+        startPaywalled = metrics.getCount(DownloadMetrics.Outcome.PAYWALLED);
+        startFailed = metrics.getCount(DownloadMetrics.Outcome.FAILED);
+        startBytes = lastBytes = metrics.getBytesTransferred();
+        lastLineLength = 0;
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "progress-reporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                report(false);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops reporting, writing a last report with the final progress.
+     */
+    public void stop() {
+        final ScheduledExecutorService reporting;
+        synchronized(this){
+            reporting = scheduler;
+            scheduler = null;
+        }
+        if(reporting == null)
+            return;
+
+        //the lock isn't held meanwhile, so that a report in progress can finish
+        reporting.shutdownNow();
+        try {
+            reporting.awaitTermination(intervalMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        report(true);
+    }
+
+    /**
+     * @return true if the progress is being reported, false otherwise
+     */
+    public synchronized boolean isStarted() {
+        return scheduler != null;
+    }
+
+    /**
+     * @param total the number of papers expected to be downloaded,
+     * used to compute the estimated time to finish
+     */
+    public void setTotal(final long total) {
+        this.total = total;
+    }
+
+    /**
+     * Removes a paper from the papers expected to be downloaded,
+     * such as a paper skipped after the total was set,
+     * so that the progress reaches 100% when the other papers are finished.
+     */
+    public synchronized void decrementTotal() {
+        if(total > 0)
+            total--;
+    }
+
+    /**
+     * @return the number of papers expected to be downloaded
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    private synchronized void report(final boolean last) {
+        final long now = System.nanoTime();
+        final double elapsed = (now - startNanos) / 1e9;
+        final long downloaded = metrics.getCount(DownloadMetrics.Outcome.DOWNLOADED) - startDownloaded;
+        final long paywalled = metrics.getCount(DownloadMetrics.Outcome.PAYWALLED) - startPaywalled;
+        final long failed = metrics.getCount(DownloadMetrics.Outcome.FAILED) - startFailed;
+        final long finished = downloaded + paywalled + failed;
+        final long bytes = metrics.getBytesTransferred();
+        //the last report shows the mean rate of the run, instead of the rate of the last interval
+        final long fromBytes = last ? startBytes : lastBytes, fromNanos = last ? startNanos : lastNanos;
+        final double bytesPerSecond = now > fromNanos ? (bytes - fromBytes) / ((now - fromNanos) / 1e9) : 0;
+        final double papersPerSecond = elapsed > 0 ? finished / elapsed : 0;
+        final long remaining = Math.max(0, total - finished);
+        final long etaSeconds = papersPerSecond > 0 ? Math.round(remaining / papersPerSecond) : -1;
+        lastNanos = now;
+        lastBytes = bytes;
+
+        final Progress progress = new Progress(
+                elapsed, finished, downloaded, paywalled, failed,
+                papersPerSecond, bytes - startBytes, bytesPerSecond, etaSeconds);
+        if(format == Format.JSON)
+            out.println(toJson(progress));
+        else printConsoleLine(toConsoleLine(progress), last);
+        out.flush();
+    }
+
+    private void printConsoleLine(final String line, final boolean last) {
+        final StringBuilder sb = new StringBuilder(line.length() + lastLineLength + 2).append('\r').append(line);
+        for (int i = line.length(); i < lastLineLength; i++) {
+            sb.append(' ');
+        }
+        lastLineLength = line.length();
+        out.print(sb);
+        if(last)
+            out.println();
+    }
+
+    private String toConsoleLine(final Progress p) {
+        final String count = total > 0 ?
+                String.format(Locale.ROOT, "%d/%d papers (%.1f%%)", p.finished, total, p.finished * 100.0 / total) :
+                String.format(Locale.ROOT, "%d papers", p.finished);
+        return String.format(Locale.ROOT,
+                "%s | %d downloaded, %d paywalled, %d failed | %d in flight | %.2f papers/s | %s/s | ETA %s",
+                count, p.downloaded, p.paywalled, p.failed, metrics.getInFlight(),
+                p.papersPerSecond, formatBytes(p.bytesPerSecond), formatDuration(p.etaSeconds));
+    }
+
+    private String toJson(final Progress p) {
+        return String.format(Locale.ROOT,
+                "{\"time\":\"%s\",\"elapsedSeconds\":%.3f,\"total\":%d,\"finished\":%d,\"downloaded\":%d," +
+                "\"paywalled\":%d,\"failed\":%d,\"inFlight\":%d,\"queued\":%d,\"papersPerSecond\":%.3f," +
+                "\"bytes\":%d,\"bytesPerSecond\":%.1f,\"etaSeconds\":%s}",
+                dateFormat.format(new Date()), p.elapsed, total, p.finished, p.downloaded,
+                p.paywalled, p.failed, metrics.getInFlight(), metrics.getQueued(), p.papersPerSecond,
+                p.bytes, p.bytesPerSecond, p.etaSeconds < 0 ? "null" : String.valueOf(p.etaSeconds));
+    }
+
+    private static String formatBytes(final double bytes) {
+        final String units[] = {"B", "KB", "MB", "GB"};
+        double value = bytes;
+        int unit = 0;
+        while(value >= 1024 && unit < units.length - 1){
+            value /= 1024;
+            unit++;
+        }
+        return String.format(Locale.ROOT, "%.1f %s", value, units[unit]);
+    }
+
+    private static String formatDuration(final long seconds) {
+        if(seconds < 0)
+            return "--:--:--";
+        return String.format(Locale.ROOT, "%02d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
+    /**
+     * The progress at the time of a report.
+     */
+    private static class Progress {
+        private final double elapsed;
+        private final long finished, downloaded, paywalled, failed;
+        private final double papersPerSecond;
+        private final long bytes;
+        private final double bytesPerSecond;
+        private final long etaSeconds;
+
+        Progress(
+                final double elapsed, final long finished, final long downloaded,
+                final long paywalled, final long failed, final double papersPerSecond,
+                final long bytes, final double bytesPerSecond, final long etaSeconds)
+        {
+            this.elapsed = elapsed;
+            this.finished = finished;
+            this.downloaded = downloaded;
+            this.paywalled = paywalled;
+            this.failed = failed;
+            this.papersPerSecond = papersPerSecond;
+            this.bytes = bytes;
+            this.bytesPerSecond = bytesPerSecond;
+            this.etaSeconds = etaSeconds;
+        }
+    }
+}
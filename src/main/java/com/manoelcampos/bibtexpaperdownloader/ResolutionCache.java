@@ -0,0 +1,190 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import com.manoelcampos.bibtexpaperdownloader.repository.PaperRepository;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * A disk-backed cache of the information extracted from paper pages
+ * (the access verdict and the PDF URL), so that later runs, even for other bibtex files,
+ * don't need to fetch the pages of papers already resolved.
+ * Papers that aren't available for the current network or account are cached too
+ * (negative entries), so that their pages aren't requested again and again.
+ *
+ * <p>Entries are identified by the repository class and the paper DOI
+ * (or the paper URL, if the paper doesn't have a DOI). They expire after a TTL
+ * (negative entries usually have a shorter one, since the access may be granted later)
+ * and, when the cache is full, the least recently used entries are evicted.
+ * The cache is kept in a tab-separated text file, that is loaded when the cache is created
+ * and rewritten when it is {@link #save() saved}.</p>
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class ResolutionCache {
+    public static final long DEFAULT_TTL_DAYS = 30;
+    public static final long DEFAULT_NEGATIVE_TTL_DAYS = 7;
+    public static final int DEFAULT_MAX_ENTRIES = 100000;
+    private static final String SEPARATOR = "\t";
+
+    private final Path file;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final int maxEntries;
+    private final Map<String, CachedPage> entries;
+
+    /**
+     * Creates a cache with default TTLs and size, loading the entries from a given file.
+     * @param fileName the file where the cache is kept
+     * @throws IOException when the file exists but cannot be read
+     */
+    public ResolutionCache(final String fileName) throws IOException {
+        this(fileName, TimeUnit.DAYS.toMillis(DEFAULT_TTL_DAYS),
+                TimeUnit.DAYS.toMillis(DEFAULT_NEGATIVE_TTL_DAYS), DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Creates a cache, loading the entries from a given file.
+     *
+     * @param fileName the file where the cache is kept
+     * @param ttlMillis time (in milliseconds) an entry for an available paper is valid
+     * @param negativeTtlMillis time (in milliseconds) an entry for an unavailable paper is valid
+     * @param maxEntries maximum number of entries kept
+     * @throws IOException when the file exists but cannot be read
+     */
+    public ResolutionCache(final String fileName, final long ttlMillis, final long negativeTtlMillis, final int maxEntries) throws IOException {
+        this.file = Paths.get(fileName);
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, CachedPage>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedPage> eldest) {
+                return size() > ResolutionCache.this.maxEntries;
+            }
+        };
+        load();
+    }
+
+    private void load() throws IOException {
+        if(!Files.exists(file))
+            return;
+        try (final BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String fields[] = line.split(SEPARATOR, -1);
+                if(fields.length != 5)
+                    continue;
+                try {
+                    final CachedPage entry = new CachedPage(
+                            Long.parseLong(fields[1]),
+                            new PaperPage(fields[2], Boolean.parseBoolean(fields[3]), fields[4]));
+                    if(!isExpired(entry))
+                        entries.put(fields[0], entry);
+                } catch(NumberFormatException e){
+                    //ignores corrupted lines
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the cached information of a paper page.
+     *
+     * @param repository the repository where the paper is hosted
+     * @param doi the paper DOI (that may be empty)
+     * @param url the URL of the paper page
+     * @return the cached information or null if it isn't cached or is expired
+     */
+    public synchronized PaperPage get(final PaperRepository repository, final String doi, final String url) {
+        final String key = getKey(repository, doi, url);
+        final CachedPage entry = entries.get(key);
+        if(entry == null)
+            return null;
+        if(isExpired(entry)){
+            entries.remove(key);
+            return null;
+        }
+        return entry.page;
+    }
+
+    /**
+     * Caches the information of a paper page.
+     * Pages where the access is allowed but the PDF URL wasn't found
+     * aren't cached, since they may be a temporary failure.
+     *
+     * @param repository the repository where the paper is hosted
+     * @param doi the paper DOI (that may be empty)
+     * @param page the information extracted from the paper page
+     */
+    public synchronized void put(final PaperRepository repository, final String doi, final PaperPage page) {
+        if(page.isAccessAllowed() && StringUtils.isBlank(page.getPdfUrl()))
+            return;
+        entries.put(getKey(repository, doi, page.getUrl()), new CachedPage(System.currentTimeMillis(), page));
+    }
+
+    /**
+     * Removes the information of a paper page from the cache,
+     * for instance, when the cached PDF URL doesn't work anymore.
+     *
+     * @param repository the repository where the paper is hosted
+     * @param doi the paper DOI (that may be empty)
+     * @param url the URL of the paper page
+     */
+    public synchronized void remove(final PaperRepository repository, final String doi, final String url) {
+        entries.remove(getKey(repository, doi, url));
+    }
+
+    /**
+     * Writes the cache entries to the cache file,
+     * using a temporary file that is atomically renamed to the cache file.
+     * @throws IOException when the cache file cannot be written
+     */
+    public synchronized void save() throws IOException {
+        final Path tempFile = FileSystemUtils.getTemporaryFile(file);
+        try (final BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, CachedPage> e : entries.entrySet()) {
+                final PaperPage page = e.getValue().page;
+                writer.write(e.getKey() + SEPARATOR + e.getValue().time + SEPARATOR +
+                        page.getUrl() + SEPARATOR + page.isAccessAllowed() + SEPARATOR + page.getPdfUrl());
+                writer.newLine();
+            }
+        }
+        FileSystemUtils.moveAtomically(tempFile, file);
+    }
+
+    /**
+     * @return the number of cached entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private boolean isExpired(final CachedPage entry) {
+        final long ttl = entry.page.isAccessAllowed() ? ttlMillis : negativeTtlMillis;
+        return System.currentTimeMillis() - entry.time > ttl;
+    }
+
+    private static String getKey(final PaperRepository repository, final String doi, final String url) {
+        final String id = StringUtils.isBlank(doi) ? url : doi.trim().toLowerCase();
+        return (repository.getClass().getName() + " " + id).replace(SEPARATOR, " ");
+    }
+
+    private static class CachedPage {
+        private final long time;
+        private final PaperPage page;
+
+        CachedPage(final long time, final PaperPage page) {
+            this.time = time;
+            this.page = page;
+        }
+    }
+}
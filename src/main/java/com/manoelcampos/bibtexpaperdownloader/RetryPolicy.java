@@ -0,0 +1,150 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import java.io.EOFException;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.NoRouteToHostException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Classifies the failures of paper downloads and defines which ones are retried
+ * and how long to wait before each retry, using exponential backoff with jitter:
+ * the n-th retry waits a random time between half and the whole of
+ * {@code initialDelay * 2^(n-1)}, limited to a maximum delay.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class RetryPolicy {
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    public static final long DEFAULT_INITIAL_DELAY_MILLIS = 2000;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 60000;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * The kinds of failures of a paper download.
+     */
+    public enum Failure {
+        /** The connection or the response took too long. */
+        TIMEOUT(true, true),
+        /** The connection failed or was closed before the response was complete. */
+        CONNECTION(true, true),
+        /** The repository asked to slow down (HTTP 429). */
+        THROTTLED(true, true),
+        /** The repository is unavailable or failed (HTTP 5xx). */
+        SERVER_ERROR(true, true),
+        /** The access to the paper isn't allowed (HTTP 401 or 403). */
+        PAYWALL(false, false),
+        /** The PDF URL wasn't found in the paper page or didn't give a PDF file. */
+        PARSE(true, false),
+        /** Any other failure, such as a missing page or a local I/O error. */
+        OTHER(false, false);
+
+        private final boolean retryable;
+        private final boolean repositoryFailure;
+
+        Failure(final boolean retryable, final boolean repositoryFailure) {
+            this.retryable = retryable;
+            this.repositoryFailure = repositoryFailure;
+        }
+
+        /**
+         * @return true if the download may succeed if tried again, false otherwise
+         */
+        public boolean isRetryable() {
+            return retryable;
+        }
+
+        /**
+         * @return true if the failure means the repository is down or overloaded,
+         * false if the repository answered the request
+         * @see CircuitBreaker
+         */
+        public boolean isRepositoryFailure() {
+            return repositoryFailure;
+        }
+    }
+
+    private final int maxRetries;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+
+    /**
+     * Creates a policy with default delays and number of retries.
+     */
+    public RetryPolicy() {
+        this(DEFAULT_MAX_RETRIES, DEFAULT_INITIAL_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     *
+     * @param maxRetries maximum number of times a failed download is tried again
+     * @param initialDelayMillis base time (in milliseconds) to wait before the first retry
+     * @param maxDelayMillis maximum time (in milliseconds) to wait before a retry
+     */
+    public RetryPolicy(final int maxRetries, final long initialDelayMillis, final long maxDelayMillis) {
+        this.maxRetries = Math.max(0, maxRetries);
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Classifies a failure, looking at the exception and its causes.
+     * @param error the exception thrown by the download
+     * @return the kind of failure
+     */
+    public static Failure classify(final Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            if(e instanceof SocketTimeoutException)
+                return Failure.TIMEOUT;
+            if(e instanceof PdfUrlNotFoundException || e instanceof NotPdfFileException)
+                return Failure.PARSE;
+            if(e instanceof HttpStatusException)
+                return classify(((HttpStatusException)e).getStatusCode());
+            if(e instanceof ConnectException || e instanceof NoRouteToHostException ||
+               e instanceof UnknownHostException || e instanceof SocketException || e instanceof EOFException)
+                return Failure.CONNECTION;
+        }
+        return Failure.OTHER;
+    }
+
+    private static Failure classify(final int statusCode) {
+        if(statusCode == HTTP_TOO_MANY_REQUESTS)
+            return Failure.THROTTLED;
+        if(statusCode == HttpURLConnection.HTTP_UNAUTHORIZED || statusCode == HttpURLConnection.HTTP_FORBIDDEN)
+            return Failure.PAYWALL;
+        if(statusCode >= HttpURLConnection.HTTP_INTERNAL_ERROR)
+            return Failure.SERVER_ERROR;
+        return Failure.OTHER;
+    }
+
+    /**
+     * Checks if a failed download has to be tried again.
+     * @param failure the kind of failure
+     * @param attempt the number of the attempt that failed (starting from 1)
+     * @return true if the download has to be tried again, false otherwise
+     */
+    public boolean shouldRetry(final Failure failure, final int attempt) {
+        return failure.isRetryable() && attempt <= maxRetries;
+    }
+
+    /**
+     * Gets the time to wait before trying a failed download again.
+     * @param attempt the number of the attempt that failed (starting from 1)
+     * @return the time to wait (in milliseconds)
+     */
+    public long getDelayMillis(final int attempt) {
+        final long exponential = initialDelayMillis << Math.min(attempt - 1, 30);
+        final long delay = Math.min(maxDelayMillis, exponential < 0 ? maxDelayMillis : exponential);
+        return delay/2 + ThreadLocalRandom.current().nextLong(delay/2 + 1);
+    }
+
+    /**
+     * @return the maximum number of times a failed download is tried again
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+}
@@ -0,0 +1,187 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import com.manoelcampos.bibtexpaperdownloader.repository.PaperRepository;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads papers using a pool of threads for each paper repository, 
+ * so that the papers of different repositories are downloaded in parallel
+ * and a slow or failing repository doesn't delay the other ones.
+ * Failed downloads are tried again according to a {@link RetryPolicy}. A failed download is put back in the queue
+ * to be tried after a delay, so that the threads keep downloading other papers meanwhile.
+ * Downloads are tried just when the {@link CircuitBreaker} of the paper repository
+ * allows and fail immediately if the repository is considered down.
+ *
+ * <p>A failure that isn't retryable (or a retryable one after the maximum number of retries)
+ * just makes the paper not to be downloaded. An unexpected exception (such as a
+ * {@link RuntimeException}) stops the downloads not started yet.</p>
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+class RetryScheduler implements Closeable {
+    private final BibTexPapersDownloader bibtex;
+    private final RetryPolicy policy;
+    private final Map<PaperRepository, ScheduledExecutorService> executors = new HashMap<>();
+    private volatile boolean aborted;
+
+    RetryScheduler(final BibTexPapersDownloader bibtex, final RetryPolicy policy) {
+        this.bibtex = bibtex;
+        this.policy = policy;
+    }
+
+    private synchronized ScheduledExecutorService getExecutor(final PaperRepository repository) {
+        ScheduledExecutorService executor = executors.get(repository);
+        if(executor == null){
+            executor = bibtex.newDownloaderScheduler(repository.toString());
+            executors.put(repository, executor);
+        }
+        return executor;
+    }
+
+    /**
+     * Queues a paper to be downloaded.
+     * @param paper the paper to download
+     * @return a future that gives true if the paper was downloaded
+     * or false if it couldn't be downloaded (even after retries)
+     */
+    Future<Boolean> submit(final Paper paper) {
+        DownloadMetrics.getDefault().queued();
+        final Result result = new Result();
+        getExecutor(paper.getRepository()).execute(new Attempt(paper, 1, result));
+        return result;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (ScheduledExecutorService executor : executors.values()) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * An attempt to download a paper.
+     */
+    private class Attempt implements Runnable {
+        private final Paper paper;
+        private final int number;
+        private final Result result;
+        private final ScheduledExecutorService executor;
+
+        Attempt(final Paper paper, final int number, final Result result) {
+            this.paper = paper;
+            this.number = number;
+            this.result = result;
+            this.executor = getExecutor(paper.getRepository());
+        }
+
+        @Override
+        public void run() {
+            if(aborted){
+                recordFailure();
+                result.complete(false);
+                return;
+            }
+
+            final CircuitBreaker breaker = paper.getRepository().getCircuitBreaker();
+            final long wait = breaker.getDelayMillis();
+            if(wait > 0){
+                executor.schedule(this, wait, TimeUnit.MILLISECONDS);
+                return;
+            }
+
+            try {
+                if(wait == CircuitBreaker.GIVEN_UP)
+                    skip();
+                else download(breaker);
+            } catch(IOException | RuntimeException | Error e) {
+                aborted = true;
+                recordFailure();
+                result.fail(e);
+            }
+        }
+
+        private void download(final CircuitBreaker breaker) throws IOException {
+            boolean recorded = false;
+            try {
+                final JobJournal.State state = bibtex.downloadPaper(paper);
+                //just a verdict of the repository shows it's working (a paper claimed by another worker wasn't tried)
+                if(state != null && state.isFinished()){
+                    breaker.record(false);
+                    recorded = true;
+                }
+                result.complete(state == JobJournal.State.DONE);
+            } catch(IOException e) {
+                final RetryPolicy.Failure failure = RetryPolicy.classify(e);
+                breaker.record(failure.isRepositoryFailure());
+                recorded = true;
+                if(policy.shouldRetry(failure, number)){
+                    final long delay = policy.getDelayMillis(number);
+                    System.out.printf("Paper %s failed (%s: %s). Retrying in %.1f seconds (%d of %d retries)\n",
+                            paper.getId(), failure, e.getMessage(), delay/1000.0, number, policy.getMaxRetries());
+                    executor.schedule(new Attempt(paper, number + 1, result), delay, TimeUnit.MILLISECONDS);
+                } else {
+                    //a paywalled paper is recorded by the downloader
+                    if(failure != RetryPolicy.Failure.PAYWALL)
+                        recordFailure();
+                    giveUp(failure + ": " + e.getMessage());
+                }
+            } finally {
+                //a trial download without a verdict cannot keep the other downloads waiting
+                if(!recorded)
+                    breaker.cancelTrial();
+            }
+        }
+
+        /**
+         * Doesn't try to download the paper since its repository is considered down,
+         * recording it as failed so that it's tried again when the run is resumed.
+         */
+        private void skip() throws IOException {
+            final JobJournal jobs = bibtex.getJobJournal();
+            if(jobs != null)
+                jobs.update(paper.getId(), JobJournal.State.FAILED, null);
+            recordFailure();
+            giveUp("the repository " + paper.getRepository() + " seems to be down");
+        }
+
+        private void recordFailure() {
+            DownloadMetrics.getDefault().record(paper.getRepository(), DownloadMetrics.Outcome.FAILED);
+        }
+
+        private void giveUp(final String reason) {
+            System.out.printf("Paper %s couldn't be downloaded (%s)\n", paper.getId(), reason);
+            result.complete(false);
+        }
+    }
+
+    /**
+     * The result of all attempts to download a paper.
+     */
+    private static class Result extends FutureTask<Boolean> {
+        Result() {
+            super(new Runnable() {
+                @Override
+                public void run() {
+                    //the result is set by the attempts
+                }
+            }, null);
+        }
+
+        void complete(final boolean downloaded) {
+            DownloadMetrics.getDefault().dequeued();
+            set(downloaded);
+        }
+
+        void fail(final Throwable error) {
+            DownloadMetrics.getDefault().dequeued();
+            setException(error);
+        }
+    }
+}
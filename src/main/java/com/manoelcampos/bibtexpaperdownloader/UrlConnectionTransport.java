@@ -0,0 +1,152 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A {@link HttpTransport} built on the JDK {@link HttpURLConnection}.
+ * Connections are kept alive and reused by the JDK after a response body is
+ * fully read and closed (the size of the pool of idle connections
+ * for each host is defined by the http.maxConnections system property).
+ * Responses are requested with gzip or deflate compression, unless the
+ * request defines the Accept-Encoding header.
+ * Connect and read timeouts ensure a stalled server doesn't hang a download forever.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class UrlConnectionTransport implements HttpTransport {
+    public static final String DEFAULT_USER_AGENT = "Mozilla/5.0 (Windows NT 5.1; rv:31.0) Gecko/20100101 Firefox/31.0";
+    public static final int DEFAULT_CONNECT_TIMEOUT_SECONDS = 30;
+    public static final int DEFAULT_READ_TIMEOUT_SECONDS = 60;
+    private static final String ACCEPT_ENCODING = "Accept-Encoding";
+
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final String userAgent;
+
+    public UrlConnectionTransport() {
+        this(DEFAULT_CONNECT_TIMEOUT_SECONDS, DEFAULT_READ_TIMEOUT_SECONDS);
+    }
+
+    /**
+     *
+     * @param connectTimeoutSeconds maximum time to wait for a connection to be established
+     * @param readTimeoutSeconds maximum time to wait for data when reading a response
+     */
+    public UrlConnectionTransport(final int connectTimeoutSeconds, final int readTimeoutSeconds) {
+        this(connectTimeoutSeconds, readTimeoutSeconds, DEFAULT_USER_AGENT);
+    }
+
+    /**
+     *
+     * @param connectTimeoutSeconds maximum time to wait for a connection to be established
+     * @param readTimeoutSeconds maximum time to wait for data when reading a response
+     * @param userAgent the User-Agent header sent in every request
+     */
+    public UrlConnectionTransport(final int connectTimeoutSeconds, final int readTimeoutSeconds, final String userAgent) {
+        this.connectTimeoutMillis = (int)TimeUnit.SECONDS.toMillis(connectTimeoutSeconds);
+        this.readTimeoutMillis = (int)TimeUnit.SECONDS.toMillis(readTimeoutSeconds);
+        this.userAgent = userAgent;
+    }
+
+    @Override
+    public Response get(final URL url, final Map<String, String> headers) throws IOException {
+        final URLConnection conn = url.openConnection();
+        conn.setConnectTimeout(connectTimeoutMillis);
+        conn.setReadTimeout(readTimeoutMillis);
+        conn.addRequestProperty("User-Agent", userAgent);
+        if(!headers.containsKey(ACCEPT_ENCODING))
+            conn.addRequestProperty(ACCEPT_ENCODING, "gzip, deflate");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            conn.setRequestProperty(header.getKey(), header.getValue());
+        }
+        conn.connect();
+        return new UrlConnectionResponse(conn);
+    }
+
+    /**
+     * @return the maximum time (in milliseconds) to wait for a connection to be established
+     */
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    /**
+     * @return the maximum time (in milliseconds) to wait for data when reading a response
+     */
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    private static class UrlConnectionResponse implements Response {
+        private final URLConnection conn;
+        private final int statusCode;
+        private InputStream body;
+
+        UrlConnectionResponse(final URLConnection conn) throws IOException {
+            this.conn = conn;
+            this.statusCode = conn instanceof HttpURLConnection ?
+                    ((HttpURLConnection)conn).getResponseCode() : HttpURLConnection.HTTP_OK;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        @Override
+        public String getHeader(final String name) {
+            return conn.getHeaderField(name);
+        }
+
+        @Override
+        public long getContentLength() {
+            final String encoding = conn.getContentEncoding();
+            if(encoding != null && !"identity".equalsIgnoreCase(encoding))
+                return -1;
+            final String length = conn.getHeaderField("Content-Length");
+            try {
+                return length == null ? -1 : Long.parseLong(length.trim());
+            } catch(NumberFormatException e){
+                return -1;
+            }
+        }
+
+        @Override
+        public synchronized InputStream getBody() throws IOException {
+            if(body == null)
+                body = decode(openBody());
+            return body;
+        }
+
+        private InputStream openBody() throws IOException {
+            if(statusCode >= HttpURLConnection.HTTP_BAD_REQUEST){
+                final InputStream error = ((HttpURLConnection)conn).getErrorStream();
+                return error == null ? new ByteArrayInputStream(new byte[0]) : error;
+            }
+            return conn.getInputStream();
+        }
+
+        private InputStream decode(final InputStream is) throws IOException {
+            final String encoding = conn.getContentEncoding();
+            if("gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding))
+                return new GZIPInputStream(is);
+            if("deflate".equalsIgnoreCase(encoding))
+                return new InflaterInputStream(is);
+            return is;
+        }
+
+        @Override
+        public void close() throws IOException {
+            getBody().close();
+        }
+    }
+}
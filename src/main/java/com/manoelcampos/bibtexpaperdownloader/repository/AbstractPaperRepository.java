@@ -1,7 +1,16 @@
 package com.manoelcampos.bibtexpaperdownloader.repository;
 
 import com.manoelcampos.bibtexpaperdownloader.BibTexPapersDownloader;
+import com.manoelcampos.bibtexpaperdownloader.CircuitBreaker;
+import com.manoelcampos.bibtexpaperdownloader.HostRateLimiter;
+import com.manoelcampos.bibtexpaperdownloader.HttpUtils;
+import com.manoelcampos.bibtexpaperdownloader.MetadataApi;
+import com.manoelcampos.bibtexpaperdownloader.MetadataEnricher;
 import com.manoelcampos.bibtexpaperdownloader.Paper;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.apache.commons.lang.StringUtils;
 import org.jbibtex.BibTeXEntry;
 
 /**
@@ -9,17 +18,92 @@ import org.jbibtex.BibTeXEntry;
  * @author Manoel Campos da Silva Filho <manoelcampos at gmail.com>
  */
 public abstract class AbstractPaperRepository implements PaperRepository {
+    public static final double DEFAULT_MAX_REQUESTS_PER_SECOND = 2;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
 
+    private HostRateLimiter rateLimiter;
+    private CircuitBreaker circuitBreaker;
+
+    /**
+     * {@inheritDoc}
+     * Missing fields are left empty (or null, for an invalid year), 
+     * but a paper cannot be created for an entry that has neither a DOI nor a URL.
+     * @see MetadataEnricher
+     */
     @Override
     public Paper getPaperInstance(final BibTexPapersDownloader bibtex, final BibTeXEntry bibEntry) {
+        final String doi = MetadataEnricher.getFieldValue(bibEntry, BibTeXEntry.KEY_DOI).trim();
+        if(doi.isEmpty() && StringUtils.isBlank(MetadataEnricher.getFieldValue(bibEntry, BibTeXEntry.KEY_URL))){
+            System.out.println("Paper " + bibEntry.getKey() + " has neither a DOI nor a URL to be downloaded.");
+            return null;
+        }
+
         Paper paper = new Paper(this, bibtex, bibEntry);
         paper.setId(bibEntry.getKey().toString());
-        paper.setTitle(bibEntry.getField(BibTeXEntry.KEY_TITLE).toUserString());
-        paper.setDoi(bibEntry.getField(BibTeXEntry.KEY_DOI).toUserString());
-        paper.setYear(Integer.parseInt(bibEntry.getField(BibTeXEntry.KEY_YEAR).toUserString()));
+        paper.setTitle(MetadataEnricher.getFieldValue(bibEntry, BibTeXEntry.KEY_TITLE));
+        paper.setDoi(doi);
+        paper.setYear(MetadataEnricher.parseYear(MetadataEnricher.getFieldValue(bibEntry, BibTeXEntry.KEY_YEAR)));
         return paper;
     }
     
+    /**
+     * {@inheritDoc}
+     * By default, the current {@link MetadataApi} is used.
+     */
+    @Override
+    public String getMetadataUrl(final String doi) {
+        return MetadataApi.getMetadataUrl(doi);
+    }
+
+    @Override
+    public Pattern getPatternToIdentifyUnallowedPaperAccess() {
+        return HttpUtils.compilePattern(getRegexToIdentifyUnallowedPaperAccess());
+    }
+
+    @Override
+    public Pattern getPatternToExtractPdfUrlFromPaperWebPage() {
+        return HttpUtils.compilePattern(getRegexToExtractPdfUrlFromPaperWebPage());
+    }
+
+    @Override
+    public double getMaxRequestsPerSecond() {
+        return DEFAULT_MAX_REQUESTS_PER_SECOND;
+    }
+
+    @Override
+    public int getMaxConnectionsPerHost() {
+        return DEFAULT_MAX_CONNECTIONS_PER_HOST;
+    }
+
+    @Override
+    public synchronized HostRateLimiter getRateLimiter() {
+        if(rateLimiter == null)
+            rateLimiter = new HostRateLimiter(getMaxRequestsPerSecond(), getMaxConnectionsPerHost());
+        return rateLimiter;
+    }
+
+    @Override
+    public synchronized CircuitBreaker getCircuitBreaker() {
+        if(circuitBreaker == null)
+            circuitBreaker = new CircuitBreaker();
+        return circuitBreaker;
+    }
+
+    @Override
+    public List<String> getDoiPrefixes() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<String> getHosts() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<String> getPublishers() {
+        return Collections.emptyList();
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName();
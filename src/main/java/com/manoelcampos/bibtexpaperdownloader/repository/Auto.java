@@ -0,0 +1,108 @@
+package com.manoelcampos.bibtexpaperdownloader.repository;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import org.jbibtex.BibTeXEntry;
+import org.jbibtex.Key;
+import org.jbibtex.Value;
+
+/**
+ * Routes each paper of a bibtex file to the repository hosting it,
+ * so that a bibtex file containing papers from different publishers
+ * can be downloaded in a single run.
+ * The repository of a paper is identified, in this order, by its DOI prefix,
+ * the host of its URL or its publisher field.
+ * Papers whose repository cannot be identified are not downloaded.
+ *
+ * <p>The papers are created by the identified repositories,
+ * so that each repository has its own rate limit, circuit breaker and download threads.</p>
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ * @see PaperRepository#getDoiPrefixes()
+ * @see PaperRepository#getHosts()
+ * @see PaperRepository#getPublishers()
+ */
+public class Auto implements RepositoryRouter {
+    private static final Key KEY_PUBLISHER = new Key("publisher");
+
+    private final List<PaperRepository> repositories;
+
+    /**
+     * Creates a router for all the repositories in the default {@link PaperRepositoryRegistry}.
+     */
+    public Auto() {
+        this(PaperRepositoryRegistry.getDefault().getRepositories());
+    }
+
+    /**
+     * Creates a router for a list of repositories.
+     * @param repositories the repositories where the papers can be downloaded from.
+     * Repositories added to the list later are also used.
+     */
+    public Auto(final List<PaperRepository> repositories) {
+        this.repositories = Collections.unmodifiableList(repositories);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The repository is identified, in this order, by the DOI prefix,
+     * the URL host or the publisher field of the entry.
+     */
+    @Override
+    public PaperRepository route(final BibTeXEntry bibEntry) {
+        final String doi = getFieldValue(bibEntry, BibTeXEntry.KEY_DOI);
+        for (PaperRepository repository : repositories) {
+            for (String prefix : repository.getDoiPrefixes()) {
+                if(doi.startsWith(prefix.toLowerCase(Locale.ENGLISH) + "/"))
+                    return repository;
+            }
+        }
+
+        final String host = getHost(getFieldValue(bibEntry, BibTeXEntry.KEY_URL));
+        for (PaperRepository repository : repositories) {
+            for (String repositoryHost : repository.getHosts()) {
+                final String h = repositoryHost.toLowerCase(Locale.ENGLISH);
+                if(host.equals(h) || host.endsWith("." + h))
+                    return repository;
+            }
+        }
+
+        final String publisher = getFieldValue(bibEntry, KEY_PUBLISHER);
+        for (PaperRepository repository : repositories) {
+            for (String name : repository.getPublishers()) {
+                if(publisher.contains(name.toLowerCase(Locale.ENGLISH)))
+                    return repository;
+            }
+        }
+        return null;
+    }
+
+    private static String getFieldValue(final BibTeXEntry bibEntry, final Key key) {
+        final Value value = bibEntry.getField(key);
+        return value == null ? "" : value.toUserString().trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    private static String getHost(final String url) {
+        try {
+            final String host = new URL(url).getHost();
+            return host == null ? "" : host;
+        } catch (MalformedURLException e) {
+            return "";
+        }
+    }
+
+    /**
+     * @return the repositories where the papers can be downloaded from
+     */
+    public List<PaperRepository> getRepositories() {
+        return repositories;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName();
+    }
+}
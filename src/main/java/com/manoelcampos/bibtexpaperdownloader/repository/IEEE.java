@@ -1,5 +1,8 @@
 package com.manoelcampos.bibtexpaperdownloader.repository;
 
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Implements an interface to get the URL of papers from IEEE repository.
  * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
@@ -17,9 +20,29 @@ public class IEEE extends AbstractPaperRepository {
         return "<a tabindex=\"0\" class=\"pdf\">Full Text <b>Sign-In or Purchase<\\/b><\\/a>";
     }
 
+    /**
+     * {@inheritDoc}
+     * The URL is matched only up to the closing quote of the src attribute,
+     * avoiding the backtracking of greedy wildcards over the whole page.
+     */
     @Override
     public String getRegexToExtractPdfUrlFromPaperWebPage() {
         return
-            "<frame src=\"(http:\\/\\/ieeexplore\\.ieee\\.org\\/.*\\.pdf.*arnumber=.*)\" frameborder=";
-    }    
+            "<frame src=\"(http:\\/\\/ieeexplore\\.ieee\\.org\\/[^\"]*\\.pdf[^\"]*arnumber=[^\"]*)\" frameborder=";
+    }
+
+    @Override
+    public List<String> getDoiPrefixes() {
+        return Arrays.asList("10.1109");
+    }
+
+    @Override
+    public List<String> getHosts() {
+        return Arrays.asList("ieeexplore.ieee.org");
+    }
+
+    @Override
+    public List<String> getPublishers() {
+        return Arrays.asList("IEEE");
+    }
 }
@@ -1,7 +1,12 @@
 package com.manoelcampos.bibtexpaperdownloader.repository;
 
 import com.manoelcampos.bibtexpaperdownloader.BibTexPapersDownloader;
+import com.manoelcampos.bibtexpaperdownloader.CircuitBreaker;
+import com.manoelcampos.bibtexpaperdownloader.HostRateLimiter;
+import com.manoelcampos.bibtexpaperdownloader.MetadataApi;
 import com.manoelcampos.bibtexpaperdownloader.Paper;
+import java.util.List;
+import java.util.regex.Pattern;
 import org.jbibtex.BibTeXEntry;
 
 /**
@@ -9,9 +14,81 @@ import org.jbibtex.BibTeXEntry;
  * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
  */
 public interface PaperRepository {
+    /**
+     * Creates a paper for a bibtex entry.
+     * @param bibtex the downloader of the bibtex file containing the entry
+     * @param bibEntry the bibtex entry
+     * @return the paper or null if the paper of the entry cannot be downloaded from the repository
+     */
     Paper getPaperInstance(final BibTexPapersDownloader bibtex, final BibTeXEntry bibEntry);
     @Override
     String toString();
     String getRegexToIdentifyUnallowedPaperAccess();
     String getRegexToExtractPdfUrlFromPaperWebPage();
+
+    /**
+     * Gets the URL of a JSON metadata endpoint that gives the PDF URL of a paper,
+     * so that the paper page doesn't need to be scraped.
+     * @param doi the paper DOI (that may be empty)
+     * @return the metadata URL or null if the PDF URL has to be got from the paper page
+     * @see MetadataApi
+     */
+    String getMetadataUrl(final String doi);
+
+    /**
+     * @return the compiled version of {@link #getRegexToIdentifyUnallowedPaperAccess()},
+     * that is compiled just once
+     */
+    Pattern getPatternToIdentifyUnallowedPaperAccess();
+
+    /**
+     * @return the compiled version of {@link #getRegexToExtractPdfUrlFromPaperWebPage()},
+     * that is compiled just once
+     */
+    Pattern getPatternToExtractPdfUrlFromPaperWebPage();
+
+    /**
+     * @return the maximum number of requests per second that can be sent
+     * to each host of the repository, without tripping its abuse detection.
+     * A value lower or equal to zero means no limit.
+     */
+    double getMaxRequestsPerSecond();
+
+    /**
+     * @return the maximum number of simultaneous connections to each host of the repository.
+     * A value lower or equal to zero means no limit.
+     */
+    int getMaxConnectionsPerHost();
+
+    /**
+     * @return the limiter used to pace all the requests sent to the repository
+     */
+    HostRateLimiter getRateLimiter();
+
+    /**
+     * @return the circuit breaker that stops the downloads from the repository
+     * when it seems to be down
+     */
+    CircuitBreaker getCircuitBreaker();
+
+    /**
+     * @return the prefixes of the DOIs of the papers hosted by the repository
+     * (such as 10.1109 for IEEE), used to identify the repository of a paper
+     * @see Auto
+     */
+    List<String> getDoiPrefixes();
+
+    /**
+     * @return the names of the hosts of the paper pages in the repository,
+     * used to identify the repository of a paper by its URL
+     * @see Auto
+     */
+    List<String> getHosts();
+
+    /**
+     * @return the names of the publishers whose papers are hosted by the repository,
+     * used to identify the repository of a paper by its publisher field
+     * @see Auto
+     */
+    List<String> getPublishers();
 }
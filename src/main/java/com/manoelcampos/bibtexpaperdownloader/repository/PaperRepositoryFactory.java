@@ -1,7 +1,11 @@
 package com.manoelcampos.bibtexpaperdownloader.repository;
 
+import org.jbibtex.BibTeXEntry;
+
 /**
  * Get instances of paper repositories.
+ * Repositories are got from the {@link PaperRepositoryRegistry}, so that the same instance
+ * is shared by all the bibtex files being downloaded.
  * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
  */
 public class PaperRepositoryFactory {
@@ -26,8 +30,46 @@ public class PaperRepositoryFactory {
         }
     }
     
+    /**
+     * Gets a router by its name, which may be the name of a router registered in the
+     * {@link PaperRepositoryRegistry} (such as {@link Auto}) or of a single repository,
+     * in which case all papers are routed to that repository.
+     * @param name the name of the router or repository
+     * @return
+     * @throws ClassNotFoundException
+     * @throws InstantiationException 
+     * @see #getInstance(java.lang.String) 
+     */
+    public static RepositoryRouter getRouter(final String name) throws ClassNotFoundException, InstantiationException {
+        final RepositoryRouter router = PaperRepositoryRegistry.getDefault().getRouter(name);
+        return router == null ? getRouter(getInstance(name)) : router;
+    }
+
+    /**
+     * Gets a router that sends all papers to a single repository.
+     * @param repository the repository where all papers have to be downloaded from
+     * @return 
+     */
+    public static RepositoryRouter getRouter(final PaperRepository repository) {
+        return new RepositoryRouter() {
+            @Override
+            public PaperRepository route(final BibTeXEntry bibEntry) {
+                return repository;
+            }
+
+            @Override
+            public String toString() {
+                return repository.toString();
+            }
+        };
+    }
+
     /**
      * Gets an instance of a repository by its class name.
+     * If the repository wasn't discovered by the {@link PaperRepositoryRegistry},
+     * its class is looked for inside the package of the {@link PaperRepository} interface
+     * (or using the given name as a full class name) and the instantiated repository
+     * is registered for the next calls.
      * 
      * @param repositoryClassName Name of the class repository.
      * @return The instantiated repository
@@ -38,13 +80,23 @@ public class PaperRepositoryFactory {
      * the repository class doesn't have a default public constructor.
      */  
     private static PaperRepository getInstanceInternal(final String repositoryClassName) throws ClassNotFoundException, InstantiationException, IllegalAccessException {
+        final PaperRepositoryRegistry registry = PaperRepositoryRegistry.getDefault();
+        final PaperRepository repository = registry.get(repositoryClassName);
+        if(repository != null)
+            return repository;
+
         Class<?> klass = getRepositoryClass(repositoryClassName);
-        return (PaperRepository)klass.newInstance();
+        if(!PaperRepository.class.isAssignableFrom(klass))
+            throw new ClassNotFoundException(klass.getName() + " isn't a " + PaperRepository.class.getSimpleName());
+        return registry.register((PaperRepository)klass.newInstance());
     }
 
     private static Class<?> getRepositoryClass(final String repositoryName) throws ClassNotFoundException {
-        Class<?> klass = Class.forName(getRepositoryClassName(repositoryName));
-        return klass;
+        try {
+            return Class.forName(getRepositoryClassName(repositoryName));
+        } catch(ClassNotFoundException e){
+            return Class.forName(repositoryName);
+        }
     }
 
     private static String getRepositoryClassName(final String repositoryName) {
@@ -0,0 +1,134 @@
+package com.manoelcampos.bibtexpaperdownloader.repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A registry of the available paper repositories, whose instances are created just once
+ * and shared by all the bibtex files being downloaded.
+ *
+ * <p>Repositories are discovered using a {@link ServiceLoader}: any jar in the classpath
+ * can provide new repositories by listing their classes in a
+ * {@code META-INF/services/com.manoelcampos.bibtexpaperdownloader.repository.PaperRepository} file.
+ * The patterns of each repository are compiled when it's registered,
+ * so that they're ready when the downloads start.</p>
+ *
+ * <p>Besides the discovered repositories, the registry has an {@link Auto} router
+ * that routes each paper to the discovered repository hosting it.</p>
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class PaperRepositoryRegistry {
+    private final List<PaperRepository> repositories = new CopyOnWriteArrayList<>();
+    private final Map<String, PaperRepository> repositoriesByName = new ConcurrentHashMap<>();
+    private final Auto auto;
+
+    /**
+     * Holds the default registry, that is created the first time it's used.
+     */
+    private static class DefaultRegistry {
+        private static final PaperRepositoryRegistry INSTANCE =
+                new PaperRepositoryRegistry(ServiceLoader.load(PaperRepository.class));
+    }
+
+    /**
+     * Creates a registry for some repositories.
+     * @param providers the repositories to register
+     * (such as the ones provided by a {@link ServiceLoader})
+     */
+    public PaperRepositoryRegistry(final Iterable<PaperRepository> providers) {
+        final Iterator<PaperRepository> iterator = providers.iterator();
+        while(true){
+            try {
+                if(!iterator.hasNext())
+                    break;
+                register(iterator.next());
+            } catch(ServiceConfigurationError e){
+                System.err.println("A paper repository couldn't be loaded: " + e.getMessage());
+            }
+        }
+        this.auto = new Auto(Collections.unmodifiableList(repositories));
+    }
+
+    /**
+     * @return the registry of the repositories found in the classpath
+     */
+    public static PaperRepositoryRegistry getDefault() {
+        return DefaultRegistry.INSTANCE;
+    }
+
+    /**
+     * Registers a repository, compiling its patterns.
+     * A repository can be got by its simple or full class name.
+     * @param repository the repository to register
+     * @return the registered repository or the one previously registered with the same class
+     */
+    public final PaperRepository register(final PaperRepository repository) {
+        final String className = repository.getClass().getName();
+        final PaperRepository registered = repositoriesByName.get(getKey(className));
+        if(registered != null)
+            return registered;
+
+        repository.getPatternToIdentifyUnallowedPaperAccess();
+        repository.getPatternToExtractPdfUrlFromPaperWebPage();
+        repositoriesByName.put(getKey(className), repository);
+        final String simpleName = getKey(repository.getClass().getSimpleName());
+        if(!repositoriesByName.containsKey(simpleName))
+            repositoriesByName.put(simpleName, repository);
+        repositories.add(repository);
+        return repository;
+    }
+
+    /**
+     * Gets a registered repository.
+     * @param name the simple or full class name of the repository (case insensitive)
+     * @return the repository or null if there isn't a repository with the given name
+     */
+    public PaperRepository get(final String name) {
+        return repositoriesByName.get(getKey(name));
+    }
+
+    /**
+     * Gets a router for the registered repositories.
+     * @param name the simple or full class name of the router (case insensitive)
+     * @return the router or null if there isn't a router with the given name
+     * @see Auto
+     */
+    public RepositoryRouter getRouter(final String name) {
+        final String key = getKey(name);
+        if(key.equals(getKey(auto.toString())) || key.equals(getKey(Auto.class.getName())))
+            return auto;
+        return null;
+    }
+
+    /**
+     * @return the registered repositories
+     */
+    public List<PaperRepository> getRepositories() {
+        return Collections.unmodifiableList(repositories);
+    }
+
+    /**
+     * @return the names of the registered repositories and of the {@link Auto} router
+     */
+    public List<String> getNames() {
+        final List<String> names = new ArrayList<>(repositories.size() + 1);
+        for (PaperRepository repository : repositories) {
+            names.add(repository.getClass().getSimpleName());
+        }
+        names.add(auto.toString());
+        return names;
+    }
+
+    private static String getKey(final String name) {
+        return name.trim().toLowerCase(Locale.ENGLISH);
+    }
+}
@@ -0,0 +1,20 @@
+package com.manoelcampos.bibtexpaperdownloader.repository;
+
+import org.jbibtex.BibTeXEntry;
+
+/**
+ * Identifies the repository where the paper of each bibtex entry has to be downloaded from.
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ * @see Auto
+ * @see PaperRepositoryFactory#getRouter(PaperRepository)
+ */
+public interface RepositoryRouter {
+    /**
+     * Identifies the repository hosting the paper of a bibtex entry.
+     * @param bibEntry the bibtex entry
+     * @return the repository or null if it cannot be identified
+     */
+    PaperRepository route(final BibTeXEntry bibEntry);
+    @Override
+    String toString();
+}
@@ -0,0 +1,106 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests how {@link BibTeXWriteBack} journals the changes of the fields of bibtex entries
+ * and applies them to the bibtex file on checkpoints.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class BibTeXWriteBackTest {
+    private static final String FIRST = "@article{first,\n  title = \"First\",\n  url = {http://old}\n}";
+    private static final String SECOND = "@Article{second, title={Second}}";
+    private static final String CONTENT = "% papers\n" + FIRST + "\n\n" + SECOND + "\n";
+
+    private static Path createBibFile(final Path dir, final String content) throws IOException {
+        final Path bibFile = dir.resolve("papers.bib");
+        Files.write(bibFile, content.getBytes(StandardCharsets.UTF_8));
+        return bibFile;
+    }
+
+    private static String read(final Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    private static Path getJournalFile(final Path bibFile) {
+        return bibFile.resolveSibling(bibFile.getFileName() + ".journal");
+    }
+
+    @Test
+    public void checkpointPatchesJustTheChangedEntries() throws IOException {
+        final Path dir = Files.createTempDirectory("write-back");
+        try {
+            final Path bibFile = createBibFile(dir, CONTENT);
+            try (final BibTeXWriteBack writeBack = new BibTeXWriteBack(bibFile.toString(), 0)) {
+                writeBack.setField("second", "file", "/papers/2-Second.pdf");
+                assertEquals(1, writeBack.getPendingChanges());
+                assertEquals(CONTENT, read(bibFile));
+                assertTrue(Files.exists(getJournalFile(bibFile)));
+
+                assertEquals(1, writeBack.checkpoint());
+                assertEquals(0, writeBack.getPendingChanges());
+                assertFalse(Files.exists(getJournalFile(bibFile)));
+                assertEquals(
+                    "% papers\n" + FIRST + "\n\n" + "@Article{second, title={Second}, file = {/papers/2-Second.pdf}}\n",
+                    read(bibFile));
+
+                //the positions of the entries after a patched one are updated
+                writeBack.setField("first", "url", "http://new");
+            }
+            assertEquals(
+                "% papers\n" + FIRST.replace("http://old", "http://new") + "\n\n" +
+                "@Article{second, title={Second}, file = {/papers/2-Second.pdf}}\n",
+                read(bibFile));
+        } finally {
+            FileSystemUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void journalLeftByPreviousRunIsApplied() throws IOException {
+        final Path dir = Files.createTempDirectory("write-back");
+        try {
+            final Path bibFile = createBibFile(dir, CONTENT);
+            //the last line was truncated when the previous run died
+            Files.write(getJournalFile(bibFile),
+                "first\tfile\t/papers/1-First.pdf\nsecond\tfi".getBytes(StandardCharsets.UTF_8));
+            try (final BibTeXWriteBack writeBack = new BibTeXWriteBack(bibFile.toString(), 0)) {
+                assertEquals(0, writeBack.getPendingChanges());
+            }
+            assertFalse(Files.exists(getJournalFile(bibFile)));
+            assertEquals(
+                "% papers\n" + FIRST.replace("http://old}", "http://old},\n  file = {/papers/1-First.pdf}") +
+                "\n\n" + SECOND + "\n",
+                read(bibFile));
+        } finally {
+            FileSystemUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void nullValueIsIgnored() throws IOException {
+        final Path dir = Files.createTempDirectory("write-back");
+        try {
+            final Path bibFile = createBibFile(dir, CONTENT);
+            try (final BibTeXWriteBack writeBack = new BibTeXWriteBack(bibFile.toString(), 0)) {
+                writeBack.setField("first", "url", null);
+                assertEquals(0, writeBack.getPendingChanges());
+                assertFalse(Files.exists(getJournalFile(bibFile)));
+            }
+            assertEquals(CONTENT, read(bibFile));
+            assertEquals(FIRST, BibTeXWriteBack.patchField(FIRST, "url", null));
+            assertEquals(SECOND, BibTeXWriteBack.patchFields(SECOND, Collections.<String, String>singletonMap("file", null)));
+        } finally {
+            FileSystemUtils.deleteDirectory(dir);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import com.manoelcampos.bibtexpaperdownloader.repository.AbstractPaperRepository;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.jbibtex.ParseException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests how {@link BibTexPapersDownloader} resumes the downloads of a bibtex file,
+ * in the parsed and streaming modes, according to the {@link JobJournal} left by a previous run.
+ * The papers are downloaded from a local server.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class BibTexPapersDownloaderTest {
+    private static final byte PDF[] = "%PDF-1.4\nresumed paper\n%%EOF\n".getBytes(StandardCharsets.US_ASCII);
+    private static final List<String> requests = new CopyOnWriteArrayList<>();
+    private static HttpServer server;
+
+    /**
+     * A repository whose pages link to the PDFs and which has no metadata API.
+     */
+    private static class LocalRepository extends AbstractPaperRepository {
+        @Override
+        public String getRegexToIdentifyUnallowedPaperAccess() {
+            return "Sign-In or Purchase";
+        }
+
+        @Override
+        public String getRegexToExtractPdfUrlFromPaperWebPage() {
+            return "<a href=\"([^\"]*\\.pdf)\">";
+        }
+
+        @Override
+        public String getMetadataUrl(final String doi) {
+            return null;
+        }
+    }
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final String path = exchange.getRequestURI().getPath();
+                requests.add(path);
+                final byte body[] = path.endsWith(".pdf") ? PDF :
+                        String.format("<a href=\"%s.pdf\">PDF</a>", getUrl(path)).getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+                try (final OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.stop(0);
+    }
+
+    private static String getUrl(final String path) {
+        return String.format("http://%s:%d%s", server.getAddress().getHostString(), server.getAddress().getPort(), path);
+    }
+
+    private static String read(final Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void resumesParsedFile() throws Exception {
+        resume(false);
+    }
+
+    @Test
+    public void resumesStreamedFile() throws Exception {
+        resume(true);
+    }
+
+    /**
+     * Resumes the downloads of a bibtex file whose previous run downloaded the paper
+     * of an entry without URL (but didn't save its file into the entry),
+     * found a paper to be paywalled and failed to download another one.
+     */
+    private void resume(final boolean streaming) throws IOException, ParseException, InvalidPaperIdException {
+        final Path dir = Files.createTempDirectory("resume");
+        try {
+            final String done = "@article{done,\n  title = {Done},\n  year = {2020},\n  doi = {10.1000/done}\n}";
+            final String paywalled = "@article{paywalled,\n  title = \"Paywalled\",\n  year = 2020,\n  url = \"" + getUrl("/paywalled") + "\"\n}";
+            final String failed = "@article{failed,\n  title = {Failed},\n  year = {2020},\n  url = {" + getUrl("/failed") + "}\n}";
+            final Path bibFile = dir.resolve("papers.bib");
+            Files.write(bibFile, (done + "\n\n" + paywalled + "\n\n" + failed + "\n").getBytes(StandardCharsets.UTF_8));
+
+            final Path donePdf = dir.resolve("1-Done.pdf");
+            Files.write(donePdf, PDF);
+            try (final JobJournal journal = new JobJournal(bibFile.toString(), false)) {
+                for (String key : Arrays.asList("done", "paywalled", "failed")) {
+                    journal.claim(key);
+                }
+                journal.update("done", JobJournal.State.DONE, donePdf.toString());
+                journal.update("paywalled", JobJournal.State.PAYWALLED, null);
+                journal.update("failed", JobJournal.State.FAILED, null);
+            }
+
+            requests.clear();
+            final BibTexPapersDownloader bibtex = new BibTexPapersDownloader(bibFile.toString(), new LocalRepository(), streaming);
+            bibtex.setDownloadDir(dir.toString());
+            bibtex.setResume(true);
+            bibtex.downloadAllPapers();
+
+            assertEquals(Arrays.asList("/failed", "/failed.pdf"), requests);
+            final Path failedPdf = dir.resolve("3-Failed.pdf");
+            assertTrue(FileSystemUtils.isValidPdfFile(failedPdf.toString()));
+            assertEquals(
+                done.replace("done}\n}", "done},\n  file = {" + donePdf + "}\n}") + "\n\n" +
+                paywalled + "\n\n" +
+                failed.replace("failed}\n}", "failed},\n  file = {" + failedPdf + "}\n}") + "\n",
+                read(bibFile));
+            assertFalse(Files.exists(bibFile.resolveSibling("papers.bib.journal")));
+
+            try (final JobJournal journal = new JobJournal(bibFile.toString(), true)) {
+                assertEquals(JobJournal.State.DONE, journal.get("failed").getState());
+                assertEquals(2, journal.get("failed").getAttempts());
+            }
+        } finally {
+            FileSystemUtils.deleteDirectory(dir);
+        }
+    }
+}
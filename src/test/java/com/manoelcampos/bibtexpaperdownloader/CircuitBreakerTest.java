@@ -0,0 +1,77 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests how a {@link CircuitBreaker} opens, allows a single trial download
+ * when it's half-open and gives up a repository.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class CircuitBreakerTest {
+    /**
+     * Checks if a download can be tried by a thread other than the current one,
+     * which cannot take over the trial download of the current thread.
+     */
+    private static long getDelayMillisInAnotherThread(final CircuitBreaker breaker) throws InterruptedException {
+        final AtomicLong delay = new AtomicLong();
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                delay.set(breaker.getDelayMillis());
+            }
+        });
+        thread.start();
+        thread.join();
+        return delay.get();
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailuresAndClosesWhenTrialSucceeds() throws InterruptedException {
+        final CircuitBreaker breaker = new CircuitBreaker(2, 50, 3);
+        breaker.record(true);
+        assertFalse(breaker.isOpen());
+        breaker.record(true);
+        assertTrue(breaker.isOpen());
+        assertTrue(breaker.getDelayMillis() > 0);
+
+        Thread.sleep(60);
+        assertEquals(0, breaker.getDelayMillis());
+        assertTrue(getDelayMillisInAnotherThread(breaker) > 0);
+
+        breaker.record(false);
+        assertFalse(breaker.isOpen());
+        assertEquals(0, getDelayMillisInAnotherThread(breaker));
+    }
+
+    @Test
+    public void cancelledTrialLetsAnotherDownloadBeTried() throws InterruptedException {
+        final CircuitBreaker breaker = new CircuitBreaker(1, 0, 3);
+        breaker.record(true);
+        assertEquals(0, breaker.getDelayMillis());
+        assertTrue(getDelayMillisInAnotherThread(breaker) > 0);
+
+        breaker.cancelTrial();
+        assertTrue(breaker.isOpen());
+        assertEquals(0, getDelayMillisInAnotherThread(breaker));
+        //the trial now belongs to another thread, that is the only one that can cancel it
+        breaker.cancelTrial();
+        assertTrue(breaker.getDelayMillis() > 0);
+    }
+
+    @Test
+    public void failedTrialOpensAgainUntilRepositoryIsGivenUp() {
+        final CircuitBreaker breaker = new CircuitBreaker(1, 0, 2);
+        breaker.record(true);
+        assertFalse(breaker.isGivenUp());
+
+        assertEquals(0, breaker.getDelayMillis());
+        breaker.record(true);
+        assertTrue(breaker.isGivenUp());
+        assertEquals(CircuitBreaker.GIVEN_UP, breaker.getDelayMillis());
+    }
+}
@@ -0,0 +1,91 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests how the {@link JobJournal} of a bibtex file records the state of each entry
+ * and how the states are kept for a run that resumes the downloads.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class JobJournalTest {
+    private static Path createBibFile(final Path dir) throws IOException {
+        final Path bibFile = dir.resolve("papers.bib");
+        Files.write(bibFile, "@article{a, title = {A}}\n".getBytes(StandardCharsets.UTF_8));
+        return bibFile;
+    }
+
+    @Test
+    public void entryIsClaimedJustOnceByWorker() throws IOException {
+        final Path dir = Files.createTempDirectory("job-journal");
+        try (final JobJournal journal = new JobJournal(createBibFile(dir).toString(), false)) {
+            journal.addPending(Arrays.asList("a"));
+            assertEquals(JobJournal.State.PENDING, journal.get("a").getState());
+
+            assertTrue(journal.claim("a"));
+            assertFalse(journal.claim("a"));
+            assertEquals(JobJournal.State.RESOLVING, journal.get("a").getState());
+            assertEquals(1, journal.get("a").getAttempts());
+        } finally {
+            FileSystemUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void resumedJournalKeepsStatesOfPreviousRun() throws IOException {
+        final Path dir = Files.createTempDirectory("job-journal");
+        try {
+            final String bibFile = createBibFile(dir).toString();
+            final String paperFile = dir.resolve("a.pdf").toString();
+            try (final JobJournal journal = new JobJournal(bibFile, false)) {
+                for (String key : Arrays.asList("done", "paywalled", "failed")) {
+                    assertTrue(journal.claim(key));
+                }
+                journal.update("done", JobJournal.State.DONE, paperFile);
+                journal.update("paywalled", JobJournal.State.PAYWALLED, null);
+                journal.update("failed", JobJournal.State.FAILED, null);
+            }
+
+            try (final JobJournal journal = new JobJournal(bibFile, true)) {
+                assertEquals(JobJournal.State.DONE, journal.get("done").getState());
+                assertEquals(paperFile, journal.get("done").getPaperFile());
+                assertEquals(JobJournal.State.PAYWALLED, journal.get("paywalled").getState());
+                assertFalse(journal.claim("done"));
+                assertFalse(journal.claim("paywalled"));
+
+                assertTrue(journal.claim("failed"));
+                assertEquals(2, journal.get("failed").getAttempts());
+            }
+        } finally {
+            FileSystemUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void journalNotResumedStartsOver() throws IOException {
+        final Path dir = Files.createTempDirectory("job-journal");
+        try {
+            final String bibFile = createBibFile(dir).toString();
+            try (final JobJournal journal = new JobJournal(bibFile, false)) {
+                journal.claim("a");
+                journal.update("a", JobJournal.State.DONE, dir.resolve("a.pdf").toString());
+            }
+
+            try (final JobJournal journal = new JobJournal(bibFile, false)) {
+                assertNull(journal.get("a"));
+                assertTrue(journal.claim("a"));
+            }
+        } finally {
+            FileSystemUtils.deleteDirectory(dir);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import java.io.IOException;
+import java.io.StringReader;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class JsonReaderTest {
+    private static JsonReader reader(final String json) {
+        return new JsonReader(new StringReader(json));
+    }
+
+    @Test
+    public void readsTokensOfObjectsAndArrays() throws IOException {
+        final JsonReader json = reader("{\"title\": \"A paper\", \"year\": 2015, \"open\": true, \"tags\": [null, 1.5]}");
+        assertEquals(JsonReader.Token.BEGIN_OBJECT, json.next());
+        assertEquals(JsonReader.Token.NAME, json.next());
+        assertEquals("title", json.getValue());
+        assertEquals(JsonReader.Token.STRING, json.next());
+        assertEquals("A paper", json.getValue());
+        assertEquals(JsonReader.Token.NAME, json.next());
+        assertEquals(JsonReader.Token.NUMBER, json.next());
+        assertEquals("2015", json.getValue());
+        assertEquals(JsonReader.Token.NAME, json.next());
+        assertEquals(JsonReader.Token.BOOLEAN, json.next());
+        assertEquals("true", json.getValue());
+        assertEquals(JsonReader.Token.NAME, json.next());
+        assertEquals(JsonReader.Token.BEGIN_ARRAY, json.next());
+        assertEquals(2, json.getDepth());
+        assertEquals(JsonReader.Token.NULL, json.next());
+        assertNull(json.getValue());
+        assertEquals(JsonReader.Token.NUMBER, json.next());
+        assertEquals("1.5", json.getValue());
+        assertEquals(JsonReader.Token.END_ARRAY, json.next());
+        assertEquals(JsonReader.Token.END_OBJECT, json.next());
+        assertEquals(JsonReader.Token.END_DOCUMENT, json.next());
+        assertEquals(0, json.getDepth());
+    }
+
+    @Test
+    public void unescapesStrings() throws IOException {
+        final JsonReader json = reader("[\"a\\\"b\\\\c\\/d\\n\\u00e9\"]");
+        json.next();
+        assertEquals(JsonReader.Token.STRING, json.next());
+        assertEquals("a\"b\\c/d\n\u00e9", json.getValue());
+    }
+
+    @Test
+    public void skipsNestedValues() throws IOException {
+        final JsonReader json = reader("{\"author\": [{\"given\": \"Jo\", \"family\": [1, {\"x\": []}]}], \"DOI\": \"10.1109/5.771073\"}");
+        json.next();
+        json.next();
+        json.skipValue();
+        assertEquals(1, json.getDepth());
+        assertEquals(JsonReader.Token.NAME, json.next());
+        assertEquals("DOI", json.getValue());
+        assertEquals("10.1109/5.771073", json.nextString());
+    }
+
+    @Test
+    public void nextStringIsNullForObjects() throws IOException {
+        final JsonReader json = reader("{\"link\": {\"URL\": \"http://example.com\"}, \"title\": \"T\"}");
+        json.next();
+        json.next();
+        assertNull(json.nextString());
+        json.next();
+        assertEquals("T", json.nextString());
+    }
+
+    @Test(expected = IOException.class)
+    public void failsOnUnterminatedString() throws IOException {
+        final JsonReader json = reader("{\"title\": \"A pap");
+        json.next();
+        json.next();
+        json.next();
+    }
+
+    @Test(expected = IOException.class)
+    public void failsOnInvalidLiteral() throws IOException {
+        final JsonReader json = reader("{\"open\": yes}");
+        json.next();
+        json.next();
+        json.next();
+    }
+
+    @Test(expected = IOException.class)
+    public void failsOnUnbalancedClose() throws IOException {
+        reader("}").next();
+    }
+}
@@ -0,0 +1,101 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link MetadataApi#findPdfLink(URL, Map)} against a local server
+ * that answers each path with a fixed metadata document.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class MetadataApiTest {
+    private static final String PDF_URL = "http://ieeexplore.ieee.org/stamp/stamp.jsp?arnumber=771073";
+    private static final Map<String, String> documents = new ConcurrentHashMap<>();
+    private static HttpServer server;
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        documents.put("/pdf-link",
+            "{\"DOI\": \"10.1109/5.771073\", \"link\": [" +
+            "{\"URL\": \"http://ieeexplore.ieee.org/xml/771073\", \"content-type\": \"text/xml\"}, " +
+            "{\"URL\": \"" + PDF_URL + "\", \"content-type\": \"application/pdf\", \"intended-application\": \"text-mining\"}]}");
+        documents.put("/no-link", "{\"DOI\": \"10.1109/5.771073\", \"title\": \"Toward unique identifiers\"}");
+        documents.put("/non-array-link",
+            "{\"link\": {\"URL\": \"" + PDF_URL + "\", \"content-type\": \"application/pdf\"}, \"title\": \"T\"}");
+        documents.put("/malformed", "{\"link\": [{\"URL\": \"" + PDF_URL);
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final String document = documents.get(exchange.getRequestURI().getPath());
+                final byte body[] = document == null ? new byte[0] : document.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(document == null ? HttpURLConnection.HTTP_NOT_FOUND : HttpURLConnection.HTTP_OK,
+                                             body.length == 0 ? -1 : body.length);
+                try (final OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.stop(0);
+    }
+
+    private static String findPdfLink(final String path) throws IOException {
+        final URL url = new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(), path);
+        return MetadataApi.findPdfLink(url, Collections.<String, String>emptyMap());
+    }
+
+    @Test
+    public void findsPdfLink() throws IOException {
+        assertEquals(PDF_URL, findPdfLink("/pdf-link"));
+    }
+
+    @Test
+    public void returnsNullWithoutLink() throws IOException {
+        assertNull(findPdfLink("/no-link"));
+    }
+
+    @Test
+    public void ignoresLinkThatIsNotArray() throws IOException {
+        assertNull(findPdfLink("/non-array-link"));
+    }
+
+    @Test
+    public void failsWhenMetadataIsNotFound() throws IOException {
+        try {
+            findPdfLink("/missing");
+            fail("A 404 should have thrown an exception");
+        } catch(HttpStatusException e){
+            assertEquals(HttpURLConnection.HTTP_NOT_FOUND, e.getStatusCode());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void failsOnMalformedJson() throws IOException {
+        findPdfLink("/malformed");
+    }
+}
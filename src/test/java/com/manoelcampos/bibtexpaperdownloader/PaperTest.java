@@ -0,0 +1,151 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import com.manoelcampos.bibtexpaperdownloader.repository.AbstractPaperRepository;
+import com.manoelcampos.bibtexpaperdownloader.repository.PaperRepository;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests how a {@link Paper} deals with a PDF URL that gives a page instead of the paper,
+ * downloading the papers from a local server that also provides the metadata API.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class PaperTest {
+    private static final String PDF = "%PDF-1.4\npaper\n%%EOF\n";
+    private static final String LOGIN_PAGE = "<html><body>Sign in to read the paper</body></html>";
+    private static final Map<String, String> documents = new ConcurrentHashMap<>();
+    private static HttpServer server;
+
+    /**
+     * A repository whose metadata API and pages are provided by the local server.
+     */
+    private static class LocalRepository extends AbstractPaperRepository {
+        @Override
+        public String getRegexToIdentifyUnallowedPaperAccess() {
+            return "Sign-In or Purchase";
+        }
+
+        @Override
+        public String getRegexToExtractPdfUrlFromPaperWebPage() {
+            return "<a href=\"([^\"]*\\.pdf)\">";
+        }
+
+        @Override
+        public String getMetadataUrl(final String doi) {
+            return getUrl("/metadata/" + doi);
+        }
+    }
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final String document = documents.get(exchange.getRequestURI().getPath());
+                final byte body[] = document == null ? new byte[0] : document.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(document == null ? HttpURLConnection.HTTP_NOT_FOUND : HttpURLConnection.HTTP_OK,
+                                             body.length == 0 ? -1 : body.length);
+                try (final OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.stop(0);
+    }
+
+    private static String getUrl(final String path) {
+        return String.format("http://%s:%d%s", server.getAddress().getHostString(), server.getAddress().getPort(), path);
+    }
+
+    /**
+     * Publishes a paper whose metadata links to a login page instead of the PDF.
+     * @param name the name of the paper, used in its DOI and URLs
+     * @param pagePdf the document given by the PDF URL in the paper page
+     */
+    private static void publish(final String name, final String pagePdf) {
+        documents.put("/metadata/10.1000/" + name,
+            "{\"link\": [{\"URL\": \"" + getUrl("/" + name + "-login.pdf") + "\", \"content-type\": \"application/pdf\"}]}");
+        documents.put("/" + name + "-login.pdf", LOGIN_PAGE);
+        documents.put("/" + name, "<a href=\"" + getUrl("/" + name + ".pdf") + "\">PDF</a>");
+        documents.put("/" + name + ".pdf", pagePdf);
+    }
+
+    /**
+     * Downloads the paper published with a given name.
+     * @return the downloader of the bibtex file
+     */
+    private static BibTexPapersDownloader download(final Path dir, final PaperRepository repository, final String name) throws Exception {
+        final Path bibFile = dir.resolve("papers.bib");
+        Files.write(bibFile, String.format(
+            "@article{%s, title = {Paper}, year = {2020}, doi = {10.1000/%s}, url = {%s}}\n", name, name, getUrl("/" + name))
+            .getBytes(StandardCharsets.UTF_8));
+        final BibTexPapersDownloader bibtex = new BibTexPapersDownloader(bibFile.toString(), repository, false);
+        bibtex.setDownloadDir(dir.toString());
+        bibtex.setRetryPolicy(new RetryPolicy(0, 0, 0));
+        bibtex.setResolutionCache(new ResolutionCache(dir.resolve("resolution.cache").toString()));
+        bibtex.setPdfStore(new PdfStore(dir.resolve("store").toString()));
+        bibtex.downloadAllPapers();
+        return bibtex;
+    }
+
+    @Test
+    public void metadataLinkToLoginPageFallsBackToPaperPage() throws Exception {
+        publish("fallback", PDF);
+        final Path dir = Files.createTempDirectory("paper");
+        try {
+            final PaperRepository repository = new LocalRepository();
+            final BibTexPapersDownloader bibtex = download(dir, repository, "fallback");
+
+            final Path file = dir.resolve("1-Paper.pdf");
+            assertEquals(PDF, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            assertEquals(JobJournal.State.DONE, bibtex.getJobJournal().get("fallback").getState());
+            final PaperPage cached = bibtex.getResolutionCache().get(repository, "10.1000/fallback", getUrl("/fallback"));
+            assertEquals(getUrl("/fallback.pdf"), cached.getPdfUrl());
+        } finally {
+            FileSystemUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void pageInsteadOfPdfIsNotSaved() throws Exception {
+        publish("login", LOGIN_PAGE);
+        final Path dir = Files.createTempDirectory("paper");
+        try {
+            final PaperRepository repository = new LocalRepository();
+            final BibTexPapersDownloader bibtex = download(dir, repository, "login");
+
+            assertFalse(Files.exists(dir.resolve("1-Paper.pdf")));
+            assertEquals(JobJournal.State.FAILED, bibtex.getJobJournal().get("login").getState());
+            assertNull(bibtex.getResolutionCache().get(repository, "10.1000/login", getUrl("/login")));
+            assertFalse(bibtex.getPdfStore().linkByDoi("10.1000/login", dir.resolve("linked.pdf")));
+            assertTrue(new String(Files.readAllBytes(dir.resolve("papers.bib")), StandardCharsets.UTF_8).indexOf("file") < 0);
+        } finally {
+            FileSystemUtils.deleteDirectory(dir);
+        }
+    }
+}
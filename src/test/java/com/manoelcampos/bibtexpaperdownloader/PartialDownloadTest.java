@@ -0,0 +1,117 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests how {@link HttpUtils#downloadFile(String, String)} resumes a {@link PartialDownload}
+ * from a local server that answers Range requests with a part of the file
+ * other than the requested one.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class PartialDownloadTest {
+    private static final int SIZE = 1000;
+    private static final int INTERRUPTED_AT = 400;
+    private static final int SENT_RANGE_START = 100;
+    private static final byte CONTENT[] = createContent();
+    private static final List<String> ranges = new CopyOnWriteArrayList<>();
+    private static volatile boolean interrupt;
+    private static HttpServer server;
+
+    private static byte[] createContent() {
+        final byte content[] = new byte[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            content[i] = (byte)('a' + i % 26);
+        }
+        final byte header[] = "%PDF-1.4\n".getBytes(StandardCharsets.US_ASCII);
+        final byte trailer[] = "\n%%EOF\n".getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(header, 0, content, 0, header.length);
+        System.arraycopy(trailer, 0, content, SIZE - trailer.length, trailer.length);
+        return content;
+    }
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/paper.pdf", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final String range = exchange.getRequestHeaders().getFirst("Range");
+                ranges.add(String.valueOf(range));
+                exchange.getResponseHeaders().set("Content-Type", "application/pdf");
+                try (final OutputStream out = exchange.getResponseBody()) {
+                    if(interrupt) {
+                        //announces the entire file but closes the connection in the middle
+                        exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, SIZE);
+                        out.write(CONTENT, 0, INTERRUPTED_AT);
+                        out.flush();
+                        return;
+                    }
+                    if(range == null) {
+                        exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, SIZE);
+                        out.write(CONTENT);
+                        return;
+                    }
+                    //ignores the requested start and sends another part of the file
+                    exchange.getResponseHeaders().set("Content-Range",
+                            String.format("bytes %d-%d/%d", SENT_RANGE_START, SIZE - 1, SIZE));
+                    exchange.sendResponseHeaders(HttpURLConnection.HTTP_PARTIAL, SIZE - SENT_RANGE_START);
+                    out.write(CONTENT, SENT_RANGE_START, SIZE - SENT_RANGE_START);
+                }
+            }
+        });
+        server.start();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void restartsWithPlainGetWhenServerSendsAnotherRange() throws IOException {
+        final String url = String.format("http://%s:%d/paper.pdf",
+                server.getAddress().getHostString(), server.getAddress().getPort());
+        final Path dir = Files.createTempDirectory("partial-download");
+        final Path file = dir.resolve("paper.pdf");
+        try {
+            interrupt = true;
+            try {
+                HttpUtils.downloadFile(url, file.toString());
+                fail("The interrupted transfer should have failed");
+            } catch(IOException e) {
+                assertFalse(Files.exists(file));
+            }
+            assertEquals(INTERRUPTED_AT, new PartialDownload(file).getResumePosition(url));
+
+            interrupt = false;
+            ranges.clear();
+            assertTrue(HttpUtils.downloadFile(url, file.toString()));
+            assertEquals(Arrays.asList("bytes=" + INTERRUPTED_AT + "-", "null"), ranges);
+            assertTrue(Arrays.equals(CONTENT, Files.readAllBytes(file)));
+            assertFalse(Files.exists(FileSystemUtils.getTemporaryFile(file)));
+        } finally {
+            FileSystemUtils.deleteDirectory(dir);
+        }
+    }
+}
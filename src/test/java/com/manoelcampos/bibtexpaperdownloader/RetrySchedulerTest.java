@@ -0,0 +1,144 @@
+package com.manoelcampos.bibtexpaperdownloader;
+
+import com.manoelcampos.bibtexpaperdownloader.repository.AbstractPaperRepository;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests how the {@link RetryScheduler} deals with the {@link CircuitBreaker}
+ * of a repository, downloading the papers from a local server.
+ *
+ * @author Manoel Campos da Silva Filho <manoelcampos at gmail dot com>
+ */
+public class RetrySchedulerTest {
+    private static final byte PDF[] = "%PDF-1.4\ntrial paper\n%%EOF\n".getBytes(StandardCharsets.US_ASCII);
+    private static final long TIMEOUT_MILLIS = 10000;
+    private static HttpServer server;
+
+    /**
+     * A repository whose pages link to the PDFs, which has no metadata API
+     * and whose circuit breaker is given by the test.
+     */
+    private static class LocalRepository extends AbstractPaperRepository {
+        private final CircuitBreaker breaker;
+
+        LocalRepository(final CircuitBreaker breaker) {
+            this.breaker = breaker;
+        }
+
+        @Override
+        public String getRegexToIdentifyUnallowedPaperAccess() {
+            return "Sign-In or Purchase";
+        }
+
+        @Override
+        public String getRegexToExtractPdfUrlFromPaperWebPage() {
+            return "<a href=\"([^\"]*\\.pdf)\">";
+        }
+
+        @Override
+        public String getMetadataUrl(final String doi) {
+            return null;
+        }
+
+        @Override
+        public CircuitBreaker getCircuitBreaker() {
+            return breaker;
+        }
+    }
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final String path = exchange.getRequestURI().getPath();
+                final byte body[] = path.endsWith(".pdf") ? PDF :
+                        String.format("<a href=\"%s.pdf\">PDF</a>", getUrl(path)).getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+                try (final OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.stop(0);
+    }
+
+    private static String getUrl(final String path) {
+        return String.format("http://%s:%d%s", server.getAddress().getHostString(), server.getAddress().getPort(), path);
+    }
+
+    /**
+     * The first paper tried when the circuit is half-open cannot be claimed
+     * (since a previous run recorded it as done), so it gives no verdict of the repository
+     * and the trial has to pass to the next paper.
+     */
+    @Test
+    public void trialWithoutVerdictIsPassedToNextPaper() throws Exception {
+        final Path dir = Files.createTempDirectory("retry-scheduler");
+        try {
+            final Path bibFile = dir.resolve("papers.bib");
+            Files.write(bibFile, (
+                "@article{claimed, title = {Claimed}, year = {2020}, url = {" + getUrl("/claimed") + "}}\n\n" +
+                "@article{trial, title = {Trial}, year = {2020}, url = {" + getUrl("/trial") + "}}\n")
+                .getBytes(StandardCharsets.UTF_8));
+            //the file of the done paper was lost, so the paper is tried again but cannot be claimed
+            try (final JobJournal journal = new JobJournal(bibFile.toString(), false)) {
+                journal.claim("claimed");
+                journal.update("claimed", JobJournal.State.DONE, dir.resolve("lost.pdf").toString());
+            }
+
+            //the circuit is open, but a trial download can be made right away
+            final CircuitBreaker breaker = new CircuitBreaker(1, 0, 3);
+            breaker.record(true);
+            final BibTexPapersDownloader bibtex =
+                    new BibTexPapersDownloader(bibFile.toString(), new LocalRepository(breaker), false);
+            bibtex.setDownloadDir(dir.toString());
+            bibtex.setResume(true);
+
+            final AtomicReference<Throwable> error = new AtomicReference<>();
+            final Thread downloader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        bibtex.downloadAllPapers();
+                    } catch(Exception e) {
+                        error.set(e);
+                    }
+                }
+            });
+            downloader.setDaemon(true);
+            downloader.start();
+            downloader.join(TIMEOUT_MILLIS);
+
+            assertFalse("The downloads are waiting for a trial that finished", downloader.isAlive());
+            assertNull(error.get());
+            assertFalse(breaker.isOpen());
+            assertTrue(FileSystemUtils.isValidPdfFile(dir.resolve("2-Trial.pdf").toString()));
+        } finally {
+            FileSystemUtils.deleteDirectory(dir);
+        }
+    }
+}